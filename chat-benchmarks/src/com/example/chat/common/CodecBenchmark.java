@@ -0,0 +1,99 @@
+package com.example.chat.common;
+
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes and decodes one chat message with each of the ways the project has to do it:
+ * reflective Gson through {@link GsonFactory}, the hand-written {@link MessageJson} used by
+ * {@link JsonCodec}, and {@link BinaryCodec} with and without deflate. Below
+ * {@link BinaryCodec#COMPRESS_MIN_BYTES} the deflate variant sends bodies as they are.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({"16", "256", "4096"})
+    public int bodyLength;
+
+    private final Gson gson = GsonFactory.getGson();
+    private Message message;
+    private String gsonJson;
+    private byte[] json;
+    private byte[] binary;
+    private byte[] deflated;
+
+    @Setup
+    public void setup() {
+        message = new Message("alice", "ALL", MessageType.TEXT, "x".repeat(bodyLength));
+        gsonJson = gson.toJson(message);
+        json = MessageJson.encode(message);
+        binary = BinaryCodec.INSTANCE.encode(message);
+        deflated = BinaryCodec.DEFLATE.encode(message);
+    }
+
+    @Benchmark
+    public String gsonEncode() {
+        return gson.toJson(message);
+    }
+
+    @Benchmark
+    public Message gsonDecode() {
+        return gson.fromJson(gsonJson, Message.class);
+    }
+
+    @Benchmark
+    public byte[] jsonEncode() {
+        return MessageJson.encode(message);
+    }
+
+    @Benchmark
+    public Message jsonDecode() throws IOException {
+        return MessageJson.parse(json, 0, json.length);
+    }
+
+    @Benchmark
+    public byte[] binaryEncode() {
+        return BinaryCodec.INSTANCE.encode(message);
+    }
+
+    @Benchmark
+    public Message binaryDecode() throws IOException {
+        return BinaryCodec.INSTANCE.decode(ByteBuffer.wrap(binary));
+    }
+
+    @Benchmark
+    public byte[] deflateEncode() {
+        return BinaryCodec.DEFLATE.encode(message);
+    }
+
+    @Benchmark
+    public Message deflateDecode() throws IOException {
+        return BinaryCodec.DEFLATE.decode(ByteBuffer.wrap(deflated));
+    }
+
+    /**
+     * What one broadcast costs in encoding: a fresh frame rendered as JSON for its first reader.
+     */
+    @Benchmark
+    public byte[] frameEncode() {
+        return Frame.of(message).encoded(JsonCodec.INSTANCE);
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.chat.common;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link InstantTypeAdapter} on its own, as Gson calls it for every message timestamp.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InstantAdapterBenchmark {
+    private final InstantTypeAdapter adapter = new InstantTypeAdapter();
+    private Instant instant;
+    private String json;
+
+    @Setup
+    public void setup() throws IOException {
+        instant = Instant.parse("2025-06-22T10:15:30.123456Z");
+        StringWriter out = new StringWriter();
+        adapter.write(new JsonWriter(out), instant);
+        json = out.toString();
+    }
+
+    @Benchmark
+    public String write() throws IOException {
+        StringWriter out = new StringWriter(40);
+        adapter.write(new JsonWriter(out), instant);
+        return out.toString();
+    }
+
+    @Benchmark
+    public Instant read() throws IOException {
+        return adapter.read(new JsonReader(new StringReader(json)));
+    }
+}
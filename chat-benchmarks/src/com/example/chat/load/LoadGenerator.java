@@ -0,0 +1,245 @@
+package com.example.chat.load;
+
+import com.example.chat.client.ChatClient;
+import com.example.chat.common.Config;
+import com.example.chat.common.Message;
+import com.example.chat.common.MessageType;
+import com.example.chat.server.ChatServer;
+import com.example.chat.server.ServerMetrics;
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless load test: connects {@code load.users} simulated users to a chat server on this
+ * machine, has each send at {@code load.messagesPerSecond} to its room or to everyone, and
+ * reports delivery latency, throughput and connection setup time.
+ * <p>
+ * Latency is measured end to end from the timestamp {@link Message} carries from the sender to
+ * the moment a receiver's listener thread decodes it, so sender and receivers must share a
+ * clock, which is why everything runs on localhost. Only messages stamped inside the measured
+ * window count; warmup traffic and messages still in flight when it closes are left out of
+ * the latency figures, and the drain period lets the latter arrive before delivery is tallied.
+ * <p>
+ * Run with {@code key=value} arguments to override {@code load-test.properties}, e.g.
+ * {@code load.users=5000 load.rooms=0}.
+ */
+public class LoadGenerator {
+    private static final String USER_PREFIX = "load-";
+
+    private final LoadSettings settings;
+    private final List<SimulatedUser> users = new ArrayList<>();
+    private final Map<String, Integer> roomSizes = new ConcurrentHashMap<>();
+    private final LatencyHistogram setupMicros = new LatencyHistogram();
+    private final LatencyHistogram latencyMicros = new LatencyHistogram();
+    private final LongAdder failedConnects = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder expected = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final String body;
+    // Measured window in epoch microseconds; nothing is inside it until it opens
+    private volatile long windowStart = Long.MAX_VALUE;
+    private volatile long windowEnd = Long.MAX_VALUE;
+
+    LoadGenerator(LoadSettings settings) {
+        this.settings = settings;
+        this.body = "x".repeat(settings.bodyBytes());
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config cfg = new Config("/load-test.properties");
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                cfg.set(arg.substring(0, eq), arg.substring(eq + 1));
+            }
+        }
+        new LoadGenerator(LoadSettings.fromConfig(cfg)).run();
+        System.exit(0);
+    }
+
+    void run() throws Exception {
+        if (settings.embedded()) {
+            startServer();
+        }
+        long connectStart = System.nanoTime();
+        connectUsers();
+        double connectSeconds = (System.nanoTime() - connectStart) / 1e9;
+        System.out.printf("Connected %d of %d users in %.1f s%n", users.size(), settings.users(), connectSeconds);
+        if (users.isEmpty()) {
+            return;
+        }
+        // Room JOINs are not acknowledged; give the server a moment to apply them
+        Thread.sleep(500);
+
+        ScheduledThreadPoolExecutor senders = new ScheduledThreadPoolExecutor(settings.senderThreads());
+        long periodNanos = (long) (1e9 / settings.messagesPerSecond());
+        for (SimulatedUser user : users) {
+            long offset = ThreadLocalRandom.current().nextLong(periodNanos);
+            senders.scheduleAtFixedRate(() -> sendOne(user), offset, periodNanos, TimeUnit.NANOSECONDS);
+        }
+        Thread.sleep(TimeUnit.SECONDS.toMillis(settings.warmupSeconds()));
+        windowStart = micros(Instant.now());
+        Thread.sleep(TimeUnit.SECONDS.toMillis(settings.durationSeconds()));
+        windowEnd = micros(Instant.now());
+        senders.shutdownNow();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(settings.drainSeconds()));
+
+        Map<String, Object> report = report(connectSeconds);
+        users.forEach(SimulatedUser::disconnect);
+        writeReport(report);
+    }
+
+    private void startServer() throws InterruptedException {
+        Config cfg = new Config("/chat-server.properties");
+        // Every simulated user shares one address and sends at the configured rate on purpose
+        cfg.set("flood.ratePerSecond", "0");
+        cfg.set("flood.ipRatePerSecond", "0");
+        // The blocking engine needs a pool thread per connected user
+        ChatServer server = new ChatServer(
+                settings.port(), settings.users() + 16, settings.engine(), "platform", cfg);
+        Thread thread = new Thread(server::start, "embedded-server");
+        thread.setDaemon(true);
+        thread.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            try {
+                new Socket(settings.host(), settings.port()).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+        throw new IllegalStateException("Embedded server did not start on port " + settings.port());
+    }
+
+    private void connectUsers() throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(settings.connectThreads());
+        List<Future<SimulatedUser>> pending = new ArrayList<>();
+        for (int i = 0; i < settings.users(); i++) {
+            int index = i;
+            pending.add(pool.submit(() -> connect(index)));
+        }
+        for (Future<SimulatedUser> future : pending) {
+            try {
+                users.add(future.get());
+            } catch (Exception e) {
+                failedConnects.increment();
+            }
+        }
+        pool.shutdown();
+    }
+
+    private SimulatedUser connect(int index) throws IOException, InterruptedException {
+        ChatClient client = new ChatClient(settings.host(), settings.port());
+        client.setPreferredCodecs(settings.codecs());
+        SimulatedUser user = new SimulatedUser(USER_PREFIX + index, settings.roomOf(index), client, this::received);
+        long start = System.nanoTime();
+        user.connect();
+        setupMicros.record((System.nanoTime() - start) / 1_000);
+        if (user.room != null) {
+            roomSizes.merge(user.room, 1, Integer::sum);
+        }
+        return user;
+    }
+
+    private void sendOne(SimulatedUser user) {
+        boolean toAll = user.room == null || ThreadLocalRandom.current().nextInt(100) < settings.broadcastPercent();
+        Message message = new Message(user.username, toAll ? "ALL" : user.room, MessageType.TEXT, body);
+        long stamp = micros(message.getTimestamp());
+        if (stamp >= windowStart && stamp < windowEnd) {
+            sent.increment();
+            // Everyone in the audience gets it, sender included
+            expected.add(toAll ? users.size() : roomSizes.get(user.room));
+        }
+        user.send(message);
+    }
+
+    private void received(Message message) {
+        if (message.getFrom() == null || !message.getFrom().startsWith(USER_PREFIX) || message.getTimestamp() == null) {
+            return;
+        }
+        long stamp = micros(message.getTimestamp());
+        if (stamp >= windowStart && stamp < windowEnd) {
+            latencyMicros.record(micros(Instant.now()) - stamp);
+            delivered.increment();
+        }
+    }
+
+    private Map<String, Object> report(double connectSeconds) {
+        double seconds = (windowEnd - windowStart) / 1e6;
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("settings", settings);
+
+        Map<String, Object> connections = new LinkedHashMap<>();
+        connections.put("attempted", settings.users());
+        connections.put("joined", users.size());
+        connections.put("failed", failedConnects.sum());
+        connections.put("totalSeconds", round(connectSeconds));
+        connections.put("setupMicros", summary(setupMicros));
+        report.put("connections", connections);
+
+        Map<String, Object> messages = new LinkedHashMap<>();
+        messages.put("measuredSeconds", round(seconds));
+        messages.put("sent", sent.sum());
+        messages.put("expectedDeliveries", expected.sum());
+        messages.put("delivered", delivered.sum());
+        messages.put("deliveryRatio", expected.sum() == 0 ? 0 : round((double) delivered.sum() / expected.sum()));
+        messages.put("sentPerSecond", round(sent.sum() / seconds));
+        messages.put("deliveredPerSecond", round(delivered.sum() / seconds));
+        report.put("messages", messages);
+
+        report.put("latencyMicros", summary(latencyMicros));
+        if (settings.embedded()) {
+            report.put("server", ServerMetrics.getInstance().snapshot());
+        }
+        return report;
+    }
+
+    private static Map<String, Object> summary(LatencyHistogram histogram) {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", histogram.count());
+        summary.put("mean", round(histogram.mean()));
+        summary.put("p50", histogram.percentile(0.50));
+        summary.put("p99", histogram.percentile(0.99));
+        summary.put("p999", histogram.percentile(0.999));
+        summary.put("max", histogram.max());
+        return summary;
+    }
+
+    private void writeReport(Map<String, Object> report) throws IOException {
+        String json = new GsonBuilder().setPrettyPrinting().create().toJson(report);
+        Path path = Path.of(settings.report());
+        try (Writer out = Files.newBufferedWriter(path)) {
+            out.write(json);
+            out.write('\n');
+        }
+        System.out.println(json);
+        System.out.println("Report written to " + path.toAbsolutePath());
+    }
+
+    private static long micros(Instant instant) {
+        return TimeUnit.SECONDS.toMicros(instant.getEpochSecond()) + instant.getNano() / 1_000;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10) / 10.0;
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.chat.load;
+
+import com.example.chat.common.Config;
+
+/**
+ * Shape of a load run, read from {@code load-test.properties} and command-line overrides.
+ *
+ * @param embedded           start a {@code ChatServer} in this JVM instead of using one already running
+ * @param host               server to connect to
+ * @param port               server port; also the port of the embedded server
+ * @param engine             I/O engine of the embedded server
+ * @param users              simulated users to connect
+ * @param connectThreads     users connecting at the same time
+ * @param codecs             codecs the users offer at JOIN
+ * @param rooms              rooms the users are spread over round-robin; 0 puts everyone in ALL only
+ * @param broadcastPercent   share of messages sent to ALL rather than to the sender's room
+ * @param messagesPerSecond  send rate of each user
+ * @param bodyBytes          size of each message body
+ * @param senderThreads      threads driving the sends
+ * @param warmupSeconds      traffic before measuring starts
+ * @param durationSeconds    length of the measured window
+ * @param drainSeconds       wait for in-flight messages after the window closes
+ * @param report             path of the JSON report
+ */
+record LoadSettings(boolean embedded, String host, int port, String engine, int users, int connectThreads,
+                    String codecs, int rooms, int broadcastPercent, double messagesPerSecond, int bodyBytes,
+                    int senderThreads, int warmupSeconds, int durationSeconds, int drainSeconds, String report) {
+
+    static LoadSettings fromConfig(Config cfg) {
+        return new LoadSettings(
+                cfg.getBoolean("load.embedded", true),
+                cfg.get("load.host", "localhost"),
+                cfg.getInt("load.port", 1234),
+                cfg.get("load.engine", "nio"),
+                cfg.getInt("load.users", 1000),
+                cfg.getInt("load.connectThreads", 32),
+                cfg.get("load.codecs", "binary,json"),
+                cfg.getInt("load.rooms", 20),
+                cfg.getInt("load.broadcastPercent", 1),
+                Double.parseDouble(cfg.get("load.messagesPerSecond", "1").trim()),
+                cfg.getInt("load.bodyBytes", 64),
+                cfg.getInt("load.senderThreads", 4),
+                cfg.getInt("load.warmupSeconds", 5),
+                cfg.getInt("load.durationSeconds", 30),
+                cfg.getInt("load.drainSeconds", 2),
+                cfg.get("load.report", "load-report.json")
+        );
+    }
+
+    /**
+     * Room of the {@code index}th user, or null when there are no rooms.
+     */
+    String roomOf(int index) {
+        return rooms > 0 ? "#load-" + (index % rooms) : null;
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.chat.load;
+
+import com.example.chat.client.ChatClient;
+import com.example.chat.common.Message;
+import com.example.chat.common.MessageType;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * One simulated user: a {@link ChatClient} whose inbound messages go straight to a handler on
+ * its listener thread, answering heartbeat pings the way {@code ClientController} does.
+ */
+final class SimulatedUser {
+    final String username;
+    final String room;
+    private final ChatClient client;
+
+    SimulatedUser(String username, String room, ChatClient client, Consumer<Message> onChat) {
+        this.username = username;
+        this.room = room;
+        this.client = client;
+        client.setMessageHandler(msg -> {
+            if (msg.getType() == MessageType.PING) {
+                client.send(new Message(username, "SERVER", MessageType.PONG, ""));
+            } else if (msg.getType() == MessageType.TEXT) {
+                onChat.accept(msg);
+            }
+        });
+    }
+
+    /**
+     * Connects, joins and enters the user's room. Returns once the server has answered the JOIN.
+     */
+    void connect() throws IOException, InterruptedException {
+        client.connect();
+        client.join(username);
+        if (room != null) {
+            client.send(new Message(username, room, MessageType.JOIN, ""));
+        }
+    }
+
+    void send(Message message) {
+        client.send(message);
+    }
+
+    void disconnect() {
+        client.disconnect();
+    }
+}
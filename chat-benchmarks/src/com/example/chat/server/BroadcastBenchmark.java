@@ -0,0 +1,119 @@
+package com.example.chat.server;
+
+import com.example.chat.common.BinaryCodec;
+import com.example.chat.common.Frame;
+import com.example.chat.common.JsonCodec;
+import com.example.chat.common.Message;
+import com.example.chat.common.MessageType;
+import com.example.chat.common.WireCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One {@link ChatManager#broadcast(Message)} to {@code sessions} connected {@link SinkSession}s:
+ * encoding once, the history ring, metrics and the per-session hand-off, without any I/O.
+ * {@code binaryShare} is the percentage of sessions on the binary codec, and {@code fanoutThreads}
+ * the {@link FanoutExecutor} workers, 0 for inline fan-out; with workers each operation waits
+ * until every session has been handed the frame.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+    @Param({"10", "1000", "10000"})
+    public int sessions;
+
+    @Param({"0", "50"})
+    public int binaryShare;
+
+    @Param({"0", "4"})
+    public int fanoutThreads;
+
+    final List<SinkSession> sinks = new ArrayList<>();
+    private ChatManager manager;
+    private FanoutExecutor fanout;
+    private Message message;
+
+    @Setup(Level.Trial)
+    public void connect() {
+        manager = new ChatManager();
+        if (fanoutThreads > 0) {
+            // Threshold 1 so every broadcast goes through the workers
+            fanout = new FanoutExecutor(fanoutThreads, 1, 4096);
+            fanout.start();
+            manager.setFanout(fanout);
+        }
+        for (int i = 0; i < sessions; i++) {
+            WireCodec codec = i * 100 < binaryShare * sessions ? BinaryCodec.INSTANCE : JsonCodec.INSTANCE;
+            SinkSession sink = new SinkSession("sink-" + i, codec, manager);
+            manager.addSession(sink.getUsername(), sink);
+            sinks.add(sink);
+        }
+        // The join notices go through the workers too; keep them out of the first measurements
+        awaitFanout();
+        message = new Message("sink-0", "ALL", MessageType.TEXT, "benchmark message body of moderate length");
+    }
+
+    @TearDown(Level.Trial)
+    public void disconnect() {
+        sinks.forEach(SinkSession::close);
+        sinks.clear();
+        if (fanout != null) {
+            manager.setFanout(null);
+            fanout.shutdown();
+        }
+    }
+
+    @Benchmark
+    public void broadcast() {
+        manager.broadcast(message);
+        awaitFanout();
+    }
+
+    /**
+     * Fan-out of a frame that is already encoded for every codec, i.e. the per-session cost alone.
+     */
+    @Benchmark
+    public void broadcastEncodedFrame(EncodedFrame state) {
+        manager.broadcast(state.frame);
+        awaitFanout();
+    }
+
+    private void awaitFanout() {
+        if (fanout != null) {
+            while (fanout.busy()) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class EncodedFrame {
+        Frame frame;
+
+        @Setup(Level.Trial)
+        public void encode() {
+            frame = Frame.of(new Message("sink-0", "ALL", MessageType.PING, ""));
+            frame.encoded(JsonCodec.INSTANCE);
+            frame.encoded(BinaryCodec.INSTANCE);
+        }
+    }
+}
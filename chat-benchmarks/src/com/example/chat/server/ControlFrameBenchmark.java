@@ -0,0 +1,53 @@
+package com.example.chat.server;
+
+import com.example.chat.common.BinaryCodec;
+import com.example.chat.common.Message;
+import com.example.chat.common.MessageType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the server spends on heartbeats per session: answering a client's PING with a PONG,
+ * and pinging every session at once. Run with {@code -prof gc} for the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ControlFrameBenchmark {
+    private ChatManager manager;
+    private SinkSession session;
+    private Message ping;
+
+    @Setup
+    public void setup() {
+        manager = new ChatManager();
+        session = new SinkSession("sink-0", BinaryCodec.INSTANCE, manager);
+        manager.addSession(session.getUsername(), session);
+        ping = new Message("sink-0", "SERVER", MessageType.PING, "");
+    }
+
+    @Benchmark
+    public long answerPing() {
+        session.handleMessage(ping);
+        return session.bytes;
+    }
+
+    @Benchmark
+    public long pingAll() {
+        manager.pingAll();
+        return session.bytes;
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.chat.server;
+
+import com.example.chat.common.JsonCodec;
+import com.example.chat.common.Message;
+import com.example.chat.common.MessageJson;
+import com.example.chat.common.MessageType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The read side of {@link ClientSession}: JSON lines pulled off a buffered stream by
+ * {@link JsonCodec#read(InputStream)}. Reported per line.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineParsingBenchmark {
+    private static final int LINES = 1000;
+
+    private byte[] stream;
+
+    @Setup
+    public void setup() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < LINES; i++) {
+            byte[] line = MessageJson.encode(new Message("user" + (i % 50), "ALL", MessageType.TEXT, "message " + i));
+            out.write(line, 0, line.length);
+        }
+        stream = out.toByteArray();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void readLines(Blackhole bh) throws IOException {
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(stream));
+        Message msg;
+        while ((msg = JsonCodec.INSTANCE.read(in)) != null) {
+            bh.consume(msg);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.chat.server;
+
+import com.example.chat.common.Frame;
+import com.example.chat.common.JsonCodec;
+import com.example.chat.common.WireCodec;
+
+import java.util.List;
+
+/**
+ * In-memory session for benchmarks: takes the encoded bytes a real session would queue and
+ * only counts them, so fan-out is measured without sockets or writer threads.
+ */
+final class SinkSession extends ChatSession {
+    static final SessionSettings SETTINGS = new SessionSettings(
+            new OutboundQueue.Limits(1024, OutboundQueue.OverflowPolicy.DROP_OLDEST, 10_000),
+            16 * 1024, 2_000, false, List.of(JsonCodec.INSTANCE));
+
+    long frames;
+    long bytes;
+
+    SinkSession(String username, WireCodec codec, ChatManager manager) {
+        super(SETTINGS, manager);
+        this.username = username;
+        this.codec = codec;
+    }
+
+    @Override
+    protected void enqueue(Frame frame) {
+        frames++;
+        bytes += frame.encoded(codec).length;
+    }
+
+    @Override
+    int outboundDepth() {
+        return 0;
+    }
+
+    @Override
+    public void close() {
+        if (markClosed()) {
+            unregister();
+        }
+    }
+}
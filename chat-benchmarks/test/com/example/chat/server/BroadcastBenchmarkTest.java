@@ -0,0 +1,65 @@
+package com.example.chat.server;
+
+import com.example.chat.common.BinaryCodec;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the broadcast benchmark's fixture once per setting, outside JMH, to check that an
+ * operation really reaches every sink in its codec, so the timings measure a whole fan-out.
+ */
+public class BroadcastBenchmarkTest {
+
+    @Test
+    public void inlineBroadcastReachesEverySink() {
+        checkOneOperationPerSink(0);
+    }
+
+    @Test
+    public void workerBroadcastReachesEverySinkBeforeReturning() {
+        checkOneOperationPerSink(4);
+    }
+
+    private static void checkOneOperationPerSink(int fanoutThreads) {
+        BroadcastBenchmark benchmark = new BroadcastBenchmark();
+        benchmark.sessions = 40;
+        benchmark.binaryShare = 50;
+        benchmark.fanoutThreads = fanoutThreads;
+        BroadcastBenchmark.EncodedFrame encoded = new BroadcastBenchmark.EncodedFrame();
+        encoded.encode();
+        benchmark.connect();
+        try {
+            // Setup already sent each sink the join notices; count only what the operations add
+            Map<SinkSession, long[]> before = new HashMap<>();
+            benchmark.sinks.forEach(sink -> before.put(sink, new long[] {sink.frames, sink.bytes}));
+            benchmark.broadcast();
+            benchmark.broadcastEncodedFrame(encoded);
+
+            // Sinks on the same codec are sent the same bytes; binary ones fewer than JSON ones
+            long jsonBytes = -1;
+            long binaryBytes = -1;
+            int binary = 0;
+            for (SinkSession sink : benchmark.sinks) {
+                assertEquals(2L, sink.frames - before.get(sink)[0]);
+                long bytes = sink.bytes - before.get(sink)[1];
+                if (sink.codec == BinaryCodec.INSTANCE) {
+                    binary++;
+                    binaryBytes = binaryBytes < 0 ? bytes : binaryBytes;
+                    assertEquals(binaryBytes, bytes);
+                } else {
+                    jsonBytes = jsonBytes < 0 ? bytes : jsonBytes;
+                    assertEquals(jsonBytes, bytes);
+                }
+            }
+            assertTrue(0 < binaryBytes && binaryBytes < jsonBytes, binaryBytes + " binary against " + jsonBytes + " JSON");
+            assertEquals(20, binary);
+        } finally {
+            benchmark.disconnect();
+        }
+    }
+}
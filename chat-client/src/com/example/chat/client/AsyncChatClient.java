@@ -0,0 +1,502 @@
+package com.example.chat.client;
+
+import com.example.chat.common.Handshake;
+import com.example.chat.common.JsonCodec;
+import com.example.chat.common.Message;
+import com.example.chat.common.MessageType;
+import com.example.chat.common.WireCodec;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking chat connection driven by a {@link ClientGroup} event loop, so many of them
+ * share a few threads. Inbound messages are published to one {@link Flow.Subscriber}, on the
+ * loop thread, as fast as it requests them; up to the group's inbound capacity is buffered
+ * for it, after which the connection stops reading and TCP pushes back on the server.
+ * Outbound frames go through a bounded queue and {@link #send(Message)} refuses new ones
+ * while it is full. Server PINGs are answered here and not published.
+ * <p>
+ * Subscribers must not block: while one of their callbacks runs, no other connection on
+ * the same loop makes progress.
+ */
+public class AsyncChatClient implements Flow.Publisher<Message> {
+    private static final int MAX_GATHER = 64;
+
+    private final ClientEventLoop loop;
+    private final String host;
+    private final int port;
+    private final int inboundCapacity;
+    private final int outboundCapacity;
+    private final boolean tcpNoDelay;
+    private volatile WireCodec codec = JsonCodec.INSTANCE;
+    private String preferredCodecs;
+    private String catchUpCursor;
+    private String username;
+    private final CompletableFuture<Void> joined = new CompletableFuture<>();
+    private final CompletableFuture<Void> closed = new CompletableFuture<>();
+
+    // Outbound: any thread adds, the loop drains
+    private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger outboundDepth = new AtomicInteger();
+    // Held until the connect completes, so early sends wait for it
+    private final AtomicBoolean writeScheduled = new AtomicBoolean(true);
+
+    // Everything below is owned by the loop thread
+    private SocketChannel channel;
+    private SelectionKey key;
+    private boolean awaitingWelcome;
+    private final ArrayDeque<Message> inbound = new ArrayDeque<>();
+    private Flow.Subscriber<? super Message> subscriber;
+    private long demand;
+    private boolean readPaused;
+    private boolean terminated;
+    private Throwable failure;
+    private ByteBuffer[] batch;
+    private int batchStart;
+    private int batchEnd;
+    // Only allocated while a frame is split across reads, or reading is paused; kept in write mode
+    private ByteBuffer partial;
+    // Encoded PONG, reused for every PING; re-encoded if the codec has changed since
+    private byte[] pong;
+    private WireCodec pongCodec;
+
+    AsyncChatClient(ClientEventLoop loop, String host, int port,
+                    int inboundCapacity, int outboundCapacity, boolean tcpNoDelay) {
+        this.loop = loop;
+        this.host = host;
+        this.port = port;
+        this.inboundCapacity = inboundCapacity;
+        this.outboundCapacity = outboundCapacity;
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    /**
+     * Sets the codecs to offer in {@link #join(String)}, as for {@link ChatClient#setPreferredCodecs}.
+     */
+    public void setPreferredCodecs(String preferredCodecs) {
+        this.preferredCodecs = preferredCodecs;
+    }
+
+    /**
+     * Asks {@link #join(String)} to replay the broadcasts sent after this cursor.
+     */
+    public void setCatchUpCursor(String cursor) {
+        this.catchUpCursor = cursor;
+    }
+
+    public WireCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Accepts one subscriber, which should subscribe before {@link #join(String)} so that it sees
+     * everything; messages that arrive earlier are buffered. A second subscriber gets
+     * {@code onError}. Cancelling the subscription closes the connection.
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super Message> s) {
+        loop.execute(() -> {
+            if (subscriber != null) {
+                s.onSubscribe(new Subscription(null));
+                s.onError(new IllegalStateException("AsyncChatClient accepts a single subscriber"));
+                return;
+            }
+            subscriber = s;
+            s.onSubscribe(new Subscription(s));
+            deliver();
+        });
+    }
+
+    /**
+     * Connects and sends the JOIN for {@code username}, offering any configured handshake
+     * options. The future completes once the server has answered, or right after the JOIN
+     * when nothing was offered; send nothing else until then. Use {@code orTimeout} to bound it.
+     */
+    public CompletableFuture<Void> join(String username) {
+        this.username = username;
+        Map<String, String> offer = new LinkedHashMap<>();
+        if (preferredCodecs != null) {
+            offer.put(Handshake.CODEC, preferredCodecs);
+        }
+        if (catchUpCursor != null) {
+            offer.put(Handshake.SINCE, catchUpCursor);
+        }
+        boolean negotiate = !offer.isEmpty();
+        queue(JsonCodec.INSTANCE.encode(new Message(username, "ALL", MessageType.JOIN, Handshake.format(offer))));
+        // Resolve here, not on the loop, where a slow lookup would stall every connection
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        loop.execute(() -> connect(address, negotiate));
+        return joined;
+    }
+
+    private void connect(InetSocketAddress address, boolean negotiate) {
+        awaitingWelcome = negotiate;
+        try {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
+            boolean connected = channel.connect(address);
+            key = loop.register(channel, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+            if (connected) {
+                onConnected();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    void onConnectable() {
+        try {
+            channel.finishConnect();
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+        key.interestOps(SelectionKey.OP_READ);
+        onConnected();
+    }
+
+    private void onConnected() {
+        flush();
+        if (!awaitingWelcome) {
+            joined.complete(null);
+        }
+    }
+
+    /**
+     * Queues a message in the negotiated codec. Safe to call from any thread.
+     * @return false if the connection is closed or its outbound queue is full, in which case
+     *         the message was not queued and the caller should back off
+     */
+    public boolean send(Message message) {
+        if (closed.isDone()) {
+            return false;
+        }
+        if (outboundDepth.incrementAndGet() > outboundCapacity) {
+            outboundDepth.decrementAndGet();
+            return false;
+        }
+        outbound.add(ByteBuffer.wrap(codec.encode(message)));
+        scheduleFlush();
+        return true;
+    }
+
+    /**
+     * Frames currently queued for writing.
+     */
+    public int outboundDepth() {
+        return outboundDepth.get();
+    }
+
+    /**
+     * Completes when the connection is closed, by either side.
+     */
+    public CompletableFuture<Void> closeFuture() {
+        return closed;
+    }
+
+    private byte[] pong() {
+        WireCodec current = codec;
+        if (pong == null || pongCodec != current) {
+            pong = current.encode(new Message(username, "SERVER", MessageType.PONG, ""));
+            pongCodec = current;
+        }
+        return pong;
+    }
+
+    // Bypasses the capacity check, for the JOIN and PONG replies
+    private void queue(byte[] frame) {
+        outboundDepth.incrementAndGet();
+        outbound.add(ByteBuffer.wrap(frame));
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        if (writeScheduled.compareAndSet(false, true)) {
+            loop.execute(this::flush);
+        }
+    }
+
+    void onWritable() {
+        flush();
+    }
+
+    /**
+     * Writes queued frames with gathering writes until the queue is empty or the socket
+     * buffer fills, in which case OP_WRITE is armed and the loop calls back later.
+     */
+    private void flush() {
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        try {
+            while (true) {
+                while (batchStart < batchEnd || fillBatch()) {
+                    channel.write(batch, batchStart, batchEnd - batchStart);
+                    while (batchStart < batchEnd && !batch[batchStart].hasRemaining()) {
+                        batch[batchStart++] = null;
+                    }
+                    if (batchStart < batchEnd) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                writeScheduled.set(false);
+                // A sender may have queued after the last poll but before the flag was cleared
+                if (outbound.isEmpty() || !writeScheduled.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private boolean fillBatch() {
+        if (batch == null) {
+            batch = new ByteBuffer[MAX_GATHER];
+        }
+        batchStart = 0;
+        batchEnd = 0;
+        ByteBuffer frame;
+        while (batchEnd < MAX_GATHER && (frame = outbound.poll()) != null) {
+            outboundDepth.decrementAndGet();
+            batch[batchEnd++] = frame;
+        }
+        return batchEnd > 0;
+    }
+
+    /**
+     * Reads what is available and decodes frames until the inbound buffer is full.
+     */
+    void onReadable(ByteBuffer buffer) {
+        buffer.clear();
+        int n;
+        try {
+            n = channel.read(buffer);
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+        if (n < 0) {
+            close();
+            return;
+        }
+        buffer.flip();
+        ByteBuffer in = buffer;
+        if (partial != null) {
+            if (partial.remaining() < buffer.remaining()) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(partial.capacity() * 2, partial.position() + n));
+                partial.flip();
+                grown.put(partial);
+                partial = grown;
+            }
+            partial.put(buffer);
+            partial.flip();
+            in = partial;
+        }
+        if (!decode(in)) {
+            return;
+        }
+        if (in == partial) {
+            if (partial.hasRemaining()) {
+                partial.compact();
+            } else {
+                partial = null;
+            }
+        } else if (buffer.hasRemaining()) {
+            partial = ByteBuffer.allocate(Math.max(4096, buffer.remaining() * 2));
+            partial.put(buffer);
+        }
+        if (inbound.size() >= inboundCapacity) {
+            // Leave the rest in the socket buffer until the subscriber catches up
+            readPaused = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Decodes frames while there is room for them. Returns false if the connection was closed.
+     */
+    private boolean decode(ByteBuffer in) {
+        try {
+            Message msg;
+            // The codec is re-read per frame because the WELCOME switches it
+            while (!terminated && inbound.size() < inboundCapacity && (msg = codec.decode(in)) != null) {
+                dispatch(msg);
+            }
+            return !terminated;
+        } catch (IOException e) {
+            fail(e);
+            return false;
+        }
+    }
+
+    private void dispatch(Message msg) {
+        if (awaitingWelcome) {
+            awaitingWelcome = false;
+            if (msg.getType() == MessageType.WELCOME) {
+                Map<String, String> accepted = Handshake.parse(msg.getBody());
+                WireCodec negotiated = WireCodec.forName(accepted.getOrDefault(Handshake.CODEC, JsonCodec.NAME));
+                if (negotiated != null) {
+                    codec = negotiated;
+                }
+                joined.complete(null);
+                return;
+            }
+            // Server did not negotiate; stay on JSON
+            joined.complete(null);
+        }
+        if (msg.getType() == MessageType.PING) {
+            queue(pong());
+            return;
+        }
+        if (inbound.isEmpty() && demand > 0 && subscriber != null) {
+            demand--;
+            subscriber.onNext(msg);
+        } else {
+            inbound.add(msg);
+        }
+    }
+
+    /**
+     * Hands buffered messages to the subscriber as far as its demand goes, resumes reading
+     * once there is room again, and signals completion after the last buffered message.
+     */
+    private void deliver() {
+        while (subscriber != null && demand > 0 && !inbound.isEmpty()) {
+            demand--;
+            subscriber.onNext(inbound.poll());
+        }
+        if (readPaused && !terminated && inbound.size() < inboundCapacity) {
+            resumeReading();
+        }
+        if (terminated && inbound.isEmpty() && subscriber != null) {
+            Flow.Subscriber<? super Message> s = subscriber;
+            subscriber = null;
+            if (failure != null) {
+                s.onError(failure);
+            } else {
+                s.onComplete();
+            }
+        }
+    }
+
+    private void resumeReading() {
+        if (partial != null) {
+            partial.flip();
+            if (!decode(partial)) {
+                return;
+            }
+            if (partial.hasRemaining()) {
+                partial.compact();
+            } else {
+                partial = null;
+            }
+        }
+        if (inbound.size() < inboundCapacity) {
+            readPaused = false;
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+        // Frames decoded from the leftover bytes may be deliverable straight away
+        if (subscriber != null && demand > 0 && !inbound.isEmpty()) {
+            deliver();
+        }
+    }
+
+    private void fail(Throwable cause) {
+        if (failure == null && !terminated) {
+            failure = cause;
+        }
+        close();
+    }
+
+    /**
+     * Closes the connection. Messages already buffered are still delivered before the
+     * subscriber's {@code onComplete}. Safe to call from any thread.
+     */
+    public void close() {
+        if (!loop.inEventLoop()) {
+            loop.execute(this::close);
+            return;
+        }
+        if (terminated) {
+            return;
+        }
+        terminated = true;
+        if (key != null) {
+            key.cancel();
+        }
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {}
+        }
+        outbound.clear();
+        outboundDepth.set(0);
+        batch = null;
+        partial = null;
+        joined.completeExceptionally(failure != null ? failure : new ClosedChannelException());
+        closed.complete(null);
+        deliver();
+    }
+
+    private final class Subscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super Message> owner;
+
+        Subscription(Flow.Subscriber<? super Message> owner) {
+            this.owner = owner;
+        }
+
+        @Override
+        public void request(long n) {
+            if (owner == null) {
+                return;
+            }
+            loop.execute(() -> {
+                if (subscriber != owner) {
+                    return;
+                }
+                if (n <= 0) {
+                    subscriber = null;
+                    owner.onError(new IllegalArgumentException("Demand must be positive: " + n));
+                    close();
+                    return;
+                }
+                // Saturate rather than overflow, as Flow asks for Long.MAX_VALUE meaning unbounded
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                deliver();
+            });
+        }
+
+        @Override
+        public void cancel() {
+            if (owner == null) {
+                return;
+            }
+            loop.execute(() -> {
+                if (subscriber == owner) {
+                    subscriber = null;
+                    inbound.clear();
+                    close();
+                }
+            });
+        }
+    }
+}
@@ -1,68 +1,293 @@
 package com.example.chat.client;
 
-import com.example.chat.common.GsonFactory;
+import com.example.chat.common.CoalescingWriter;
+import com.example.chat.common.Handshake;
+import com.example.chat.common.JsonCodec;
 import com.example.chat.common.Message;
-import com.google.gson.Gson;
+import com.example.chat.common.MessageType;
+import com.example.chat.common.Presence;
+import com.example.chat.common.WireCodec;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.InputStream;
 import java.net.Socket;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 /**
- * Low-level client handling socket I/O and JSON (de)serialization.
+ * Low-level client handling socket I/O and message (de)serialization.
+ * Speaks JSON until {@link #join(String)} negotiates another codec with the server.
  */
 public class ChatClient {
+    private static final long HANDSHAKE_TIMEOUT_SECONDS = 10;
+    // A resumable session acknowledges after this many messages, and whenever it is pinged
+    private static final int ACK_EVERY = 32;
+
     private final String host;
     private final int port;
     private Socket socket;
-    private BufferedReader reader;
-    private BufferedWriter writer;
-    private final Gson gson = GsonFactory.getGson();
+    private InputStream in;
+    private CoalescingWriter writer;
+    private volatile WireCodec codec = JsonCodec.INSTANCE;
+    private volatile boolean awaitingWelcome;
+    private final CountDownLatch welcomed = new CountDownLatch(1);
+    private String preferredCodecs;
+    private String catchUpCursor;
+    // Id of the newest broadcast chat message received, for catching up after a reconnect
+    private volatile UUID lastBroadcastId;
+    private boolean resumable;
+    private volatile String resumeToken;
+    private volatile boolean resumed;
+    // Id of the newest message the server would resend, and how many arrived since the last ACK
+    private volatile UUID lastReceivedId;
+    private int unacked;
+    private boolean batchedPresence;
+    // Who is online, from PRESENCE messages, kept by the listener thread and published as a copy
+    private final Presence.Roster roster = new Presence.Roster();
+    private volatile Set<String> online = Set.of();
+    private String username;
     private final BlockingQueue<Message> inbound = new LinkedBlockingQueue<>();
+    private Consumer<Message> handler;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    // Senders that have called send() but not yet taken the write lock
+    private final AtomicInteger pendingSends = new AtomicInteger();
+    private boolean tcpNoDelay;
+    private int maxBatchBytes = 8 * 1024;
+    private int maxDelayMicros = 2_000;
 
     public ChatClient(String host, int port) {
         this.host = host;
         this.port = port;
     }
 
+    /**
+     * Disables Nagle's algorithm on the next connection. Call before {@link #connect()}.
+     */
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    /**
+     * Bounds how many bytes, and for how long, concurrent sends may be batched
+     * before they are flushed. Call before {@link #connect()}.
+     */
+    public void setWriteBatching(int maxBatchBytes, int maxDelayMicros) {
+        this.maxBatchBytes = maxBatchBytes;
+        this.maxDelayMicros = maxDelayMicros;
+    }
+
+    /**
+     * Sets the codecs to offer in {@link #join(String)}, as a comma-separated list in order
+     * of preference (e.g. "binary,json"). Without it the client stays on JSON.
+     */
+    public void setPreferredCodecs(String preferredCodecs) {
+        this.preferredCodecs = preferredCodecs;
+    }
+
+    /**
+     * Asks {@link #join(String)} to replay the broadcasts sent after this cursor, usually the
+     * {@link #getLastBroadcastId()} of a previous connection. Null joins without history.
+     */
+    public void setCatchUpCursor(String cursor) {
+        this.catchUpCursor = cursor;
+    }
+
+    /**
+     * Asks {@link #join(String)} for a resumable session: if the connection drops, a new client
+     * can take it over within the server's resume window, without the other users seeing a
+     * LEAVE and JOIN, and is resent what it had not received. Pass the
+     * {@link #getResumeToken()} and {@link #getLastReceivedId()} of the previous connection to
+     * resume its session, or a null token to start a new one.
+     */
+    public void setResume(String token, UUID lastReceivedId) {
+        this.resumable = true;
+        this.resumeToken = token;
+        this.lastReceivedId = lastReceivedId;
+    }
+
+    /**
+     * Asks {@link #join(String)} for batched presence: one roster on joining, then the changes
+     * in batches, instead of a JOIN and LEAVE for every user. {@link #getRoster()} follows them.
+     */
+    public void setBatchedPresence(boolean batchedPresence) {
+        this.batchedPresence = batchedPresence;
+    }
+
+    /**
+     * Hands every inbound message to {@code handler} on the listener thread instead of
+     * queueing it for {@link #receive()}. Call before {@link #connect()}.
+     */
+    public void setMessageHandler(Consumer<Message> handler) {
+        this.handler = handler;
+    }
+
+    public UUID getLastBroadcastId() {
+        return lastBroadcastId;
+    }
+
+    public WireCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * The token to resume this session with, or null if it is not resumable.
+     */
+    public String getResumeToken() {
+        return resumeToken;
+    }
+
+    /**
+     * Whether {@link #join(String)} resumed the session of the configured token.
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    public UUID getLastReceivedId() {
+        return lastReceivedId;
+    }
+
+    /**
+     * The users online as of the last PRESENCE message; empty without batched presence.
+     */
+    public Set<String> getRoster() {
+        return online;
+    }
+
     /**
      * Connects to the server and starts listener thread.
      */
     public void connect() throws IOException {
         socket = new Socket(host, port);
-        reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+        socket.setTcpNoDelay(tcpNoDelay);
+        in = new BufferedInputStream(socket.getInputStream());
+        writer = new CoalescingWriter(socket.getOutputStream(), maxBatchBytes, maxDelayMicros);
 
         // Start a thread to read incoming messages
+        Consumer<Message> deliver = handler != null ? handler : inbound::offer;
         new Thread(() -> {
             try {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    Message msg = gson.fromJson(line, Message.class);
-                    inbound.offer(msg);
+                Message msg;
+                // The codec is re-read per frame because the WELCOME switches it
+                while ((msg = codec.read(in)) != null) {
+                    if (awaitingWelcome) {
+                        awaitingWelcome = false;
+                        if (msg.getType() == MessageType.WELCOME) {
+                            applyWelcome(msg);
+                            continue;
+                        }
+                        // Server did not negotiate; stay on JSON
+                        welcomed.countDown();
+                    }
+                    if (msg.getType() == MessageType.TEXT && "ALL".equals(msg.getTo()) && msg.getId() != null) {
+                        lastBroadcastId = msg.getId();
+                    }
+                    if (resumeToken != null) {
+                        acknowledge(msg);
+                    }
+                    if (msg.getType() == MessageType.PRESENCE) {
+                        Presence.Update update = Presence.parse(msg.getBody());
+                        if (update != null && roster.apply(update)) {
+                            online = roster.users();
+                        }
+                    }
+                    deliver.accept(msg);
                 }
             } catch (IOException e) {
                 // Connection lost
+            } finally {
+                welcomed.countDown();
             }
         }, "client-listener").start();
     }
 
     /**
-     * Sends a message to the server.
+     * Sends the JOIN for {@code username}, offering any configured handshake options,
+     * and waits for the server's answer before returning. Send nothing else until it returns.
+     */
+    public void join(String username) throws InterruptedException {
+        this.username = username;
+        Map<String, String> offer = new LinkedHashMap<>();
+        if (preferredCodecs != null) {
+            offer.put(Handshake.CODEC, preferredCodecs);
+        }
+        if (catchUpCursor != null) {
+            offer.put(Handshake.SINCE, catchUpCursor);
+        }
+        if (resumable) {
+            offer.put(Handshake.RESUME, resumeToken != null ? resumeToken : "new");
+            if (resumeToken != null && lastReceivedId != null) {
+                offer.put(Handshake.ACK, lastReceivedId.toString());
+            }
+            // Only a token from the server's answer counts from here on
+            resumeToken = null;
+        }
+        if (batchedPresence) {
+            offer.put(Handshake.PRESENCE, "batched");
+        }
+        awaitingWelcome = !offer.isEmpty();
+        send(new Message(username, "ALL", MessageType.JOIN, Handshake.format(offer)));
+        if (awaitingWelcome && !welcomed.await(HANDSHAKE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            // No answer in time: carry on with JSON
+            awaitingWelcome = false;
+        }
+    }
+
+    private void applyWelcome(Message welcome) {
+        Map<String, String> accepted = Handshake.parse(welcome.getBody());
+        WireCodec negotiated = WireCodec.forName(accepted.getOrDefault(Handshake.CODEC, JsonCodec.NAME));
+        if (negotiated != null) {
+            codec = negotiated;
+        }
+        resumed = Boolean.parseBoolean(accepted.get(Handshake.RESUMED));
+        resumeToken = accepted.get(Handshake.RESUME);
+        welcomed.countDown();
+    }
+
+    /**
+     * Tells the server, every {@link #ACK_EVERY} messages and when pinged, what has arrived,
+     * so it can stop keeping it for a resume. Runs on the listener thread.
+     */
+    private void acknowledge(Message msg) {
+        if (msg.getType() != null && msg.getType().isResent() && msg.getId() != null) {
+            lastReceivedId = msg.getId();
+            unacked++;
+        }
+        if (unacked >= ACK_EVERY || (unacked > 0 && msg.getType() == MessageType.PING)) {
+            unacked = 0;
+            send(new Message(username, "SERVER", MessageType.ACK, lastReceivedId.toString()));
+        }
+    }
+
+    /**
+     * Sends a message to the server. Safe to call from several threads: when sends
+     * overlap, only the last one to write flushes, so a burst goes out in one batch
+     * while a lone message is flushed immediately.
      */
     public void send(Message message) {
+        byte[] frame = codec.encode(message);
+        pendingSends.incrementAndGet();
+        writeLock.lock();
         try {
-            String json = gson.toJson(message);
-            writer.write(json);
-            writer.newLine();
-            writer.flush();
+            boolean last = pendingSends.decrementAndGet() == 0;
+            writer.write(frame);
+            if (last) {
+                writer.flush();
+            }
         } catch (IOException e) {
             // Handle send error
+        } finally {
+            writeLock.unlock();
         }
     }
 
@@ -3,8 +3,6 @@ package com.example.chat.client;
 import com.example.chat.common.Message;
 import com.example.chat.common.MessageType;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -13,7 +11,6 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public class ClientController {
     private final ChatClient client;
     private final String username;
-    private final ExecutorService executor = Executors.newSingleThreadExecutor();
     private final AtomicBoolean running = new AtomicBoolean(true);
 
     public ClientController(ChatClient client, String username) {
@@ -22,42 +19,56 @@ public class ClientController {
     }
 
     public void start() throws Exception {
+        // Incoming messages are handled on the client's listener thread; no second thread needed
+        client.setMessageHandler(this::handle);
         client.connect();
-        // Send JOIN message
-        client.send(new Message(username, "ALL", MessageType.JOIN, ""));
-
-        // Start a thread to handle incoming messages
-        executor.execute(() -> {
-            try {
-                while (running.get()) {
-                    Message msg = client.receive();
-                    switch (msg.getType()) {
-                        case PING:
-                            // Respond with PONG to server
-                            client.send(new Message(username, "SERVER", MessageType.PONG, ""));
-                            break;
-                        case PONG:
-                            // Ignore server PONG responses
-                            break;
-                        default:
-                            // Display JOIN, LEAVE, TEXT, etc.
-                            System.out.println(msg.getFrom() + ": " + msg.getBody());
-                    }
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        });
+        // Send JOIN message and complete the handshake
+        client.join(username);
+    }
+
+    private void handle(Message msg) {
+        if (!running.get()) {
+            return;
+        }
+        switch (msg.getType()) {
+            case PING:
+                // Respond with PONG to server
+                client.send(new Message(username, "SERVER", MessageType.PONG, ""));
+                break;
+            case PONG:
+                // Ignore server PONG responses
+                break;
+            default:
+                // Display JOIN, LEAVE, TEXT, etc., tagged with the room or DM they came from
+                String to = msg.getTo();
+                String where = to == null || to.equals("ALL") ? ""
+                        : to.startsWith("#") ? "[" + to + "] " : "[dm] ";
+                System.out.println(where + msg.getFrom() + ": " + msg.getBody());
+        }
     }
 
     public void sendChat(String body) {
-        client.send(new Message(username, "ALL", MessageType.TEXT, body));
+        sendChat("ALL", body);
+    }
+
+    /**
+     * Sends a chat message to a room ("#name") or directly to one user.
+     */
+    public void sendChat(String to, String body) {
+        client.send(new Message(username, to, MessageType.TEXT, body));
+    }
+
+    public void joinRoom(String room) {
+        client.send(new Message(username, room, MessageType.JOIN, ""));
+    }
+
+    public void leaveRoom(String room) {
+        client.send(new Message(username, room, MessageType.LEAVE, ""));
     }
 
     public void shutdown() {
         running.set(false);
         client.send(new Message(username, "ALL", MessageType.LEAVE, ""));
         client.disconnect();
-        executor.shutdown();
     }
 }
\ No newline at end of file
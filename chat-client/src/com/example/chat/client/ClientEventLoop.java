@@ -0,0 +1,124 @@
+package com.example.chat.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Single selector thread serving many {@link AsyncChatClient} connections.
+ * All channel and selection-key mutations, and all subscriber callbacks, run on this thread;
+ * other threads hand work over through {@link #execute(Runnable)}.
+ */
+class ClientEventLoop implements Runnable {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // Shared by every connection on this loop so idle bots hold no read buffer
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    ClientEventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Registers a channel whose connect is in progress, or already done, for {@code client}.
+     * Loop thread only.
+     */
+    SelectionKey register(SocketChannel channel, int ops, AsyncChatClient client) throws IOException {
+        return channel.register(selector, ops, client);
+    }
+
+    /**
+     * Runs the task on the loop thread, waking the selector if needed.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                if (tasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    processKey(key);
+                }
+                runTasks();
+            } catch (IOException e) {
+                System.err.println("Client event loop error: " + e.getMessage());
+            }
+        }
+        closeAll();
+    }
+
+    private void processKey(SelectionKey key) {
+        AsyncChatClient client = (AsyncChatClient) key.attachment();
+        try {
+            if (key.isConnectable()) {
+                client.onConnectable();
+            }
+            if (key.isValid() && key.isReadable()) {
+                client.onReadable(readBuffer);
+            }
+            if (key.isValid() && key.isWritable()) {
+                client.onWritable();
+            }
+        } catch (CancelledKeyException e) {
+            client.close();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private void closeAll() {
+        runTasks();
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof AsyncChatClient client) {
+                client.close();
+            }
+        }
+        runTasks();
+        try {
+            selector.close();
+        } catch (IOException ignored) {}
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+}
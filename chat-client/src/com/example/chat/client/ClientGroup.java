@@ -0,0 +1,61 @@
+package com.example.chat.client;
+
+import com.example.chat.common.Config;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A few selector threads shared by many {@link AsyncChatClient} connections, for bots and
+ * gateways that keep thousands of users online. Each connection is pinned to one loop, and
+ * its inbound and outbound buffers are bounded by the group's settings.
+ */
+public class ClientGroup {
+    private final ClientEventLoop[] loops;
+    private final AtomicInteger next = new AtomicInteger();
+    private final int inboundCapacity;
+    private final int outboundCapacity;
+    private final boolean tcpNoDelay;
+
+    /**
+     * @param eventLoops       selector threads to spread connections over
+     * @param inboundCapacity  messages a connection buffers for a slow subscriber before it stops reading
+     * @param outboundCapacity frames a connection queues before {@link AsyncChatClient#send} refuses more
+     */
+    public ClientGroup(int eventLoops, int inboundCapacity, int outboundCapacity, boolean tcpNoDelay) throws IOException {
+        this.inboundCapacity = Math.max(1, inboundCapacity);
+        this.outboundCapacity = Math.max(1, outboundCapacity);
+        this.tcpNoDelay = tcpNoDelay;
+        this.loops = new ClientEventLoop[Math.max(1, eventLoops)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new ClientEventLoop("client-loop-" + i);
+            loops[i].start();
+        }
+    }
+
+    public static ClientGroup fromConfig(Config cfg) throws IOException {
+        return new ClientGroup(
+                cfg.getInt("client.group.eventLoops", 1),
+                cfg.getInt("client.group.inboundCapacity", 256),
+                cfg.getInt("client.group.outboundCapacity", 1024),
+                cfg.getBoolean("client.tcpNoDelay", false)
+        );
+    }
+
+    /**
+     * Creates an unconnected client on the next loop; {@link AsyncChatClient#join(String)} connects it.
+     */
+    public AsyncChatClient newClient(String host, int port) {
+        ClientEventLoop loop = loops[Math.floorMod(next.getAndIncrement(), loops.length)];
+        return new AsyncChatClient(loop, host, port, inboundCapacity, outboundCapacity, tcpNoDelay);
+    }
+
+    /**
+     * Closes every connection and stops the loops. Subscribers see {@code onComplete}.
+     */
+    public void shutdown() {
+        for (ClientEventLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+}
@@ -19,16 +19,32 @@ public class ConsoleApp {
         String username = scanner.nextLine().trim();
 
         ChatClient client = new ChatClient(host, port);
+        client.setTcpNoDelay(cfg.getBoolean("client.tcpNoDelay", false));
+        client.setWriteBatching(
+                cfg.getInt("client.write.maxBatchBytes", 8 * 1024),
+                cfg.getInt("client.write.maxDelayMicros", 2_000)
+        );
+        client.setPreferredCodecs(cfg.get("client.codecs", null));
         ClientController controller = new ClientController(client, username);
         try {
             controller.start();
-            System.out.println("Connected! Type messages or '/quit' to exit.");
+            System.out.println("Connected! Type messages, '/join #room', '/leave #room', "
+                    + "'/to <#room|user> <message>' or '/quit' to exit.");
             while (true) {
                 String line = scanner.nextLine();
                 if (line.equalsIgnoreCase("/quit")) {
                     break;
                 }
-                controller.sendChat(line);
+                String[] parts = line.split(" ", 3);
+                if (parts[0].equalsIgnoreCase("/join") && parts.length > 1) {
+                    controller.joinRoom(parts[1]);
+                } else if (parts[0].equalsIgnoreCase("/leave") && parts.length > 1) {
+                    controller.leaveRoom(parts[1]);
+                } else if (parts[0].equalsIgnoreCase("/to") && parts.length > 2) {
+                    controller.sendChat(parts[1], parts[2]);
+                } else {
+                    controller.sendChat(line);
+                }
             }
         } catch (Exception e) {
             System.err.println("Error: " + e.getMessage());
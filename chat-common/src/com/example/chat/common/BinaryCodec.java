@@ -0,0 +1,285 @@
+package com.example.chat.common;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compact length-prefixed encoding of {@link Message}, negotiated at JOIN.
+ * <pre>
+ * frame   := varint(length) payload
+ * payload := flags:u8 [id:16 bytes] [timestamp:i64 epoch micros] type:u8 from to body
+ * string  := varint(0) for null | varint(utf8 length + 1) utf8 bytes
+ * body    := string | varint(utf8 length) varint(deflated length) deflated bytes   (COMPRESSED)
+ * </pre>
+ * {@code flags} marks which optional fields are present and whether the body is compressed;
+ * {@code type} is the {@link MessageType} ordinal, or 0xFF for none.
+ * <p>
+ * {@link #DEFLATE} is the same codec negotiated under its own name: it deflates bodies of
+ * {@value #COMPRESS_MIN_BYTES} bytes or more whenever that makes them smaller. Since a
+ * {@link Frame} caches one encoding per codec, a broadcast is compressed once, however many
+ * recipients share the codec. Both variants read compressed bodies.
+ */
+public final class BinaryCodec implements WireCodec {
+    public static final String NAME = "binary";
+    public static final String DEFLATE_NAME = "binary-deflate";
+    public static final BinaryCodec INSTANCE = new BinaryCodec(NAME, 1, false);
+    public static final BinaryCodec DEFLATE = new BinaryCodec(DEFLATE_NAME, 2, true);
+    /** Bodies shorter than this are sent as they are; deflate seldom pays for itself below it. */
+    public static final int COMPRESS_MIN_BYTES = 512;
+
+    private static final int HAS_ID = 0x01;
+    private static final int HAS_TIMESTAMP = 0x02;
+    private static final int COMPRESSED = 0x04;
+    private static final int NO_TYPE = 0xFF;
+    private static final MessageType[] TYPES = MessageType.values();
+    // Deflater and Inflater hold native buffers; keep one of each per thread instead of one per frame
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+    private static final LongAdder compressNanos = new LongAdder();
+    private static final LongAdder compressBytesIn = new LongAdder();
+    private static final LongAdder compressBytesOut = new LongAdder();
+
+    private final String name;
+    private final int id;
+    private final boolean compress;
+
+    private BinaryCodec(String name, int id, boolean compress) {
+        this.name = name;
+        this.id = id;
+        this.compress = compress;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public int id() {
+        return id;
+    }
+
+    /** Time spent deflating bodies, whether or not the result was used. */
+    public static long compressNanos() {
+        return compressNanos.sum();
+    }
+
+    /** Body bytes handed to deflate. */
+    public static long compressBytesIn() {
+        return compressBytesIn.sum();
+    }
+
+    /** Body bytes actually sent for them, compressed or not. */
+    public static long compressBytesOut() {
+        return compressBytesOut.sum();
+    }
+
+    @Override
+    public byte[] encode(Message message) {
+        byte[] from = utf8(message.getFrom());
+        byte[] to = utf8(message.getTo());
+        byte[] body = utf8(message.getBody());
+        byte[] deflated = compress && body != null && body.length >= COMPRESS_MIN_BYTES ? deflate(body) : null;
+        int flags = (message.getId() != null ? HAS_ID : 0)
+                | (message.getTimestamp() != null ? HAS_TIMESTAMP : 0)
+                | (deflated != null ? COMPRESSED : 0);
+        int payload = 1
+                + ((flags & HAS_ID) != 0 ? 16 : 0)
+                + ((flags & HAS_TIMESTAMP) != 0 ? 8 : 0)
+                + 1
+                + stringSize(from) + stringSize(to)
+                + (deflated != null ? compressedSize(body, deflated) : stringSize(body));
+
+        ByteBuffer out = ByteBuffer.allocate(Varint.size(payload) + payload);
+        Varint.write(out, payload);
+        out.put((byte) flags);
+        if ((flags & HAS_ID) != 0) {
+            out.putLong(message.getId().getMostSignificantBits());
+            out.putLong(message.getId().getLeastSignificantBits());
+        }
+        if ((flags & HAS_TIMESTAMP) != 0) {
+            out.putLong(toEpochMicros(message.getTimestamp()));
+        }
+        out.put((byte) (message.getType() != null ? message.getType().ordinal() : NO_TYPE));
+        putString(out, from);
+        putString(out, to);
+        if (deflated != null) {
+            Varint.write(out, body.length);
+            Varint.write(out, deflated.length);
+            out.put(deflated);
+        } else {
+            putString(out, body);
+        }
+        return out.array();
+    }
+
+    /**
+     * Deflates the body, or returns null if that would not make the frame smaller.
+     */
+    private static byte[] deflate(byte[] body) {
+        long start = System.nanoTime();
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(body);
+        deflater.finish();
+        // Anything longer than the plain body is useless, so stop there
+        byte[] out = new byte[body.length];
+        int length = 0;
+        while (!deflater.finished() && length < out.length) {
+            length += deflater.deflate(out, length, out.length - length);
+        }
+        boolean smaller = deflater.finished() && compressedSize(body.length, length) < stringSize(body);
+        compressNanos.add(System.nanoTime() - start);
+        compressBytesIn.add(body.length);
+        compressBytesOut.add(smaller ? length : body.length);
+        return smaller ? Arrays.copyOf(out, length) : null;
+    }
+
+    private static int compressedSize(byte[] body, byte[] deflated) {
+        return compressedSize(body.length, deflated.length);
+    }
+
+    private static int compressedSize(int rawLength, int deflatedLength) {
+        return Varint.size(rawLength) + Varint.size(deflatedLength) + deflatedLength;
+    }
+
+    private static String inflate(ByteBuffer in) throws IOException {
+        int rawLength = Varint.read(in);
+        int deflatedLength = Varint.read(in);
+        if (rawLength < 0 || deflatedLength < 0 || in.remaining() < deflatedLength) {
+            throw new IOException("Truncated compressed body");
+        }
+        // The frame limit applies to the inflated body too, so a small frame cannot expand without bound
+        checkLength(rawLength);
+        byte[] raw = new byte[rawLength];
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(in.slice(in.position(), deflatedLength));
+        try {
+            int length = inflater.inflate(raw);
+            if (length != rawLength || !inflater.finished()) {
+                throw new IOException("Compressed body does not match its length");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Malformed compressed body", e);
+        }
+        in.position(in.position() + deflatedLength);
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Message read(InputStream in) throws IOException {
+        int first = in.read();
+        if (first == -1) {
+            return null;
+        }
+        int length = Varint.read(first, in);
+        checkLength(length);
+        byte[] payload = in.readNBytes(length);
+        if (payload.length < length) {
+            throw new EOFException("Truncated frame");
+        }
+        return parse(ByteBuffer.wrap(payload));
+    }
+
+    @Override
+    public Message decode(ByteBuffer buffer) throws IOException {
+        int start = buffer.position();
+        int length = Varint.read(buffer);
+        if (length < 0 || buffer.remaining() < length) {
+            buffer.position(start);
+            if (length > MAX_FRAME_BYTES) {
+                checkLength(length);
+            }
+            return null;
+        }
+        checkLength(length);
+        ByteBuffer payload = buffer.slice(buffer.position(), length);
+        buffer.position(buffer.position() + length);
+        return parse(payload);
+    }
+
+    private static void checkLength(int length) throws IOException {
+        if (length > MAX_FRAME_BYTES) {
+            throw new IOException("Frame exceeds " + MAX_FRAME_BYTES + " bytes");
+        }
+    }
+
+    private static Message parse(ByteBuffer in) throws IOException {
+        try {
+            int flags = in.get() & 0xFF;
+            Message message = new Message();
+            if ((flags & HAS_ID) != 0) {
+                message.setId(new UUID(in.getLong(), in.getLong()));
+            }
+            if ((flags & HAS_TIMESTAMP) != 0) {
+                message.setTimestamp(fromEpochMicros(in.getLong()));
+            }
+            int type = in.get() & 0xFF;
+            if (type != NO_TYPE) {
+                if (type >= TYPES.length) {
+                    throw new IOException("Unknown message type " + type);
+                }
+                message.setType(TYPES[type]);
+            }
+            message.setFrom(getString(in));
+            message.setTo(getString(in));
+            message.setBody((flags & COMPRESSED) != 0 ? inflate(in) : getString(in));
+            return message;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Malformed binary frame", e);
+        }
+    }
+
+    static long toEpochMicros(Instant instant) {
+        return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1_000_000L), instant.getNano() / 1_000);
+    }
+
+    static Instant fromEpochMicros(long micros) {
+        return Instant.ofEpochSecond(Math.floorDiv(micros, 1_000_000L), Math.floorMod(micros, 1_000_000L) * 1_000L);
+    }
+
+    private static byte[] utf8(String s) {
+        return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int stringSize(byte[] bytes) {
+        return bytes == null ? 1 : Varint.size(bytes.length + 1) + bytes.length;
+    }
+
+    private static void putString(ByteBuffer out, byte[] bytes) {
+        if (bytes == null) {
+            Varint.write(out, 0);
+        } else {
+            Varint.write(out, bytes.length + 1);
+            out.put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer in) throws IOException {
+        int length = Varint.read(in);
+        if (length < 0) {
+            throw new IOException("Truncated string");
+        }
+        if (length == 0) {
+            return null;
+        }
+        if (in.remaining() < length - 1) {
+            throw new IOException("Truncated string");
+        }
+        byte[] bytes = new byte[length - 1];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.chat.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Buffers encoded frames so that several can leave in one write.
+ * The caller decides when a batch is complete and calls {@link #flush()};
+ * the writer also flushes on its own once the batch reaches {@code maxBytes}
+ * or its oldest frame has waited {@code maxDelayMicros}, bounding both memory
+ * and the extra latency a busy connection can see.
+ * <p>
+ * Not thread-safe; callers serialize access.
+ */
+public final class CoalescingWriter {
+    private final OutputStream out;
+    private final byte[] buffer;
+    private final long maxDelayNanos;
+    private int count;
+    private long firstBufferedAt;
+
+    public CoalescingWriter(OutputStream out, int maxBytes, int maxDelayMicros) {
+        this.out = out;
+        this.buffer = new byte[Math.max(512, maxBytes)];
+        this.maxDelayNanos = maxDelayMicros * 1_000L;
+    }
+
+    /**
+     * Appends a complete frame, flushing first or afterwards if a bound is reached.
+     */
+    public void write(byte[] frame) throws IOException {
+        if (frame.length > buffer.length - count) {
+            flush();
+        }
+        if (frame.length >= buffer.length) {
+            // Too big to batch: send it on its own
+            out.write(frame);
+            out.flush();
+            return;
+        }
+        if (count == 0) {
+            firstBufferedAt = System.nanoTime();
+        }
+        System.arraycopy(frame, 0, buffer, count, frame.length);
+        count += frame.length;
+        if (System.nanoTime() - firstBufferedAt >= maxDelayNanos) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes out everything buffered, if anything.
+     */
+    public void flush() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+            out.flush();
+        }
+    }
+}
@@ -25,6 +25,13 @@ public class Config {
         }
     }
 
+    /**
+     * Overrides a property, e.g. with a {@code key=value} argument from the command line.
+     */
+    public void set(String key, String value) {
+        props.setProperty(key, value);
+    }
+
     /**
      * Returns the property value for key, or defaultValue if absent.
      */
@@ -0,0 +1,78 @@
+package com.example.chat.common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A message together with its wire encodings. Each encoding is produced once, on first use,
+ * and then shared by every recipient using that codec, so fanning a message out to N
+ * connections costs one serialization per codec instead of N.
+ * <p>
+ * Frames are immutable once built; do not modify the wrapped {@link Message} afterwards.
+ */
+public final class Frame {
+    private final Message message;
+    // Codec every recipient must see this frame in, regardless of what it negotiated
+    private final WireCodec pinned;
+    // Indexed by WireCodec.id(); replaced as a whole so readers always see complete arrays
+    private volatile byte[][] encodings = new byte[WireCodec.MAX_ID][];
+
+    private Frame(Message message, WireCodec pinned) {
+        this.message = message;
+        this.pinned = pinned;
+    }
+
+    public static Frame of(Message message) {
+        return new Frame(message, null);
+    }
+
+    /**
+     * Builds a frame that is always sent in the given codec, e.g. the handshake reply
+     * that has to go out before the connection switches codecs.
+     */
+    public static Frame pinned(Message message, WireCodec codec) {
+        return new Frame(message, codec);
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns the encoding for a connection using {@code codec}. Callers must not modify the array.
+     */
+    public byte[] encoded(WireCodec codec) {
+        if (pinned != null) {
+            codec = pinned;
+        }
+        byte[] bytes = encodings[codec.id()];
+        return bytes != null ? bytes : encodeOnce(codec);
+    }
+
+    // Only the first reader per codec gets here; the lock keeps concurrent event loops from
+    // repeating an encoding, which matters once it includes compression
+    private synchronized byte[] encodeOnce(WireCodec codec) {
+        byte[][] current = encodings;
+        byte[] bytes = current[codec.id()];
+        if (bytes == null) {
+            bytes = codec.encode(message);
+            byte[][] updated = current.clone();
+            updated[codec.id()] = bytes;
+            encodings = updated;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns a read-only view of the encoding with its own position and limit.
+     */
+    public ByteBuffer buffer(WireCodec codec) {
+        return ByteBuffer.wrap(encoded(codec)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the newline-terminated UTF-8 JSON encoding. Callers must not modify the array.
+     */
+    public byte[] json() {
+        return encoded(JsonCodec.INSTANCE);
+    }
+}
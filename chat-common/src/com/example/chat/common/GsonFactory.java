@@ -11,6 +11,7 @@ import java.time.Instant;
 public class GsonFactory {
     private static final Gson GSON = new GsonBuilder()
             .registerTypeAdapter(Instant.class, new InstantTypeAdapter())
+            .registerTypeAdapter(Message.class, new MessageTypeAdapter())
             .create();
 
     public static Gson getGson() {
@@ -0,0 +1,65 @@
+package com.example.chat.common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Options exchanged in the JOIN handshake. The client puts the options it supports
+ * in the body of its JOIN as {@code key=value;key=value}; a server that understands
+ * them answers with a {@link MessageType#WELCOME} carrying the options it accepted,
+ * always JSON-encoded, before anything else. An empty JOIN body means no negotiation.
+ */
+public final class Handshake {
+    /** Comma-separated codec names in order of preference. */
+    public static final String CODEC = "codec";
+    /**
+     * Catch-up cursor: the id of the last broadcast message the client saw, or an ISO-8601
+     * instant. The server replays what was broadcast after it before any live traffic.
+     */
+    public static final String SINCE = "since";
+    /**
+     * Session token. The client offers the token of the session it wants to resume, or
+     * {@code new}; the server answers with the token of this session, if it is resumable.
+     */
+    public static final String RESUME = "resume";
+    /** The server's answer: {@code true} if the session offered in {@link #RESUME} was resumed. */
+    public static final String RESUMED = "resumed";
+    /**
+     * Id of the last message the client received on the session it resumes; the server
+     * resends only what came after it.
+     */
+    public static final String ACK = "ack";
+    /**
+     * Presence mode. A client that offers {@code batched} is sent one {@link MessageType#PRESENCE}
+     * roster after joining, then batched changes, instead of a JOIN or LEAVE for every user;
+     * the server answers {@code batched} if it agreed.
+     */
+    public static final String PRESENCE = "presence";
+
+    private Handshake() {}
+
+    public static Map<String, String> parse(String body) {
+        Map<String, String> options = new LinkedHashMap<>();
+        if (body == null) {
+            return options;
+        }
+        for (String pair : body.split(";")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                options.put(pair.substring(0, eq).trim(), pair.substring(eq + 1).trim());
+            }
+        }
+        return options;
+    }
+
+    public static String format(Map<String, String> options) {
+        StringBuilder sb = new StringBuilder();
+        options.forEach((key, value) -> {
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+            sb.append(key).append('=').append(value);
+        });
+        return sb.toString();
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.chat.common;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * Fast ISO-8601 formatting and parsing of {@link Instant}s in the exact shape produced by
+ * {@link Instant#toString()} ("2025-06-22T10:15:30.123Z"). Years 0000-9999 are handled with
+ * plain arithmetic; anything else falls back to the JDK.
+ */
+public final class InstantFormat {
+    private static final long SECONDS_PER_DAY = 86_400L;
+    // Days from 0000-03-01 to 1970-01-01 in the proleptic Gregorian calendar
+    private static final long DAYS_0000_TO_1970 = 719_468L;
+
+    private InstantFormat() {}
+
+    public static String format(Instant instant) {
+        byte[] buf = new byte[30];
+        int len = format(instant, buf, 0);
+        return len < 0 ? instant.toString() : new String(buf, 0, len, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Writes the ASCII form of {@code instant} at {@code off}, which must have room for 30 bytes.
+     * @return the number of bytes written, or -1 if the year is outside 0000-9999
+     */
+    static int format(Instant instant, byte[] buf, int off) {
+        long seconds = instant.getEpochSecond();
+        long days = Math.floorDiv(seconds, SECONDS_PER_DAY);
+        int secondOfDay = (int) Math.floorMod(seconds, SECONDS_PER_DAY);
+
+        // Civil date from day count (Howard Hinnant's algorithm)
+        long z = days + DAYS_0000_TO_1970;
+        long era = Math.floorDiv(z, 146_097L);
+        long dayOfEra = z - era * 146_097L;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 0 || year > 9999) {
+            return -1;
+        }
+
+        int p = off;
+        p = digits(buf, p, (int) year, 4);
+        buf[p++] = '-';
+        p = digits(buf, p, month, 2);
+        buf[p++] = '-';
+        p = digits(buf, p, day, 2);
+        buf[p++] = 'T';
+        p = digits(buf, p, secondOfDay / 3600, 2);
+        buf[p++] = ':';
+        p = digits(buf, p, secondOfDay / 60 % 60, 2);
+        buf[p++] = ':';
+        p = digits(buf, p, secondOfDay % 60, 2);
+
+        // Same fraction rule as DateTimeFormatter.ISO_INSTANT: 0, 3, 6 or 9 digits
+        int nano = instant.getNano();
+        if (nano != 0) {
+            buf[p++] = '.';
+            if (nano % 1_000_000 == 0) {
+                p = digits(buf, p, nano / 1_000_000, 3);
+            } else if (nano % 1_000 == 0) {
+                p = digits(buf, p, nano / 1_000, 6);
+            } else {
+                p = digits(buf, p, nano, 9);
+            }
+        }
+        buf[p++] = 'Z';
+        return p - off;
+    }
+
+    private static int digits(byte[] buf, int p, int value, int width) {
+        for (int i = p + width - 1; i >= p; i--) {
+            buf[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return p + width;
+    }
+
+    public static Instant parse(String text) {
+        byte[] ascii = text.getBytes(StandardCharsets.ISO_8859_1);
+        return parse(ascii, 0, ascii.length);
+    }
+
+    /**
+     * Parses "yyyy-MM-ddTHH:mm:ss[.fraction]Z" from ASCII bytes. Anything unusual
+     * (other years, offsets, leap seconds) is handed to {@link Instant#parse}.
+     * @throws java.time.format.DateTimeParseException if the text is not a valid instant
+     */
+    public static Instant parse(byte[] b, int off, int len) {
+        if (len >= 20 && b[off + 4] == '-' && b[off + 7] == '-' && b[off + 10] == 'T'
+                && b[off + 13] == ':' && b[off + 16] == ':' && b[off + len - 1] == 'Z') {
+            int year = number(b, off, 4);
+            int month = number(b, off + 5, 2);
+            int day = number(b, off + 8, 2);
+            int hour = number(b, off + 11, 2);
+            int minute = number(b, off + 14, 2);
+            int second = number(b, off + 17, 2);
+            int nano = fraction(b, off + 19, off + len - 1);
+            if (year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= daysInMonth(year, month)
+                    && hour >= 0 && hour <= 23 && minute >= 0 && minute <= 59
+                    && second >= 0 && second <= 59 && nano >= 0) {
+                long days = epochDay(year, month, day);
+                return Instant.ofEpochSecond(days * SECONDS_PER_DAY + hour * 3600L + minute * 60L + second, nano);
+            }
+        }
+        return Instant.parse(new String(b, off, len, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Returns the value of {@code width} ASCII digits, or -1 if any is not a digit.
+     */
+    private static int number(byte[] b, int p, int width) {
+        int value = 0;
+        for (int i = p; i < p + width; i++) {
+            int d = b[i] - '0';
+            if (d < 0 || d > 9) {
+                return -1;
+            }
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    /**
+     * Parses an optional ".ddddddddd" between {@code p} and {@code end} into nanoseconds, or -1.
+     */
+    private static int fraction(byte[] b, int p, int end) {
+        if (p == end) {
+            return 0;
+        }
+        int digits = end - p - 1;
+        if (b[p] != '.' || digits < 1 || digits > 9) {
+            return -1;
+        }
+        int value = number(b, p + 1, digits);
+        if (value < 0) {
+            return -1;
+        }
+        for (int i = digits; i < 9; i++) {
+            value *= 10;
+        }
+        return value;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        return switch (month) {
+            case 2 -> (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4, 6, 9, 11 -> 30;
+            default -> 31;
+        };
+    }
+
+    private static long epochDay(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153L * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146_097L + dayOfEra - DAYS_0000_TO_1970;
+    }
+}
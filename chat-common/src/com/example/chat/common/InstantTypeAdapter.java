@@ -13,11 +13,11 @@ import java.time.Instant;
 public class InstantTypeAdapter extends TypeAdapter<Instant> {
     @Override
     public void write(JsonWriter out, Instant value) throws IOException {
-        out.value(value.toString());  // e.g. "2025-06-22T10:15:30Z"
+        out.value(InstantFormat.format(value));  // e.g. "2025-06-22T10:15:30Z"
     }
 
     @Override
     public Instant read(JsonReader in) throws IOException {
-        return Instant.parse(in.nextString());
+        return InstantFormat.parse(in.nextString());
     }
 }
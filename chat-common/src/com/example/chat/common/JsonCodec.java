@@ -0,0 +1,134 @@
+package com.example.chat.common;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The original wire format: one JSON-encoded message per line. Always available
+ * and used until a JOIN handshake negotiates something else.
+ * <p>
+ * Frames are encoded and parsed by {@link MessageJson} straight from bytes. Lines it
+ * does not recognise (e.g. hand-written JSON relying on Gson's leniency) are handed
+ * to Gson, so anything the old reflective path accepted is still accepted.
+ */
+public final class JsonCodec implements WireCodec {
+    public static final String NAME = "json";
+    public static final JsonCodec INSTANCE = new JsonCodec();
+
+    // Per-thread line buffer for blocking reads; each reading thread serves one connection
+    private static final ThreadLocal<byte[][]> LINE = ThreadLocal.withInitial(() -> new byte[][] {new byte[512]});
+
+    private final Gson gson = GsonFactory.getGson();
+
+    private JsonCodec() {}
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int id() {
+        return 0;
+    }
+
+    @Override
+    public byte[] encode(Message message) {
+        return MessageJson.encode(message);
+    }
+
+    @Override
+    public Message read(InputStream in) throws IOException {
+        byte[][] holder = LINE.get();
+        byte[] line = holder[0];
+        int len = 0;
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b != '\n') {
+                if (len == line.length) {
+                    if (len >= MAX_FRAME_BYTES) {
+                        throw new IOException("Frame exceeds " + MAX_FRAME_BYTES + " bytes");
+                    }
+                    line = Arrays.copyOf(line, Math.min(len * 2, MAX_FRAME_BYTES));
+                    holder[0] = line;
+                }
+                line[len++] = (byte) b;
+            } else {
+                Message message = parse(line, 0, len);
+                if (message != null) {
+                    if (line.length > 64 * 1024) {
+                        // Do not keep a buffer grown by one huge line
+                        holder[0] = new byte[512];
+                    }
+                    return message;
+                }
+                len = 0;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Message decode(ByteBuffer buffer) throws IOException {
+        while (true) {
+            int start = buffer.position();
+            int end = -1;
+            for (int i = start; i < buffer.limit(); i++) {
+                if (buffer.get(i) == '\n') {
+                    end = i;
+                    break;
+                }
+            }
+            if (end < 0) {
+                if (buffer.remaining() > MAX_FRAME_BYTES) {
+                    throw new IOException("Frame exceeds " + MAX_FRAME_BYTES + " bytes");
+                }
+                return null;
+            }
+            buffer.position(end + 1);
+            Message message;
+            if (buffer.hasArray()) {
+                message = parse(buffer.array(), buffer.arrayOffset() + start, end - start);
+            } else {
+                byte[] bytes = new byte[end - start];
+                buffer.get(start, bytes);
+                message = parse(bytes, 0, bytes.length);
+            }
+            if (message != null) {
+                return message;
+            }
+            // Skip blank lines
+        }
+    }
+
+    /**
+     * Parses one line, returning null if it is blank.
+     */
+    private Message parse(byte[] bytes, int offset, int length) throws IOException {
+        if (length > 0 && bytes[offset + length - 1] == '\r') {
+            length--;
+        }
+        if (length == 0) {
+            return null;
+        }
+        try {
+            return MessageJson.parse(bytes, offset, length);
+        } catch (IOException strictFailure) {
+            try {
+                Message message = gson.fromJson(new String(bytes, offset, length, StandardCharsets.UTF_8), Message.class);
+                if (message == null) {
+                    throw strictFailure;
+                }
+                return message;
+            } catch (JsonParseException e) {
+                throw new IOException("Malformed JSON frame", e);
+            }
+        }
+    }
+}
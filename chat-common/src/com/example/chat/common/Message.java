@@ -18,10 +18,10 @@ public class Message implements Serializable {
     // No-arg constructor required by Gson
     public Message() { }
 
-    // Convenient constructor for new outgoing messages
+    // Convenient constructor for new outgoing messages; the id is time-ordered, see MessageIds
     public Message(String from, String to, MessageType type, String body) {
-        this.id = UUID.randomUUID();
         this.timestamp = Instant.now();
+        this.id = MessageIds.next(timestamp);
         this.from = from;
         this.to = to;
         this.type = type;
@@ -0,0 +1,48 @@
+package com.example.chat.common;
+
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Time-ordered message ids in the UUID version 7 layout: epoch milliseconds in the top 48 bits,
+ * then 12 bits of sub-millisecond time, then 62 random bits. The time is the message's own
+ * timestamp, and the random bits come from the calling thread's generator, so unlike
+ * {@link UUID#randomUUID()} no thread ever waits on a shared {@code SecureRandom}.
+ * <p>
+ * {@link UUID#compareTo} puts these ids in creation order, to within 1/4096 of a millisecond.
+ * They are unique but guessable, so anything secret needs {@link UUID#randomUUID()}.
+ */
+public final class MessageIds {
+    private static final int VERSION = 7;
+    private static final long NANOS_PER_MILLI = 1_000_000L;
+
+    private MessageIds() {}
+
+    /**
+     * Returns a new id for a message created at {@code time}.
+     */
+    public static UUID next(Instant time) {
+        long nanos = time.getNano() % NANOS_PER_MILLI;
+        long millis = time.getEpochSecond() * 1000 + time.getNano() / NANOS_PER_MILLI;
+        long fraction = (nanos << 12) / NANOS_PER_MILLI;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long high = (millis << 16) | ((long) VERSION << 12) | fraction;
+        // IETF variant: the top two bits are 10
+        long low = (random.nextLong() >>> 2) | Long.MIN_VALUE;
+        return new UUID(high, low);
+    }
+
+    /**
+     * Returns when the message with this id was created, rounded down to 1/4096 of a
+     * millisecond, or null if it was not made by {@link #next(Instant)}.
+     */
+    public static Instant timeOf(UUID id) {
+        if (id.version() != VERSION || id.variant() != 2) {
+            return null;
+        }
+        long high = id.getMostSignificantBits();
+        long fraction = high & 0xFFF;
+        return Instant.ofEpochMilli(high >>> 16).plusNanos((fraction * NANOS_PER_MILLI) >>> 12);
+    }
+}
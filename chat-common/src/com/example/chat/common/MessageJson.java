@@ -0,0 +1,508 @@
+package com.example.chat.common;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Hand-written JSON encoder and decoder for {@link Message} working directly on UTF-8 bytes.
+ * Produces byte-for-byte the same output as the reflective Gson setup in {@link GsonFactory}
+ * (field order, omitted nulls, HTML-safe escaping) without building an intermediate String,
+ * and parses frames without decoding the whole line first. Repeated usernames are served
+ * from a {@link NameCache}.
+ */
+public final class MessageJson {
+    private static final byte[] ID = ascii("id");
+    private static final byte[] TIMESTAMP = ascii("timestamp");
+    private static final byte[] FROM = ascii("from");
+    private static final byte[] TO = ascii("to");
+    private static final byte[] TYPE = ascii("type");
+    private static final byte[] BODY = ascii("body");
+    private static final byte[] HEX = ascii("0123456789abcdef");
+    private static final MessageType[] TYPES = MessageType.values();
+    private static final byte[][] TYPE_NAMES = new byte[TYPES.length][];
+    static {
+        for (int i = 0; i < TYPES.length; i++) {
+            TYPE_NAMES[i] = ascii(TYPES[i].name());
+        }
+    }
+
+    private static final NameCache NAMES = new NameCache(1024);
+    private static final ThreadLocal<Sink> SINK = ThreadLocal.withInitial(Sink::new);
+
+    private MessageJson() {}
+
+    /**
+     * Encodes the message as one JSON object followed by a newline.
+     */
+    public static byte[] encode(Message m) {
+        Sink out = SINK.get();
+        out.len = 0;
+        out.put('{');
+        boolean first = true;
+        if (m.getId() != null) {
+            first = name(out, ID, first);
+            out.put('"');
+            uuid(out, m.getId());
+            out.put('"');
+        }
+        if (m.getTimestamp() != null) {
+            first = name(out, TIMESTAMP, first);
+            out.ensure(32);
+            int n = InstantFormat.format(m.getTimestamp(), out.buf, out.len + 1);
+            if (n < 0) {
+                string(out, m.getTimestamp().toString());
+            } else {
+                out.buf[out.len] = '"';
+                out.len += n + 1;
+                out.put('"');
+            }
+        }
+        if (m.getFrom() != null) {
+            first = name(out, FROM, first);
+            string(out, m.getFrom());
+        }
+        if (m.getTo() != null) {
+            first = name(out, TO, first);
+            string(out, m.getTo());
+        }
+        if (m.getType() != null) {
+            first = name(out, TYPE, first);
+            out.put('"');
+            out.put(TYPE_NAMES[m.getType().ordinal()]);
+            out.put('"');
+        }
+        if (m.getBody() != null) {
+            name(out, BODY, first);
+            string(out, m.getBody());
+        }
+        out.put('}');
+        out.put('\n');
+        byte[] frame = Arrays.copyOf(out.buf, out.len);
+        out.trim();
+        return frame;
+    }
+
+    private static boolean name(Sink out, byte[] name, boolean first) {
+        if (!first) {
+            out.put(',');
+        }
+        out.put('"');
+        out.put(name);
+        out.put('"');
+        out.put(':');
+        return false;
+    }
+
+    private static void uuid(Sink out, UUID id) {
+        out.ensure(36);
+        hex(out, id.getMostSignificantBits() >>> 32, 8);
+        out.buf[out.len++] = '-';
+        hex(out, id.getMostSignificantBits() >>> 16, 4);
+        out.buf[out.len++] = '-';
+        hex(out, id.getMostSignificantBits(), 4);
+        out.buf[out.len++] = '-';
+        hex(out, id.getLeastSignificantBits() >>> 48, 4);
+        out.buf[out.len++] = '-';
+        hex(out, id.getLeastSignificantBits(), 12);
+    }
+
+    private static void hex(Sink out, long value, int digits) {
+        for (int i = out.len + digits - 1; i >= out.len; i--) {
+            out.buf[i] = HEX[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+        out.len += digits;
+    }
+
+    /**
+     * Writes a quoted string with Gson's default (HTML-safe) escaping, encoding as UTF-8.
+     */
+    private static void string(Sink out, String s) {
+        out.put('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            out.ensure(6);
+            byte[] buf = out.buf;
+            if (c < 0x80) {
+                switch (c) {
+                    case '"', '\\' -> escape(out, c);
+                    case '\n' -> escape(out, 'n');
+                    case '\r' -> escape(out, 'r');
+                    case '\t' -> escape(out, 't');
+                    case '\b' -> escape(out, 'b');
+                    case '\f' -> escape(out, 'f');
+                    case '<', '>', '&', '=', '\'' -> unicodeEscape(out, c);
+                    default -> {
+                        if (c < 0x20) {
+                            unicodeEscape(out, c);
+                        } else {
+                            buf[out.len++] = (byte) c;
+                        }
+                    }
+                }
+            } else if (c == 0x2028 || c == 0x2029) {
+                unicodeEscape(out, c);
+            } else if (c < 0x800) {
+                buf[out.len++] = (byte) (0xC0 | (c >> 6));
+                buf[out.len++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                int cp = Character.isHighSurrogate(c) && i + 1 < s.length()
+                        && Character.isLowSurrogate(s.charAt(i + 1))
+                        ? Character.toCodePoint(c, s.charAt(++i)) : -1;
+                if (cp < 0) {
+                    // Unpaired surrogate: same replacement as String.getBytes(UTF_8)
+                    buf[out.len++] = '?';
+                } else {
+                    buf[out.len++] = (byte) (0xF0 | (cp >> 18));
+                    buf[out.len++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    buf[out.len++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    buf[out.len++] = (byte) (0x80 | (cp & 0x3F));
+                }
+            } else {
+                buf[out.len++] = (byte) (0xE0 | (c >> 12));
+                buf[out.len++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[out.len++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        out.put('"');
+    }
+
+    private static void escape(Sink out, char c) {
+        out.buf[out.len++] = '\\';
+        out.buf[out.len++] = (byte) c;
+    }
+
+    private static void unicodeEscape(Sink out, char c) {
+        byte[] buf = out.buf;
+        buf[out.len++] = '\\';
+        buf[out.len++] = 'u';
+        buf[out.len++] = HEX[(c >> 12) & 0xF];
+        buf[out.len++] = HEX[(c >> 8) & 0xF];
+        buf[out.len++] = HEX[(c >> 4) & 0xF];
+        buf[out.len++] = HEX[c & 0xF];
+    }
+
+    /**
+     * Parses one JSON object from {@code len} bytes at {@code off}, ignoring unknown fields.
+     * @throws IOException if the bytes are not a JSON object of the expected shape
+     */
+    public static Message parse(byte[] b, int off, int len) throws IOException {
+        Parser p = new Parser(b, off, off + len);
+        try {
+            return p.message();
+        } catch (IllegalArgumentException | DateTimeException | ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Malformed JSON frame at offset " + (p.pos - off), e);
+        }
+    }
+
+    private static final class Parser {
+        private final byte[] b;
+        private final int end;
+        private int pos;
+
+        Parser(byte[] b, int pos, int end) {
+            this.b = b;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        Message message() throws IOException {
+            Message m = new Message();
+            expect('{');
+            if (peek() == '}') {
+                pos++;
+                return trailing(m);
+            }
+            while (true) {
+                expect('"');
+                int keyStart = pos;
+                while (at(pos) != '"') {
+                    if (b[pos] == '\\') {
+                        throw error("escaped field name");
+                    }
+                    pos++;
+                }
+                int keyEnd = pos++;
+                expect(':');
+                if (peek() == 'n') {
+                    literal("null");
+                } else {
+                    field(m, keyStart, keyEnd - keyStart);
+                }
+                int c = next();
+                if (c == '}') {
+                    return trailing(m);
+                }
+                if (c != ',') {
+                    throw error("expected ',' or '}'");
+                }
+            }
+        }
+
+        private void field(Message m, int key, int keyLen) throws IOException {
+            if (is(key, keyLen, ID)) {
+                m.setId(uuid());
+            } else if (is(key, keyLen, TIMESTAMP)) {
+                int start = stringStart();
+                m.setTimestamp(InstantFormat.parse(b, start, pos - start));
+                pos++;
+            } else if (is(key, keyLen, FROM)) {
+                m.setFrom(name());
+            } else if (is(key, keyLen, TO)) {
+                m.setTo(name());
+            } else if (is(key, keyLen, TYPE)) {
+                int start = stringStart();
+                m.setType(type(start, pos - start));
+                pos++;
+            } else if (is(key, keyLen, BODY)) {
+                m.setBody(string(false));
+            } else {
+                skipValue();
+            }
+        }
+
+        private Message trailing(Message m) throws IOException {
+            skipWhitespace();
+            if (pos != end) {
+                throw error("trailing data");
+            }
+            return m;
+        }
+
+        /**
+         * Positions after the opening quote of an unescaped string and leaves pos on the closing quote.
+         */
+        private int stringStart() throws IOException {
+            expect('"');
+            int start = pos;
+            while (at(pos) != '"') {
+                if (b[pos] == '\\') {
+                    throw error("unexpected escape");
+                }
+                pos++;
+            }
+            return start;
+        }
+
+        private UUID uuid() throws IOException {
+            int start = stringStart();
+            if (pos - start == 36 && b[start + 8] == '-' && b[start + 13] == '-'
+                    && b[start + 18] == '-' && b[start + 23] == '-') {
+                long msb = (hex(start, 8) << 32) | (hex(start + 9, 4) << 16) | hex(start + 14, 4);
+                long lsb = (hex(start + 19, 4) << 48) | hex(start + 24, 12);
+                pos++;
+                return new UUID(msb, lsb);
+            }
+            UUID id = UUID.fromString(new String(b, start, pos - start, StandardCharsets.ISO_8859_1));
+            pos++;
+            return id;
+        }
+
+        private long hex(int p, int digits) throws IOException {
+            long value = 0;
+            for (int i = p; i < p + digits; i++) {
+                int c = b[i];
+                int d = c >= '0' && c <= '9' ? c - '0'
+                        : c >= 'a' && c <= 'f' ? c - 'a' + 10
+                        : c >= 'A' && c <= 'F' ? c - 'A' + 10 : -1;
+                if (d < 0) {
+                    throw error("bad hex digit in id");
+                }
+                value = (value << 4) | d;
+            }
+            return value;
+        }
+
+        private MessageType type(int start, int len) {
+            for (int i = 0; i < TYPE_NAMES.length; i++) {
+                if (Arrays.equals(TYPE_NAMES[i], 0, TYPE_NAMES[i].length, b, start, start + len)) {
+                    return TYPES[i];
+                }
+            }
+            // Unknown constants read as null, as Gson does
+            return null;
+        }
+
+        private String name() throws IOException {
+            return string(true);
+        }
+
+        private String string(boolean cached) throws IOException {
+            expect('"');
+            int start = pos;
+            while (true) {
+                byte c = at(pos);
+                if (c == '"') {
+                    String s = cached ? NAMES.get(b, start, pos - start)
+                            : new String(b, start, pos - start, StandardCharsets.UTF_8);
+                    pos++;
+                    return s;
+                }
+                if (c == '\\') {
+                    return escapedString(start);
+                }
+                pos++;
+            }
+        }
+
+        /**
+         * Slow path for strings containing escapes; {@code pos} is on the first backslash.
+         */
+        private String escapedString(int start) throws IOException {
+            StringBuilder sb = new StringBuilder(pos - start + 16);
+            sb.append(new String(b, start, pos - start, StandardCharsets.UTF_8));
+            while (true) {
+                byte c = at(pos);
+                if (c == '"') {
+                    pos++;
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    int runStart = pos;
+                    while (at(pos) != '"' && b[pos] != '\\') {
+                        pos++;
+                    }
+                    sb.append(new String(b, runStart, pos - runStart, StandardCharsets.UTF_8));
+                    continue;
+                }
+                pos++;
+                byte e = at(pos++);
+                switch (e) {
+                    case '"', '\\', '/' -> sb.append((char) e);
+                    case 'n' -> sb.append('\n');
+                    case 'r' -> sb.append('\r');
+                    case 't' -> sb.append('\t');
+                    case 'b' -> sb.append('\b');
+                    case 'f' -> sb.append('\f');
+                    case 'u' -> {
+                        at(pos + 3);
+                        sb.append((char) hex(pos, 4));
+                        pos += 4;
+                    }
+                    default -> throw error("bad escape");
+                }
+            }
+        }
+
+        private void skipValue() throws IOException {
+            int c = peek();
+            if (c == '"') {
+                string(false);
+            } else if (c == '{' || c == '[') {
+                int depth = 0;
+                do {
+                    int d = at(pos);
+                    if (d == '"') {
+                        string(false);
+                        continue;
+                    }
+                    if (d == '{' || d == '[') {
+                        depth++;
+                    } else if (d == '}' || d == ']') {
+                        depth--;
+                    }
+                    pos++;
+                } while (depth > 0);
+            } else {
+                while (pos < end && b[pos] != ',' && b[pos] != '}') {
+                    pos++;
+                }
+            }
+        }
+
+        private void literal(String word) throws IOException {
+            for (int i = 0; i < word.length(); i++) {
+                if (at(pos++) != word.charAt(i)) {
+                    throw error("expected " + word);
+                }
+            }
+        }
+
+        /**
+         * Returns the byte at {@code i}, failing instead of reading past the frame.
+         */
+        private byte at(int i) throws IOException {
+            if (i >= end) {
+                throw error("unexpected end");
+            }
+            return b[i];
+        }
+
+        private boolean is(int key, int keyLen, byte[] name) {
+            return Arrays.equals(b, key, key + keyLen, name, 0, name.length);
+        }
+
+        private void expect(char c) throws IOException {
+            if (next() != c) {
+                throw error("expected '" + c + "'");
+            }
+        }
+
+        private int next() throws IOException {
+            skipWhitespace();
+            if (pos >= end) {
+                throw error("unexpected end");
+            }
+            return b[pos++];
+        }
+
+        private int peek() throws IOException {
+            skipWhitespace();
+            if (pos >= end) {
+                throw error("unexpected end");
+            }
+            return b[pos];
+        }
+
+        private void skipWhitespace() {
+            while (pos < end && (b[pos] == ' ' || b[pos] == '\t' || b[pos] == '\n' || b[pos] == '\r')) {
+                pos++;
+            }
+        }
+
+        private IOException error(String what) {
+            return new IOException("Malformed JSON frame: " + what);
+        }
+    }
+
+    /**
+     * Growable per-thread scratch buffer for encoding.
+     */
+    private static final class Sink {
+        byte[] buf = new byte[256];
+        int len;
+
+        void ensure(int extra) {
+            if (len + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+            }
+        }
+
+        void put(int c) {
+            ensure(1);
+            buf[len++] = (byte) c;
+        }
+
+        /**
+         * Drops a buffer grown by an unusually large message so threads do not retain it.
+         */
+        void trim() {
+            if (buf.length > 64 * 1024) {
+                buf = new byte[256];
+            }
+        }
+
+        void put(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, len, bytes.length);
+            len += bytes.length;
+        }
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -4,9 +4,21 @@ package com.example.chat.common;
  * Defines the kinds of messages exchanged.
  */
 public enum MessageType {
-    TEXT,   // Standard chat message
-    JOIN,   // Client has joined
-    LEAVE,  // Client has left
-    PING,   // Heartbeat request
-    PONG    // Heartbeat response
+    TEXT,    // Standard chat message
+    JOIN,    // Client has joined
+    LEAVE,   // Client has left
+    PING,    // Heartbeat request
+    PONG,    // Heartbeat response
+    WELCOME, // Server's reply to a JOIN that offered handshake options
+    ACK,     // Client's cumulative acknowledgement: the id of the last message it received
+    PRESENCE, // Roster snapshot or batched joins and leaves, for clients that negotiated it
+    SEARCH;  // Client's history search query, and the server's results
+
+    /**
+     * Whether a resumable session keeps messages of this type until the client acknowledges
+     * them. Heartbeats, handshake traffic and search results are not worth resending.
+     */
+    public boolean isResent() {
+        return this != PING && this != PONG && this != WELCOME && this != ACK && this != SEARCH;
+    }
 }
@@ -0,0 +1,43 @@
+package com.example.chat.common;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Small direct-mapped cache from UTF-8 bytes to String, for values that repeat on almost
+ * every frame (usernames, "ALL", "SERVER"). A hit returns the same String instance without
+ * allocating; a miss decodes and replaces whatever shared the slot.
+ * <p>
+ * Safe to share between threads: entries are immutable and a lost race only costs a miss.
+ */
+final class NameCache {
+    static final int MAX_NAME_BYTES = 64;
+
+    private final Entry[] slots;
+    private final int mask;
+
+    NameCache(int sizePowerOfTwo) {
+        this.slots = new Entry[sizePowerOfTwo];
+        this.mask = sizePowerOfTwo - 1;
+    }
+
+    String get(byte[] b, int off, int len) {
+        if (len > MAX_NAME_BYTES) {
+            return new String(b, off, len, StandardCharsets.UTF_8);
+        }
+        int hash = 1;
+        for (int i = off; i < off + len; i++) {
+            hash = 31 * hash + b[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        Entry entry = slots[slot];
+        if (entry != null && Arrays.equals(entry.bytes, 0, entry.bytes.length, b, off, off + len)) {
+            return entry.value;
+        }
+        String value = new String(b, off, len, StandardCharsets.UTF_8);
+        slots[slot] = new Entry(Arrays.copyOfRange(b, off, off + len), value);
+        return value;
+    }
+
+    private record Entry(byte[] bytes, String value) {}
+}
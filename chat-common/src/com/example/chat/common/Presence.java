@@ -0,0 +1,122 @@
+package com.example.chat.common;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Body of a {@link MessageType#PRESENCE} message: either the whole roster of online users or
+ * the users that joined and left since the previous version, one per line after a header.
+ * <pre>
+ * roster := "roster " version ("\n" username)*
+ * delta  := "delta " version ("\n" ("+" | "-") username)*
+ * </pre>
+ * Versions increase by one per delta, so a client that holds roster {@code v} applies the
+ * delta {@code v + 1} next and ignores anything older.
+ */
+public final class Presence {
+    private static final String ROSTER = "roster ";
+    private static final String DELTA = "delta ";
+
+    private Presence() {}
+
+    public static String roster(long version, Collection<String> users) {
+        StringBuilder sb = new StringBuilder(ROSTER).append(version);
+        for (String user : users) {
+            sb.append('\n').append(user);
+        }
+        return sb.toString();
+    }
+
+    public static String delta(long version, Collection<String> joined, Collection<String> left) {
+        StringBuilder sb = new StringBuilder(DELTA).append(version);
+        for (String user : joined) {
+            sb.append("\n+").append(user);
+        }
+        for (String user : left) {
+            sb.append("\n-").append(user);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parses a PRESENCE body.
+     * @return the update, or null if the body is not one
+     */
+    public static Update parse(String body) {
+        if (body == null) {
+            return null;
+        }
+        String[] lines = body.split("\n", -1);
+        boolean snapshot = lines[0].startsWith(ROSTER);
+        if (!snapshot && !lines[0].startsWith(DELTA)) {
+            return null;
+        }
+        long version;
+        try {
+            version = Long.parseLong(lines[0].substring(snapshot ? ROSTER.length() : DELTA.length()).trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        List<String> joined = new ArrayList<>();
+        List<String> left = new ArrayList<>();
+        for (int i = 1; i < lines.length; i++) {
+            String line = lines[i];
+            if (snapshot) {
+                joined.add(line);
+            } else if (line.startsWith("+")) {
+                joined.add(line.substring(1));
+            } else if (line.startsWith("-")) {
+                left.add(line.substring(1));
+            }
+        }
+        return new Update(snapshot, version, List.copyOf(joined), List.copyOf(left));
+    }
+
+    /**
+     * A parsed PRESENCE body; for a roster, {@code joined} holds every online user.
+     */
+    public record Update(boolean snapshot, long version, List<String> joined, List<String> left) {}
+
+    /**
+     * A client's view of who is online, kept up to date from PRESENCE messages.
+     * Not thread-safe.
+     */
+    public static final class Roster {
+        private final Set<String> users = new HashSet<>();
+        // -1 until the first roster arrives; deltas before it are ignored
+        private long version = -1;
+
+        /**
+         * Applies a roster, or a delta that follows the version held.
+         * @return false if the update was ignored as stale or out of sequence
+         */
+        public boolean apply(Update update) {
+            if (update.snapshot()) {
+                if (update.version() < version) {
+                    return false;
+                }
+                users.clear();
+                users.addAll(update.joined());
+            } else {
+                if (version < 0 || update.version() <= version) {
+                    return false;
+                }
+                users.removeAll(update.left());
+                users.addAll(update.joined());
+            }
+            version = update.version();
+            return true;
+        }
+
+        public long version() {
+            return version;
+        }
+
+        public Set<String> users() {
+            return Set.copyOf(users);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.chat.common;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Unsigned LEB128 encoding of non-negative ints: 7 bits per byte, high bit set on all but the last.
+ */
+final class Varint {
+    private Varint() {}
+
+    static int size(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    static void write(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    /**
+     * Reads a varint, or returns -1 if the buffer ends first (the position is then undefined).
+     */
+    static int read(ByteBuffer in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (!in.hasRemaining()) {
+                return -1;
+            }
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return checked(value);
+            }
+        }
+        throw new IOException("Varint too long");
+    }
+
+    /**
+     * Reads a varint from a stream whose first byte has already been consumed.
+     */
+    static int read(int first, InputStream in) throws IOException {
+        int value = first & 0x7F;
+        int b = first;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            if (shift >= 32) {
+                throw new IOException("Varint too long");
+            }
+            b = in.read();
+            if (b == -1) {
+                throw new EOFException("Truncated varint");
+            }
+            value |= (b & 0x7F) << shift;
+        }
+        return checked(value);
+    }
+
+    private static int checked(int value) throws IOException {
+        if (value < 0) {
+            throw new IOException("Varint out of range");
+        }
+        return value;
+    }
+}
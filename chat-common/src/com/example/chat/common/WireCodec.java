@@ -0,0 +1,58 @@
+package com.example.chat.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Turns messages into self-delimiting frames and back.
+ * Implementations are stateless and shared by all connections.
+ */
+public interface WireCodec {
+    /** Largest frame either side accepts before dropping the connection. */
+    int MAX_FRAME_BYTES = 1024 * 1024;
+
+    /** Number of codec ids in use, for callers that cache per-codec data in arrays. */
+    int MAX_ID = 3;
+
+    /**
+     * Name used to negotiate this codec in the JOIN handshake.
+     */
+    String name();
+
+    /**
+     * Small dense id, below {@link #MAX_ID}.
+     */
+    int id();
+
+    /**
+     * Encodes one complete frame, including its delimiter or length prefix.
+     */
+    byte[] encode(Message message);
+
+    /**
+     * Reads the next frame from a blocking stream.
+     * @return the message, or null at end of stream
+     */
+    Message read(InputStream in) throws IOException;
+
+    /**
+     * Decodes the next frame if the buffer holds all of it, advancing the position past it.
+     * Otherwise returns null and leaves the position unchanged.
+     * @throws IOException if the data is malformed or the frame exceeds {@link #MAX_FRAME_BYTES}
+     */
+    Message decode(ByteBuffer buffer) throws IOException;
+
+    /**
+     * Looks up a codec by its handshake name, or returns null if unknown.
+     */
+    static WireCodec forName(String name) {
+        return switch (name.trim().toLowerCase(Locale.ROOT)) {
+            case JsonCodec.NAME -> JsonCodec.INSTANCE;
+            case BinaryCodec.NAME -> BinaryCodec.INSTANCE;
+            case BinaryCodec.DEFLATE_NAME -> BinaryCodec.DEFLATE;
+            default -> null;
+        };
+    }
+}
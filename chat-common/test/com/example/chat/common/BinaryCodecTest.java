@@ -0,0 +1,123 @@
+package com.example.chat.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the binary frame layout: every field and every null survives the round trip,
+ * partial frames wait for the rest, oversized ones are refused, deflated bodies survive
+ * too, and small bodies are sent exactly as the plain binary codec sends them.
+ */
+public class BinaryCodecTest {
+
+    @Test
+    public void roundTripsEveryFieldAtMicrosecondPrecision() throws Exception {
+        Message message = message("ünïcode ✓ and a 43-character chat line here");
+        message.setTimestamp(Instant.parse("2024-01-02T03:04:05.123456789Z"));
+        byte[] frame = BinaryCodec.INSTANCE.encode(message);
+        Message decoded = BinaryCodec.INSTANCE.decode(ByteBuffer.wrap(frame));
+        Message read = BinaryCodec.INSTANCE.read(new ByteArrayInputStream(frame));
+
+        // Nanoseconds are dropped, as the timestamp travels in epoch micros
+        message.setTimestamp(Instant.parse("2024-01-02T03:04:05.123456Z"));
+        assertSameMessage(message, decoded);
+        assertSameMessage(message, read);
+        assertTrue(frame.length < JsonCodec.INSTANCE.encode(message).length / 2,
+                frame.length + " bytes against " + JsonCodec.INSTANCE.encode(message).length + " in JSON");
+    }
+
+    @Test
+    public void roundTripsNulls() throws Exception {
+        Message empty = new Message();
+        Message decoded = BinaryCodec.INSTANCE.decode(ByteBuffer.wrap(BinaryCodec.INSTANCE.encode(empty)));
+        assertSameMessage(empty, decoded);
+        Message noBody = message(null);
+        noBody.setTo(null);
+        assertSameMessage(noBody, BinaryCodec.INSTANCE.decode(ByteBuffer.wrap(BinaryCodec.INSTANCE.encode(noBody))));
+    }
+
+    @Test
+    public void decodeWaitsForTheWholeFrame() throws Exception {
+        byte[] first = BinaryCodec.INSTANCE.encode(message("first"));
+        byte[] second = BinaryCodec.INSTANCE.encode(message("second"));
+        byte[] both = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, both, first.length, second.length);
+
+        for (int available = 0; available < first.length; available++) {
+            ByteBuffer partial = ByteBuffer.wrap(both, 0, available);
+            assertNull(BinaryCodec.INSTANCE.decode(partial));
+            assertEquals(0, partial.position());
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(both);
+        assertEquals("first", BinaryCodec.INSTANCE.decode(buffer).getBody());
+        assertEquals("second", BinaryCodec.INSTANCE.decode(buffer).getBody());
+        assertEquals(0, buffer.remaining());
+    }
+
+    @Test
+    public void oversizedFramesAreRefusedBeforeTheyArrive() {
+        ByteBuffer prefix = ByteBuffer.allocate(8);
+        Varint.write(prefix, WireCodec.MAX_FRAME_BYTES + 1);
+        prefix.flip();
+        assertThrows(IOException.class, () -> BinaryCodec.INSTANCE.decode(prefix));
+        assertThrows(IOException.class, () -> BinaryCodec.INSTANCE.read(
+                new ByteArrayInputStream(Arrays.copyOf(prefix.array(), prefix.limit()))));
+    }
+
+    @Test
+    public void largeBodiesAreDeflatedAndReadByBothVariants() throws Exception {
+        Message message = message("the quick brown fox jumps over the lazy dog. ".repeat(100));
+        byte[] plain = BinaryCodec.INSTANCE.encode(message);
+        byte[] deflated = BinaryCodec.DEFLATE.encode(message);
+        assertTrue(deflated.length < plain.length / 4, "deflated " + deflated.length + " of " + plain.length);
+
+        for (BinaryCodec codec : new BinaryCodec[] {BinaryCodec.INSTANCE, BinaryCodec.DEFLATE}) {
+            assertSameMessage(message, codec.decode(ByteBuffer.wrap(deflated)));
+            assertSameMessage(message, codec.read(new ByteArrayInputStream(deflated)));
+        }
+    }
+
+    @Test
+    public void smallBodiesAreLeftAlone() {
+        Message small = message("x".repeat(BinaryCodec.COMPRESS_MIN_BYTES - 1));
+        assertArrayEquals(BinaryCodec.INSTANCE.encode(small), BinaryCodec.DEFLATE.encode(small));
+        Message empty = message(null);
+        assertArrayEquals(BinaryCodec.INSTANCE.encode(empty), BinaryCodec.DEFLATE.encode(empty));
+    }
+
+    @Test
+    public void corruptCompressedBodyIsRejected() {
+        byte[] frame = BinaryCodec.DEFLATE.encode(message("a".repeat(4096)));
+        byte[] corrupt = Arrays.copyOf(frame, frame.length);
+        corrupt[corrupt.length - 3] ^= 0x5A;
+        assertThrows(IOException.class, () -> BinaryCodec.DEFLATE.decode(ByteBuffer.wrap(corrupt)));
+    }
+
+    private static Message message(String body) {
+        Message message = new Message("alice", "ALL", MessageType.TEXT, body);
+        message.setId(UUID.randomUUID());
+        message.setTimestamp(Instant.parse("2024-01-02T03:04:05.123456Z"));
+        return message;
+    }
+
+    private static void assertSameMessage(Message expected, Message actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getFrom(), actual.getFrom());
+        assertEquals(expected.getTo(), actual.getTo());
+        assertEquals(expected.getBody(), actual.getBody());
+    }
+}
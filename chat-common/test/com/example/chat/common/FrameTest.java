@@ -0,0 +1,129 @@
+package com.example.chat.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that a frame encodes its message once per codec however many recipients ask,
+ * including recipients on different threads, and that a pinned frame ignores their codec.
+ */
+public class FrameTest {
+
+    @Test
+    public void encodesOncePerCodecNotOncePerRecipient() {
+        CountingCodec json = new CountingCodec(JsonCodec.INSTANCE);
+        CountingCodec binary = new CountingCodec(BinaryCodec.INSTANCE);
+        Frame frame = Frame.of(new Message("alice", "ALL", MessageType.TEXT, "hello"));
+
+        byte[] first = frame.encoded(json);
+        for (int recipient = 0; recipient < 100; recipient++) {
+            assertSame(first, frame.encoded(json));
+            frame.encoded(binary);
+        }
+        assertEquals(1, json.encodes.get());
+        assertEquals(1, binary.encodes.get());
+        assertArrayEquals(JsonCodec.INSTANCE.encode(frame.getMessage()), first);
+        assertArrayEquals(BinaryCodec.INSTANCE.encode(frame.getMessage()), frame.encoded(binary));
+    }
+
+    @Test
+    public void concurrentRecipientsShareOneEncoding() throws Exception {
+        CountingCodec json = new CountingCodec(JsonCodec.INSTANCE);
+        Frame frame = Frame.of(new Message("alice", "ALL", MessageType.TEXT, "x".repeat(4096)));
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        byte[][] seen = new byte[threads][];
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            int index = i;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                seen[index] = frame.encoded(json);
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(1, json.encodes.get());
+        for (byte[] bytes : seen) {
+            assertSame(seen[0], bytes);
+        }
+    }
+
+    @Test
+    public void pinnedFramesIgnoreTheRecipientsCodec() {
+        Message reply = new Message("server", "alice", MessageType.WELCOME, "codec=binary");
+        Frame frame = Frame.pinned(reply, JsonCodec.INSTANCE);
+        assertSame(frame.json(), frame.encoded(BinaryCodec.INSTANCE));
+        assertSame(frame.json(), frame.encoded(BinaryCodec.DEFLATE));
+    }
+
+    @Test
+    public void buffersAreIndependentReadOnlyViews() {
+        Frame frame = Frame.of(new Message("alice", "ALL", MessageType.TEXT, "hello"));
+        ByteBuffer first = frame.buffer(JsonCodec.INSTANCE);
+        ByteBuffer second = frame.buffer(JsonCodec.INSTANCE);
+        first.get(new byte[3]);
+        assertEquals(0, second.position());
+        assertEquals(frame.json().length, second.remaining());
+        assertThrows(ReadOnlyBufferException.class, () -> second.put(0, (byte) 'x'));
+    }
+
+    /**
+     * Stands in for {@code delegate} under the same id, counting the encodes.
+     */
+    private static final class CountingCodec implements WireCodec {
+        private final WireCodec delegate;
+        final AtomicInteger encodes = new AtomicInteger();
+
+        CountingCodec(WireCodec delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String name() {
+            return delegate.name();
+        }
+
+        @Override
+        public int id() {
+            return delegate.id();
+        }
+
+        @Override
+        public byte[] encode(Message message) {
+            encodes.incrementAndGet();
+            return delegate.encode(message);
+        }
+
+        @Override
+        public Message read(InputStream in) throws IOException {
+            return delegate.read(in);
+        }
+
+        @Override
+        public Message decode(ByteBuffer buffer) throws IOException {
+            return delegate.decode(buffer);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.chat.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that message ids are valid version 7 UUIDs that sort by creation time and give
+ * that time back.
+ */
+public class MessageIdsTest {
+
+    @Test
+    public void idsSortByTimeAndCarryIt() {
+        Instant first = Instant.parse("2025-06-22T10:15:30.123456789Z");
+        UUID earlier = MessageIds.next(first);
+        UUID sameMilli = MessageIds.next(first.plusNanos(300_000));
+        UUID later = MessageIds.next(first.plusMillis(1));
+        assertEquals(7, earlier.version());
+        assertEquals(2, earlier.variant());
+        assertTrue(earlier.compareTo(sameMilli) < 0);
+        assertTrue(sameMilli.compareTo(later) < 0);
+
+        // Rounded down to 1/4096 ms, so never after the real time
+        Instant time = MessageIds.timeOf(earlier);
+        assertTrue(!time.isAfter(first) && time.isAfter(first.minusNanos(250)), time.toString());
+        assertNull(MessageIds.timeOf(UUID.randomUUID()));
+    }
+
+    @Test
+    public void idsFromOneInstantAreStillUnique() {
+        Instant now = Instant.now();
+        Set<UUID> ids = new HashSet<>();
+        for (int i = 0; i < 100_000; i++) {
+            ids.add(MessageIds.next(now));
+        }
+        assertEquals(100_000, ids.size());
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.chat.common;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Checks that the streaming JSON codec produces exactly what the reflective Gson
+ * path produced before, so old and new peers stay interchangeable.
+ */
+public class MessageJsonTest {
+    private static final Gson REFLECTIVE = new GsonBuilder()
+            .registerTypeAdapter(Instant.class, new InstantTypeAdapter().nullSafe())
+            .create();
+
+    private static final String[] BODIES = {
+            null, "", "hello", "quote\" backslash\\ newline\n tab\t ctrl\u0001",
+            "<b>&amp;</b> 'single' =", "héllo ☃ 😀", "  \u007f"
+    };
+
+    @Test
+    public void encodingMatchesReflectiveGson() throws Exception {
+        for (String body : BODIES) {
+            for (MessageType type : MessageType.values()) {
+                assertSame(message(body, type));
+            }
+        }
+        Message sparse = new Message();
+        sparse.setBody("only a body");
+        assertSame(sparse);
+        assertSame(new Message());
+    }
+
+    @Test
+    public void timestampsMatchInstantToString() {
+        long[] seconds = {0, -1, 1_750_000_000L, 253_402_300_799L, -62_167_219_200L};
+        int[] nanos = {0, 1, 120_000_000, 123_456_000, 123_456_789};
+        for (long s : seconds) {
+            for (int n : nanos) {
+                Instant instant = Instant.ofEpochSecond(s, n);
+                assertEquals(instant.toString(), InstantFormat.format(instant));
+                assertEquals(instant, InstantFormat.parse(instant.toString()));
+            }
+        }
+    }
+
+    @Test
+    public void codecAcceptsLenientJsonAndSkipsBlankLines() throws Exception {
+        byte[] lines = "\r\n{ 'from' : \"bob\", \"to\":\"ALL\", \"type\":\"TEXT\", \"extra\":1 }\r\n"
+                .getBytes(StandardCharsets.UTF_8);
+        Message fromStream = JsonCodec.INSTANCE.read(new ByteArrayInputStream(lines));
+        Message fromBuffer = JsonCodec.INSTANCE.decode(ByteBuffer.wrap(lines));
+        for (Message m : new Message[] {fromStream, fromBuffer}) {
+            assertEquals("bob", m.getFrom());
+            assertEquals("ALL", m.getTo());
+            assertEquals(MessageType.TEXT, m.getType());
+            assertNull(m.getBody());
+        }
+    }
+
+    private static Message message(String body, MessageType type) {
+        Message m = new Message("alice", "ALL", type, body);
+        m.setId(UUID.randomUUID());
+        return m;
+    }
+
+    private static void assertSame(Message m) throws Exception {
+        String expected = REFLECTIVE.toJson(m) + "\n";
+        byte[] encoded = MessageJson.encode(m);
+        assertEquals(expected, new String(encoded, StandardCharsets.UTF_8));
+
+        Message parsed = MessageJson.parse(encoded, 0, encoded.length - 1);
+        assertEquals(expected, REFLECTIVE.toJson(parsed) + "\n");
+        Message decoded = JsonCodec.INSTANCE.decode(ByteBuffer.wrap(encoded));
+        assertEquals(expected, REFLECTIVE.toJson(decoded) + "\n");
+    }
+}
@@ -1,53 +1,531 @@
 package com.example.chat.server;
 
+import com.example.chat.common.Frame;
 import com.example.chat.common.Message;
 import com.example.chat.common.MessageType;
 
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 /**
- * Singleton managing all active client sessions and routing messages.
+ * Manages the active client sessions and rooms of one server, and routes messages.
+ * In a cluster, messages are also relayed to the other nodes through the {@link ClusterNode}.
  */
 public class ChatManager {
-    private static final ChatManager INSTANCE = new ChatManager();
-    private final ConcurrentMap<String, ClientSession> sessions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ChatSession> sessions = new ConcurrentHashMap<>();
+    // Room name (with its '#') to current members; a room exists only while it has members
+    private final ConcurrentMap<String, Room> rooms = new ConcurrentHashMap<>();
+    private volatile MessageLog messageLog;
+    private volatile HistoryRing history = new HistoryRing(1024);
+    private volatile int catchUpLimit = 256;
+    private volatile HeartbeatWheel heartbeat;
+    private volatile ClusterNode cluster;
+    private volatile FanoutExecutor fanout;
+    private volatile FloodControl floodControl;
+    private volatile ResumeWindow resumeWindow;
+    private volatile PresenceTracker presence;
+    private volatile SearchIndex searchIndex;
 
-    private ChatManager() {}
+    /**
+     * Persists broadcast chat messages to {@code log} from now on; null stops persisting.
+     */
+    public void setMessageLog(MessageLog log) {
+        this.messageLog = log;
+    }
+
+    public MessageLog getMessageLog() {
+        return messageLog;
+    }
+
+    /**
+     * Indexes chat sent to everyone and to rooms in {@code index} from now on, and answers
+     * SEARCH queries from it; null turns search off.
+     */
+    void setSearchIndex(SearchIndex index) {
+        this.searchIndex = index;
+    }
+
+    SearchIndex searchIndex() {
+        return searchIndex;
+    }
+
+    /**
+     * Keeps the last {@code capacity} broadcast messages in memory and replays at most
+     * {@code catchUpLimit} of them to a reconnecting client.
+     */
+    public void configureHistory(int capacity, int catchUpLimit) {
+        this.history = new HistoryRing(capacity);
+        this.catchUpLimit = catchUpLimit;
+    }
+
+    /**
+     * Relays messages through {@code cluster} from now on; null keeps them on this server.
+     */
+    void setCluster(ClusterNode cluster) {
+        this.cluster = cluster;
+    }
+
+    ClusterNode cluster() {
+        return cluster;
+    }
+
+    /**
+     * Spreads large fan-outs over {@code fanout}'s threads from now on; null delivers
+     * every fan-out on the sending thread.
+     */
+    void setFanout(FanoutExecutor fanout) {
+        this.fanout = fanout;
+    }
+
+    /**
+     * Rate limits sessions that join from now on through {@code floodControl}; null leaves
+     * them unlimited.
+     */
+    void setFloodControl(FloodControl floodControl) {
+        this.floodControl = floodControl;
+    }
+
+    FloodControl floodControl() {
+        return floodControl;
+    }
+
+    /**
+     * Lets clients that join from now on resume their session through {@code window}; null
+     * ends every session with its connection.
+     */
+    void setResumeWindow(ResumeWindow window) {
+        this.resumeWindow = window;
+    }
+
+    ResumeWindow resumeWindow() {
+        return resumeWindow;
+    }
+
+    /**
+     * Batches presence through {@code tracker} for sessions that join from now on; null
+     * broadcasts a JOIN and LEAVE per user to everyone.
+     */
+    void setPresence(PresenceTracker tracker) {
+        this.presence = tracker;
+    }
+
+    PresenceTracker presence() {
+        return presence;
+    }
+
+    /**
+     * Sends heartbeats through {@code wheel} and lets it evict unresponsive sessions;
+     * null turns heartbeats off for sessions that join afterwards.
+     */
+    void setHeartbeat(HeartbeatWheel wheel) {
+        this.heartbeat = wheel;
+    }
+
+    /**
+     * Starts heartbeat tracking for a session that has completed its JOIN.
+     */
+    void watch(ChatSession session) {
+        HeartbeatWheel wheel = heartbeat;
+        if (wheel != null) {
+            wheel.add(session);
+        }
+    }
 
-    public static ChatManager getInstance() {
-        return INSTANCE;
+    void unwatch(ChatSession session) {
+        HeartbeatWheel wheel = heartbeat;
+        if (wheel != null) {
+            wheel.remove(session);
+        }
     }
 
-    public void addSession(String username, ClientSession session) {
-        sessions.put(username, session);
+    public void addSession(String username, ChatSession session) {
+        ChatSession replaced = sessions.put(username, session);
+        PresenceTracker tracker = presence;
+        if (tracker != null) {
+            if (replaced != null) {
+                tracker.remove(replaced);
+            }
+            tracker.add(session);
+        }
+        userUp(username);
+        presenceChanged(username);
         broadcast(new Message(username, "ALL", MessageType.JOIN, username + " has joined"));
     }
 
-    public void removeSession(String username) {
-        sessions.remove(username);
-        broadcast(new Message(username, "ALL", MessageType.LEAVE, username + " has left"));
+    /**
+     * Removes the user only if it is still bound to the given session, so a stale
+     * connection closing late cannot unregister a newer one with the same name.
+     */
+    public void removeSession(String username, ChatSession session) {
+        PresenceTracker tracker = presence;
+        if (tracker != null) {
+            tracker.remove(session);
+        }
+        if (sessions.remove(username, session)) {
+            userDown(username);
+            presenceChanged(username);
+            broadcast(new Message(username, "ALL", MessageType.LEAVE, username + " has left"));
+        }
+    }
+
+    /**
+     * Puts {@code successor} in the place of {@code previous}, as the user and as a member of
+     * {@code rooms}, without telling anyone: the client has only changed connections.
+     */
+    void replaceSession(String username, ChatSession previous, ChatSession successor, Iterable<String> rooms) {
+        sessions.replace(username, previous, successor);
+        PresenceTracker tracker = presence;
+        if (tracker != null) {
+            tracker.replace(previous, successor);
+        }
+        for (String room : rooms) {
+            this.rooms.computeIfPresent(room, (name, current) -> current.replace(previous, successor));
+        }
+    }
+
+    private void userUp(String username) {
+        ClusterNode node = cluster;
+        if (node != null) {
+            node.userUp(username);
+        }
+    }
+
+    private void userDown(String username) {
+        ClusterNode node = cluster;
+        if (node != null) {
+            node.userDown(username);
+        }
     }
 
+    /**
+     * Tells the presence tracker, if any, that {@code username} may have come online or gone
+     * offline, here or on another node.
+     */
+    void presenceChanged(String username) {
+        PresenceTracker tracker = presence;
+        if (tracker != null) {
+            tracker.changed(username);
+        }
+    }
+
+    /**
+     * Whether the user is connected to this server or to another node of the cluster.
+     */
+    boolean isOnline(String username) {
+        if (sessions.containsKey(username)) {
+            return true;
+        }
+        ClusterNode node = cluster;
+        return node != null && node.isOnline(username);
+    }
+
+    /**
+     * Names of the users connected to this server.
+     */
+    Iterable<String> usernames() {
+        return sessions.keySet();
+    }
+
+    /**
+     * Sends the message to every connected client, encoding it only once.
+     */
     public void broadcast(Message message) {
-        sessions.values().forEach(session -> session.sendMessage(message));
+        broadcast(Frame.of(message));
+    }
+
+    /**
+     * Sends the frame to every client of this server and relays it to the rest of the cluster.
+     */
+    public void broadcast(Frame frame) {
+        broadcastLocal(frame);
+        ClusterNode node = cluster;
+        if (node != null) {
+            node.relay(frame);
+        }
+    }
+
+    /**
+     * Sends the frame to the clients of this server only, recording chat in its history and
+     * search index.
+     * With a presence tracker, a JOIN or LEAVE goes only to the sessions that want one per user.
+     */
+    void broadcastLocal(Frame frame) {
+        MessageType type = frame.getMessage().getType();
+        boolean chat = type == MessageType.TEXT;
+        if (chat) {
+            // Recorded before fan-out so a session joining concurrently either receives the
+            // frame live or finds it in the ring
+            history.add(frame);
+        }
+        PresenceTracker tracker = presence;
+        Collection<ChatSession> recipients = tracker != null && (type == MessageType.JOIN || type == MessageType.LEAVE)
+                ? tracker.noticeRecipients()
+                : sessions.values();
+        Histogram fanoutTime = ServerMetrics.getInstance().broadcastFanout();
+        FanoutExecutor executor = fanout;
+        if (executor == null || executor.inline(recipients.size())) {
+            long start = System.nanoTime();
+            recipients.forEach(session -> session.send(frame));
+            fanoutTime.record(System.nanoTime() - start);
+        } else {
+            executor.submit(recipients.toArray(new ChatSession[0]), frame, fanoutTime);
+        }
+        MessageLog log = messageLog;
+        if (chat && log != null) {
+            log.append(frame);
+        }
+        SearchIndex index = searchIndex;
+        if (chat && index != null) {
+            index.add(frame);
+        }
     }
 
     /**
-     * Sends a PING to all connected clients to check liveness.
+     * Returns the broadcast messages sent after the message {@code afterId}, or else after
+     * {@code since}, oldest first and capped to the newest {@code limit} (and the configured
+     * catch-up limit). The in-memory ring answers when it reaches back far enough; otherwise
+     * older messages come from the message log, if there is one. Both compare {@code since}
+     * with the time the server received each message.
+     */
+    public List<Frame> missedSince(UUID afterId, Instant since, int limit) {
+        limit = Math.min(limit, catchUpLimit);
+        List<Frame> recent = history.snapshot();
+        int from = -1;
+        if (afterId != null) {
+            for (int i = recent.size() - 1; i >= 0; i--) {
+                if (afterId.equals(recent.get(i).getMessage().getId())) {
+                    from = i + 1;
+                    break;
+                }
+            }
+        }
+        boolean ringCoversSince = since != null && !recent.isEmpty()
+                && !isAfter(recent.get(0).getMessage(), since);
+        MessageLog log = messageLog;
+        List<Frame> missed = new ArrayList<>();
+        if (from < 0 && !ringCoversSince && log != null) {
+            try {
+                Set<UUID> logged = new HashSet<>();
+                for (Message m : log.replayLatest(afterId, since, limit)) {
+                    missed.add(Frame.of(m));
+                    logged.add(m.getId());
+                }
+                // The log lags the ring slightly; take whatever it has not written yet from the ring
+                for (Frame frame : recent) {
+                    if (!logged.contains(frame.getMessage().getId()) && isAfter(frame.getMessage(), since)) {
+                        missed.add(frame);
+                    }
+                }
+                return tail(missed, limit);
+            } catch (IOException e) {
+                System.err.println("Could not read message log for catch-up: " + e.getMessage());
+            }
+        }
+        for (int i = Math.max(from, 0); i < recent.size(); i++) {
+            Frame frame = recent.get(i);
+            if (from >= 0 || isAfter(frame.getMessage(), since)) {
+                missed.add(frame);
+            }
+        }
+        return tail(missed, limit);
+    }
+
+    private static boolean isAfter(Message message, Instant since) {
+        return since == null || (message.getTimestamp() != null && message.getTimestamp().isAfter(since));
+    }
+
+    private static List<Frame> tail(List<Frame> frames, int limit) {
+        return frames.size() <= limit ? frames : frames.subList(frames.size() - limit, frames.size());
+    }
+
+    /**
+     * Sends a PING to all connected clients at once. Routine heartbeats go through the
+     * {@link HeartbeatWheel} instead, which spreads them over the interval.
+     * The same PING frame is shared by every session and every call.
      */
     public void pingAll() {
-        sessions.forEach((username, session) ->
-                session.sendMessage(new Message("SERVER", username, MessageType.PING, ""))
-        );
+        broadcastLocal(HeartbeatWheel.PING);
+    }
+
+    /**
+     * Sends the frame to {@code recipients} of this server, as a broadcast would.
+     */
+    void fanOut(ChatSession[] recipients, Frame frame) {
+        Histogram fanoutTime = ServerMetrics.getInstance().broadcastFanout();
+        FanoutExecutor executor = fanout;
+        if (executor == null || executor.inline(recipients.length)) {
+            long start = System.nanoTime();
+            for (ChatSession session : recipients) {
+                session.send(frame);
+            }
+            fanoutTime.record(System.nanoTime() - start);
+        } else {
+            executor.submit(recipients, frame, fanoutTime);
+        }
     }
 
     public boolean sendTo(String username, Message message) {
-        ClientSession session = sessions.get(username);
+        return sendTo(username, Frame.of(message));
+    }
+
+    /**
+     * Sends a pre-encoded frame to one user, here or on another node of the cluster; reuse
+     * the frame when addressing several users.
+     * @return false if the user is not online anywhere
+     */
+    public boolean sendTo(String username, Frame frame) {
+        if (deliverLocal(username, frame)) {
+            return true;
+        }
+        ClusterNode node = cluster;
+        return node != null && node.relayTo(username, frame);
+    }
+
+    boolean deliverLocal(String username, Frame frame) {
+        ChatSession session = sessions.get(username);
         if (session != null) {
-            session.sendMessage(message);
+            FanoutExecutor executor = fanout;
+            if (executor == null) {
+                session.send(frame);
+            } else {
+                // Queued behind any fan-out still in progress, so it cannot overtake one
+                executor.submit(session, frame);
+            }
             return true;
         }
         return false;
     }
-}
\ No newline at end of file
+
+    /**
+     * Adds the session to a room, creating the room if needed, and tells its members.
+     * @return false if the session was already a member
+     */
+    public boolean joinRoom(String room, ChatSession session) {
+        boolean[] joined = new boolean[1];
+        rooms.compute(room, (name, current) -> {
+            if (current == null) {
+                joined[0] = true;
+                return new Room(name, new ChatSession[] {session});
+            }
+            if (current.contains(session)) {
+                return current;
+            }
+            joined[0] = true;
+            return current.with(session);
+        });
+        if (joined[0]) {
+            String username = session.getUsername();
+            Frame notice = Frame.of(new Message(username, room, MessageType.JOIN, username + " has joined " + room));
+            if (roomNotices(room)) {
+                sendToRoom(room, notice);
+            } else {
+                // Too large to tell everyone; the joiner still gets its confirmation
+                session.send(notice);
+            }
+        }
+        return joined[0];
+    }
+
+    /**
+     * Removes the session from a room, dropping the room once it is empty, and tells
+     * the remaining members.
+     * @return false if the session was not a member
+     */
+    public boolean leaveRoom(String room, ChatSession session) {
+        boolean[] left = new boolean[1];
+        rooms.computeIfPresent(room, (name, current) -> {
+            Room updated = current.without(session);
+            left[0] = updated != current;
+            return updated;
+        });
+        if (left[0]) {
+            String username = session.getUsername();
+            Frame notice = Frame.of(new Message(username, room, MessageType.LEAVE, username + " has left " + room));
+            // The leaver gets the notice too, as confirmation
+            session.send(notice);
+            if (roomNotices(room)) {
+                sendToRoom(room, notice);
+            }
+        }
+        return left[0];
+    }
+
+    /**
+     * Whether the room's members are told when someone joins or leaves it. Decided by this
+     * server's members alone; when it says no, the notice is not relayed either.
+     */
+    private boolean roomNotices(String room) {
+        PresenceTracker tracker = presence;
+        Room current = rooms.get(room);
+        return tracker == null || current == null || tracker.roomNotices(current.members().length);
+    }
+
+    public boolean isMember(String room, ChatSession session) {
+        Room current = rooms.get(room);
+        return current != null && current.contains(session);
+    }
+
+    /**
+     * Sends a frame to the members of a room only, on every node of the cluster.
+     * @return false if the room has no members on this server
+     */
+    public boolean sendToRoom(String room, Frame frame) {
+        boolean here = sendToRoomLocal(room, frame);
+        ClusterNode node = cluster;
+        if (node != null) {
+            node.relay(frame);
+        }
+        return here;
+    }
+
+    boolean sendToRoomLocal(String room, Frame frame) {
+        SearchIndex index = searchIndex;
+        if (index != null && frame.getMessage().getType() == MessageType.TEXT) {
+            // Also when nobody here is in the room yet, for members who join later
+            index.add(frame);
+        }
+        Room current = rooms.get(room);
+        if (current == null) {
+            return false;
+        }
+        Histogram fanoutTime = ServerMetrics.getInstance().roomFanout();
+        FanoutExecutor executor = fanout;
+        if (executor == null || executor.inline(current.members().length)) {
+            long start = System.nanoTime();
+            current.send(frame);
+            fanoutTime.record(System.nanoTime() - start);
+        } else {
+            executor.submit(current.members(), frame, fanoutTime);
+        }
+        return true;
+    }
+
+    public int roomCount() {
+        return rooms.size();
+    }
+
+    public int sessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Returns the total, or with {@code max} the largest, number of frames waiting in
+     * session outbound queues. Walks every session, so only call it when reading metrics.
+     */
+    long outboundBacklog(boolean max) {
+        long result = 0;
+        for (ChatSession session : sessions.values()) {
+            int depth = session.outboundDepth();
+            result = max ? Math.max(result, depth) : result + depth;
+        }
+        return result;
+    }
+}
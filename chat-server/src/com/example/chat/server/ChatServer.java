@@ -1,58 +1,150 @@
 package com.example.chat.server;
 
+import com.example.chat.common.BinaryCodec;
 import com.example.chat.common.Config;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.function.LongSupplier;
 
 /**
  * Entry point for the chat server. Loads configuration, starts heartbeats, and handles shutdown.
+ * Connections are served either by the blocking thread-per-client engine or by the NIO selector engine.
  */
 public class ChatServer {
+    public static final String ENGINE_BLOCKING = "blocking";
+    public static final String ENGINE_NIO = "nio";
+
     private final int port;
+    private final String engine;
+    private final Config cfg;
     private final ExecutorService pool;
+    private final ExecutorService writers;
     private final ScheduledExecutorService scheduler;
+    private final ChatManager manager = new ChatManager();
     private ServerSocket serverSocket;
+    private NioChatEngine nioEngine;
+    private MessageLog messageLog;
+    private SearchIndex searchIndex;
+    private MetricsEndpoint metricsEndpoint;
+    private ClusterNode cluster;
+    private FanoutExecutor fanout;
+    // Gauges this server registered, removed again on shutdown
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
 
     public ChatServer(int port, int poolSize) {
+        this(port, poolSize, ENGINE_BLOCKING);
+    }
+
+    public ChatServer(int port, int poolSize, String engine) {
+        this(port, poolSize, engine, SessionExecutors.PLATFORM);
+    }
+
+    /**
+     * @param executorMode "platform" for a fixed pool of poolSize threads, or "virtual"
+     *                     to run each blocking session on its own virtual thread
+     */
+    public ChatServer(int port, int poolSize, String engine, String executorMode) {
+        this(port, poolSize, engine, executorMode, new Config("/chat-server.properties"));
+    }
+
+    /**
+     * @param cfg the remaining settings, normally loaded from {@code chat-server.properties}
+     */
+    public ChatServer(int port, int poolSize, String engine, String executorMode, Config cfg) {
         this.port = port;
-        this.pool = Executors.newFixedThreadPool(poolSize);
-        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+        this.engine = engine;
+        this.cfg = cfg;
+        this.pool = ENGINE_NIO.equals(engine) ? null : SessionExecutors.create(executorMode, poolSize);
+        this.writers = ENGINE_NIO.equals(engine) ? null : SessionExecutors.createWriters(executorMode, cfg.getInt("server.writerThreads", poolSize));
+        ScheduledThreadPoolExecutor timers = new ScheduledThreadPoolExecutor(1);
+        // Handshake deadlines are usually cancelled; do not let them linger in the queue
+        timers.setRemoveOnCancelPolicy(true);
+        this.scheduler = timers;
+    }
+
+    /**
+     * The sessions and rooms of this server. Each server has its own, so several can run in one JVM.
+     */
+    public ChatManager getManager() {
+        return manager;
     }
 
     public void start() {
         try {
+            SessionSettings settings = SessionSettings.fromConfig(cfg);
+            // Built first, so a bad heartbeat setting stops the server before anything is opened
+            HeartbeatWheel wheel = HeartbeatWheel.fromConfig(cfg);
+            manager.configureHistory(
+                    cfg.getInt("history.capacity", 1024), cfg.getInt("history.catchUpLimit", 256));
+            if (cfg.getBoolean("log.enabled", false)) {
+                messageLog = MessageLog.open(MessageLog.Settings.fromConfig(cfg));
+                manager.setMessageLog(messageLog);
+            }
+            if (cfg.getBoolean("search.enabled", false)) {
+                searchIndex = SearchIndex.open(SearchIndex.Settings.fromConfig(cfg));
+                manager.setSearchIndex(searchIndex);
+            }
+            int backlog = cfg.getInt("server.acceptBacklog", 1024);
+            HandshakeGate gate = HandshakeGate.fromConfig(cfg, scheduler);
+            fanout = FanoutExecutor.fromConfig(cfg);
+            if (fanout != null) {
+                fanout.start();
+                manager.setFanout(fanout);
+            }
+            FloodControl flood = FloodControl.fromConfig(cfg, scheduler);
+            manager.setFloodControl(flood);
+            ResumeWindow resume = ResumeWindow.fromConfig(cfg, scheduler);
+            manager.setResumeWindow(resume);
+            PresenceTracker presence = PresenceTracker.fromConfig(cfg, manager);
+            if (presence != null) {
+                manager.setPresence(presence);
+                presence.start(scheduler);
+            }
+            startCluster(cfg);
+            startMetrics(cfg, gate, flood, resume, presence);
+            if (ENGINE_NIO.equals(engine)) {
+                nioEngine = new NioChatEngine(
+                        port, cfg.getInt("server.nio.eventLoops", 2), backlog, settings, manager, gate);
+                startHeartbeat(wheel);
+                nioEngine.run();
+                return;
+            }
+
             // Initialize server socket
-            serverSocket = new ServerSocket(port);
+            serverSocket = new ServerSocket(port, backlog);
             System.out.println("Chat server started on port " + port);
+            startHeartbeat(wheel);
 
-            // Load heartbeat interval from config
-            Config cfg = new Config("/chat-server.properties");
-            int interval = cfg.getInt("heartbeat.intervalSeconds", 30);
-
-            // Schedule periodic PINGs to all clients
-            scheduler.scheduleAtFixedRate(
-                    () -> ChatManager.getInstance().pingAll(),
-                    interval, interval, TimeUnit.SECONDS
-            );
-
-            // Register shutdown hook for graceful termination
-            Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
-
-            // Main accept loop
+            // Main accept loop: never reads from a client, the JOIN is read by the session itself
             while (!serverSocket.isClosed()) {
                 Socket clientSocket = serverSocket.accept();
+                if (!gate.tryEnter()) {
+                    clientSocket.close();
+                    continue;
+                }
                 System.out.println("New connection from " + clientSocket.getRemoteSocketAddress());
+                ClientSession session;
                 try {
-                    ClientSession session = new ClientSession(clientSocket);
-                    pool.execute(session);
+                    session = new ClientSession(clientSocket, settings, manager, writers);
                 } catch (IOException e) {
                     System.err.println("Failed to initialize client session: " + e.getMessage());
+                    gate.abandon();
                     clientSocket.close();
+                    continue;
+                }
+                // The deadline starts when a pool thread takes the session, not while it queues
+                session.holdHandshake(gate);
+                try {
+                    pool.execute(session);
+                } catch (RejectedExecutionException e) {
+                    session.close();
                 }
             }
         } catch (IOException e) {
@@ -61,14 +153,129 @@ public class ChatServer {
         }
     }
 
+    private void startCluster(Config cfg) throws IOException {
+        cluster = ClusterNode.fromConfig(cfg, port, manager);
+        if (cluster != null) {
+            manager.setCluster(cluster);
+            cluster.start();
+        }
+    }
+
+    private void startMetrics(Config cfg, HandshakeGate gate, FloodControl flood, ResumeWindow resume,
+                              PresenceTracker presence) throws IOException {
+        ServerMetrics metrics = ServerMetrics.getInstance();
+        gauge("sessions.active", manager::sessionCount);
+        gauge("rooms.active", manager::roomCount);
+        gauge("outbound.backlog.total", () -> manager.outboundBacklog(false));
+        gauge("outbound.backlog.max", () -> manager.outboundBacklog(true));
+        gauge("handshake.rejected", gate::rejected);
+        gauge("handshake.timedOut", gate::timedOut);
+        // What binary-deflate costs against what it saves
+        gauge("compression.bytesIn", BinaryCodec::compressBytesIn);
+        gauge("compression.bytesSaved", () -> BinaryCodec.compressBytesIn() - BinaryCodec.compressBytesOut());
+        gauge("compression.micros", () -> BinaryCodec.compressNanos() / 1000);
+        if (messageLog != null) {
+            gauge("log.dropped", messageLog::dropped);
+        }
+        if (searchIndex != null) {
+            gauge("search.indexed", searchIndex::indexed);
+            gauge("search.dropped", searchIndex::dropped);
+            gauge("search.queries", searchIndex::queries);
+            gauge("search.segments", searchIndex::segmentCount);
+            gauge("search.memoryBytes", searchIndex::memoryBytes);
+        }
+        if (flood != null) {
+            gauge("flood.throttled", flood::throttled);
+            gauge("flood.dropped", flood::dropped);
+            gauge("flood.disconnected", flood::disconnected);
+            gauge("flood.addresses", flood::addressCount);
+        }
+        if (resume != null) {
+            gauge("resume.parked", resume::parked);
+            gauge("resume.resumed", resume::resumed);
+            gauge("resume.expired", resume::expired);
+        }
+        if (presence != null) {
+            gauge("presence.version", presence::version);
+            gauge("presence.roster", presence::rosterSize);
+            gauge("presence.batchedSessions", presence::batchedSessions);
+            gauge("presence.deltas", presence::deltas);
+        }
+        if (fanout != null) {
+            gauge("fanout.parallel", fanout::parallelFanouts);
+            gauge("fanout.queued", fanout::queued);
+        }
+        if (cluster != null) {
+            gauge("cluster.peers.connected", cluster::connectedPeers);
+            gauge("cluster.users.remote", cluster::remoteUserCount);
+            gauge("cluster.relayed", cluster::relayed);
+            gauge("cluster.received", cluster::received);
+            gauge("cluster.duplicates", cluster::duplicates);
+            gauge("cluster.dropped", cluster::dropped);
+        }
+        MetricsMBean.register(metrics);
+        int port = cfg.getInt("metrics.port", 0);
+        if (port > 0) {
+            metricsEndpoint = new MetricsEndpoint(port, metrics);
+            metricsEndpoint.start();
+        }
+    }
+
+    /**
+     * Registers a gauge with the shared registry and remembers it, so shutdown() can take it
+     * out again rather than leave it holding on to this server.
+     */
+    private void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+        ServerMetrics.getInstance().gauge(name, value);
+    }
+
+    private void startHeartbeat(HeartbeatWheel wheel) {
+        // Pings are spread over heartbeat.intervalSeconds by a timer wheel on the scheduler
+        gauge("heartbeat.pings", wheel::pings);
+        gauge("heartbeat.evictions", wheel::evictions);
+        manager.setHeartbeat(wheel);
+        wheel.start(scheduler);
+
+        // Register shutdown hook for graceful termination
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
+    }
+
     public void shutdown() {
         System.out.println("Shutting down server...");
         try {
             if (serverSocket != null && !serverSocket.isClosed()) {
                 serverSocket.close();
             }
-            pool.shutdownNow();
+            if (nioEngine != null) {
+                nioEngine.shutdown();
+            }
+            if (pool != null) {
+                pool.shutdownNow();
+                writers.shutdownNow();
+            }
             scheduler.shutdownNow();
+            if (fanout != null) {
+                manager.setFanout(null);
+                fanout.shutdown();
+            }
+            if (cluster != null) {
+                manager.setCluster(null);
+                cluster.shutdown();
+            }
+            if (metricsEndpoint != null) {
+                metricsEndpoint.shutdown();
+            }
+            gauges.forEach(ServerMetrics.getInstance()::removeGauge);
+            gauges.clear();
+            if (messageLog != null) {
+                manager.setMessageLog(null);
+                messageLog.close();
+            }
+            if (searchIndex != null) {
+                manager.setSearchIndex(null);
+                searchIndex.close();
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -80,8 +287,10 @@ public class ChatServer {
         int poolSize = cfg.getInt(
                 "server.poolSize", Runtime.getRuntime().availableProcessors() * 2
         );
+        String engine = cfg.get("server.engine", ENGINE_BLOCKING);
+        String executorMode = cfg.get("server.executor", SessionExecutors.PLATFORM);
 
-        ChatServer server = new ChatServer(port, poolSize);
+        ChatServer server = new ChatServer(port, poolSize, engine, executorMode, cfg);
         server.start();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,571 @@
+package com.example.chat.server;
+
+import com.example.chat.common.Frame;
+import com.example.chat.common.Handshake;
+import com.example.chat.common.InstantFormat;
+import com.example.chat.common.JsonCodec;
+import com.example.chat.common.Message;
+import com.example.chat.common.MessageIds;
+import com.example.chat.common.MessageType;
+import com.example.chat.common.WireCodec;
+
+import java.net.InetAddress;
+import java.net.ProtocolException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A connected chat user, independent of the I/O engine that serves the connection.
+ * Subclasses provide the transport; message routing is shared here.
+ */
+public abstract class ChatSession {
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    protected final SessionSettings settings;
+    protected final ChatManager manager;
+    protected String username;
+    // Codec for everything after the JOIN; switched once, during the handshake
+    protected volatile WireCodec codec = JsonCodec.INSTANCE;
+    // Rooms this session has joined, so they can be left when the connection goes away
+    private final Set<String> rooms = ConcurrentHashMap.newKeySet();
+    // Last inbound traffic, in System.nanoTime(); read by the heartbeat wheel
+    private volatile long lastSeen = System.nanoTime();
+    // Heartbeat wheel bucket, assigned when the session joins; read when it closes on another thread
+    volatile int heartbeatSlot = -1;
+    // Set from accept until the JOIN completes or the connection closes
+    private volatile HandshakeGate.Pending handshake;
+    // Non-null while missed history is being queued; live frames wait here meanwhile
+    private volatile CatchUp catchUp;
+    // Flood control, from the JOIN on; null if the server has none
+    private volatile FloodControl.Limiter limiter;
+    // Unacknowledged frames, from the JOIN on, if the client asked for a resumable session
+    private volatile ResumeWindow.Buffer resumable;
+    // Sent a roster and batched changes rather than a JOIN and LEAVE per user; set by the JOIN
+    private volatile boolean batchedPresence;
+    // Answer to the client's PINGs, built on the first one; only touched by the reading thread
+    private Frame pong;
+
+    protected ChatSession(SessionSettings settings, ChatManager manager) {
+        this.settings = settings;
+        this.manager = manager;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * Whether the client negotiated batched presence in its JOIN.
+     */
+    boolean batchedPresence() {
+        return batchedPresence;
+    }
+
+    /**
+     * Queues an already-encoded frame for the client.
+     * The same frame may be handed to many sessions concurrently.
+     */
+    public final void send(Frame frame) {
+        ServerMetrics.getInstance().messageOut(frame.getMessage().getType());
+        accept(frame);
+    }
+
+    private void accept(Frame frame) {
+        CatchUp pending = catchUp;
+        if (pending != null && pending.holdBack(frame)) {
+            return;
+        }
+        queue(frame);
+    }
+
+    /**
+     * Queues the frame, keeping it until it is acknowledged if the session is resumable.
+     */
+    private void queue(Frame frame) {
+        ResumeWindow.Buffer buffer = resumable;
+        if (buffer == null) {
+            enqueue(frame);
+            return;
+        }
+        ChatSession successor = buffer.deliver(frame);
+        if (successor != null) {
+            // Taken over by a new connection
+            successor.accept(frame);
+        }
+    }
+
+    /**
+     * Queues or writes an already-encoded frame to the client.
+     */
+    protected abstract void enqueue(Frame frame);
+
+    /**
+     * Returns the number of frames waiting to be written to the client.
+     */
+    abstract int outboundDepth();
+
+    /**
+     * Encodes and sends a message meant for this client only.
+     */
+    public void sendMessage(Message message) {
+        send(Frame.of(message));
+    }
+
+    /**
+     * Closes the underlying connection and unregisters the user.
+     */
+    public abstract void close();
+
+    /**
+     * Puts the connection under the gate's JOIN deadline; the permit it holds is returned
+     * when the JOIN completes or the connection closes.
+     */
+    void expectHandshake(HandshakeGate gate) {
+        handshake = gate.start(this);
+    }
+
+    /**
+     * Like {@link #expectHandshake}, but the deadline only starts with
+     * {@link #startHandshakeClock()}, for a connection that may first wait for a thread.
+     */
+    void holdHandshake(HandshakeGate gate) {
+        handshake = gate.hold(this);
+    }
+
+    void startHandshakeClock() {
+        HandshakeGate.Pending pending = handshake;
+        if (pending != null) {
+            pending.arm();
+        }
+    }
+
+    private void finishHandshake() {
+        HandshakeGate.Pending pending = handshake;
+        if (pending != null) {
+            handshake = null;
+            pending.finish();
+        }
+    }
+
+    /**
+     * Completes the JOIN handshake. If the client offered options, the WELCOME reply is
+     * queued ahead of everything else in JSON, and then the session switches to the
+     * negotiated codec for both directions. Finally the user is registered, or the session
+     * the client asked to resume is taken over, and whatever the client missed is queued.
+     */
+    protected void join(Message joinMsg) throws ProtocolException {
+        ServerMetrics.getInstance().messageIn(joinMsg.getType());
+        if (joinMsg.getType() != MessageType.JOIN) {
+            throw new ProtocolException("First message must be JOIN");
+        }
+        if (joinMsg.getFrom() == null || joinMsg.getFrom().isBlank()) {
+            throw new ProtocolException("JOIN without a username");
+        }
+        if (joinMsg.getFrom().indexOf('\n') >= 0 || joinMsg.getFrom().indexOf('\r') >= 0) {
+            // Would break the one-user-per-line PRESENCE bodies
+            throw new ProtocolException("Line break in username");
+        }
+        this.username = joinMsg.getFrom();
+
+        Map<String, String> offered = Handshake.parse(joinMsg.getBody());
+        String since = offered.get(Handshake.SINCE);
+        ResumeWindow window = manager.resumeWindow();
+        String token = window == null ? null : offered.get(Handshake.RESUME);
+        // Hold live traffic from the moment this session can receive it, queue what was
+        // missed, then release the held frames that were not part of the catch-up
+        CatchUp pending = since != null || token != null ? new CatchUp() : null;
+        catchUp = pending;
+        batchedPresence = manager.presence() != null && "batched".equals(offered.get(Handshake.PRESENCE));
+        try {
+            List<Frame> missed = token == null ? null : resume(window, token, offered.get(Handshake.ACK));
+            if (!offered.isEmpty()) {
+                Map<String, String> accepted = new LinkedHashMap<>();
+                WireCodec chosen = settings.chooseCodec(offered.get(Handshake.CODEC));
+                accepted.put(Handshake.CODEC, chosen.name());
+                if (token != null) {
+                    accepted.put(Handshake.RESUME, resumable.token());
+                    accepted.put(Handshake.RESUMED, String.valueOf(missed != null));
+                }
+                if (batchedPresence) {
+                    accepted.put(Handshake.PRESENCE, "batched");
+                }
+                Message welcome = new Message("SERVER", username, MessageType.WELCOME, Handshake.format(accepted));
+                // Ahead of anything held back
+                ServerMetrics.getInstance().messageOut(MessageType.WELCOME);
+                enqueue(Frame.pinned(welcome, JsonCodec.INSTANCE));
+                this.codec = chosen;
+            }
+            finishHandshake();
+            limitRate();
+            manager.watch(this);
+            if (missed == null) {
+                manager.addSession(username, this);
+                missed = since == null ? List.of() : missedSince(since);
+            }
+            if (pending != null) {
+                missed.forEach(this::queue);
+                pending.release(missed);
+            }
+            // A close racing with the JOIN may have unregistered before the session was resumable
+            ResumeWindow.Buffer buffer = resumable;
+            if (buffer != null && closed.get()) {
+                buffer.park(this::expire);
+            }
+        } finally {
+            catchUp = null;
+        }
+    }
+
+    /**
+     * Takes over the session the client had under {@code token}, if it is still within the
+     * resume window. Either way this session becomes resumable.
+     * @return the frames to resend, or null if this is a new session
+     */
+    private List<Frame> resume(ResumeWindow window, String token, String ack) {
+        ChatSession previous = window.find(token, username);
+        List<Frame> missed = previous == null ? null : previous.resumable.handOver(this, parseId(ack));
+        if (missed == null) {
+            resumable = window.open(this);
+            if (previous != null) {
+                // Resending is no longer possible; end it now rather than after the window
+                previous.expire();
+            }
+            return null;
+        }
+        resumable = window.adopt(previous.resumable, this);
+        // What is resent was meant for the previous connection's presence mode
+        batchedPresence = previous.batchedPresence;
+        rooms.addAll(previous.rooms);
+        manager.replaceSession(username, previous, this, rooms);
+        // Drop the old connection, in case the server had not noticed it was gone
+        previous.close();
+        return missed;
+    }
+
+    private static UUID parseId(String id) {
+        try {
+            return id == null ? null : UUID.fromString(id);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private void limitRate() {
+        FloodControl flood = manager.floodControl();
+        if (flood == null) {
+            return;
+        }
+        FloodControl.Limiter limits = flood.limiter(remoteAddress());
+        limiter = limits;
+        // A close racing with the JOIN may already have run unregister()
+        if (closed.get()) {
+            limits.release();
+        }
+    }
+
+    /**
+     * Runs {@code task} once a flood control pause of {@code nanos} is over.
+     */
+    protected void afterPause(long nanos, Runnable task) {
+        FloodControl.Limiter limits = limiter;
+        if (limits != null) {
+            limits.resumeAfter(nanos, task);
+        } else {
+            task.run();
+        }
+    }
+
+    /**
+     * The client's address, which flood control shares a budget across; null if unknown.
+     */
+    protected InetAddress remoteAddress() {
+        return null;
+    }
+
+    private List<Frame> missedSince(String cursor) {
+        // Leave room in the outbound queue for live traffic behind the catch-up
+        int limit = Math.max(1, settings.outbound().capacity() / 2);
+        try {
+            UUID id = UUID.fromString(cursor);
+            // A time-ordered id also says when it was sent, should the message itself be gone
+            return manager.missedSince(id, MessageIds.timeOf(id), limit);
+        } catch (IllegalArgumentException notAnId) {
+            try {
+                return manager.missedSince(null, InstantFormat.parse(cursor), limit);
+            } catch (DateTimeParseException e) {
+                notice("Ignoring unrecognised catch-up cursor: " + cursor);
+                return List.of();
+            }
+        }
+    }
+
+    /**
+     * Handles a message received from the client after the JOIN handshake.
+     * {@code to} selects the route: "ALL" (or nothing) for everyone, "#name" for a room
+     * and any other value for a single user. JOIN and LEAVE addressed to a room change
+     * membership; a plain LEAVE is left for the disconnect that follows it.
+     * <p>
+     * Messages that are fanned out pass flood control first. Over the limit, the caller is
+     * asked to stop reading for a while, or the message is dropped, or the session closed.
+     * @return nanoseconds to wait before reading the next message, usually 0
+     */
+    protected long handleMessage(Message msg) {
+        lastSeen = System.nanoTime();
+        ServerMetrics.getInstance().messageIn(msg.getType());
+        long pause = 0;
+        FloodControl.Limiter limits = limiter;
+        if (limits != null && FloodControl.isLimited(msg.getType())) {
+            pause = limits.admit();
+            if (pause == FloodControl.DISCONNECT) {
+                System.err.println("Disconnecting flooding client " + username);
+                leaving();
+                close();
+                return 0;
+            }
+            if (pause == FloodControl.DROP) {
+                if (limits.firstDrop()) {
+                    notice("Slow down: your messages are being dropped");
+                }
+                return 0;
+            }
+        }
+        switch (msg.getType()) {
+            case TEXT -> route(msg);
+            case JOIN -> {
+                if (Room.isRoom(msg.getTo())) {
+                    joinRoom(msg.getTo());
+                }
+            }
+            case LEAVE -> {
+                if (!Room.isRoom(msg.getTo())) {
+                    leaving();
+                } else if (manager.leaveRoom(msg.getTo(), this)) {
+                    rooms.remove(msg.getTo());
+                }
+            }
+            case PING -> send(pong());
+            case SEARCH -> search(msg.getBody());
+            case ACK -> {
+                ResumeWindow.Buffer buffer = resumable;
+                UUID id = parseId(msg.getBody());
+                if (buffer != null && id != null) {
+                    buffer.ack(id);
+                }
+            }
+            default -> {
+                // Other message types can be handled here
+            }
+        }
+        return pause;
+    }
+
+    private void route(Message msg) {
+        // History, catch-up, the log and search go by when the server received the message,
+        // never by the sender's clock; the id is ours too, as cluster nodes drop repeated ids
+        Instant received = Instant.now();
+        msg.setTimestamp(received);
+        msg.setId(MessageIds.next(received));
+        String to = msg.getTo();
+        if (to == null || to.equals("ALL")) {
+            manager.broadcast(msg);
+        } else if (Room.isRoom(to)) {
+            if (!manager.isMember(to, this)) {
+                notice("You are not in " + to);
+                return;
+            }
+            manager.sendToRoom(to, Frame.of(msg));
+        } else {
+            Frame frame = Frame.of(msg);
+            if (!manager.sendTo(to, frame)) {
+                notice(to + " is not online");
+                return;
+            }
+            if (!to.equals(username)) {
+                // Echo to the sender, as a broadcast would, behind any fan-out it sent before
+                manager.deliverLocal(username, frame);
+            }
+        }
+    }
+
+    /**
+     * Answers a SEARCH: the matching messages to everyone or to this session's rooms, newest
+     * first, each as a SEARCH copy of the original; then a SEARCH to this user with
+     * {@code results=<count>}, or {@code error=<reason>} alone.
+     */
+    private void search(String text) {
+        SearchIndex index = manager.searchIndex();
+        if (index == null) {
+            searchDone("error=Search is not enabled");
+            return;
+        }
+        SearchIndex.Query query;
+        try {
+            query = index.parse(text);
+        } catch (IllegalArgumentException e) {
+            searchDone("error=" + e.getMessage());
+            return;
+        }
+        boolean queued = index.search(query, Set.copyOf(rooms), hits -> {
+            for (Message hit : hits) {
+                Message result = new Message(hit.getFrom(), hit.getTo(), MessageType.SEARCH, hit.getBody());
+                result.setId(hit.getId());
+                result.setTimestamp(hit.getTimestamp());
+                sendMessage(result);
+            }
+            searchDone("results=" + hits.size());
+        });
+        if (!queued) {
+            searchDone("error=Search is busy, try again later");
+        }
+    }
+
+    private void searchDone(String body) {
+        sendMessage(new Message("SERVER", username, MessageType.SEARCH, body));
+    }
+
+    private void joinRoom(String room) {
+        if (!Room.isValidName(room)) {
+            notice("Invalid room name: " + room);
+            return;
+        }
+        // Recorded first so a concurrent close cannot miss it
+        rooms.add(room);
+        manager.joinRoom(room, this);
+        if (closed.get()) {
+            manager.leaveRoom(room, this);
+        }
+    }
+
+    /**
+     * The PONG for this client, one frame reused for every PING, so answering a heartbeat
+     * allocates nothing once each codec has encoded it.
+     */
+    private Frame pong() {
+        Frame frame = pong;
+        if (frame == null) {
+            frame = Frame.of(new Message("SERVER", username, MessageType.PONG, "PONG"));
+            pong = frame;
+        }
+        return frame;
+    }
+
+    /**
+     * Tells this client why a request was ignored.
+     */
+    private void notice(String text) {
+        sendMessage(new Message("SERVER", username, MessageType.TEXT, text));
+    }
+
+    /**
+     * Live frames that arrive while a joining session is being caught up.
+     */
+    private final class CatchUp {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final List<Frame> held = new ArrayList<>();
+        private boolean released;
+
+        boolean holdBack(Frame frame) {
+            lock.lock();
+            try {
+                if (released) {
+                    return false;
+                }
+                held.add(frame);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Queues the held frames, skipping those already sent as part of {@code replayed}.
+         * Done under the lock so later live frames cannot overtake them.
+         */
+        void release(List<Frame> replayed) {
+            Set<Frame> sent = Collections.newSetFromMap(new IdentityHashMap<>());
+            sent.addAll(replayed);
+            lock.lock();
+            try {
+                for (Frame frame : held) {
+                    if (!sent.contains(frame)) {
+                        queue(frame);
+                    }
+                }
+                held.clear();
+                released = true;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    long lastSeen() {
+        return lastSeen;
+    }
+
+    /**
+     * Marks the session closed, returning true only for the first caller.
+     */
+    protected boolean markClosed() {
+        return closed.compareAndSet(false, true);
+    }
+
+    /**
+     * The client will not resume this session, so it ends with its connection.
+     */
+    private void leaving() {
+        ResumeWindow.Buffer buffer = resumable;
+        if (buffer != null) {
+            buffer.leaving();
+        }
+    }
+
+    /**
+     * Removes the user from the chat once the connection is gone, or parks a resumable
+     * session until it is resumed or its window closes.
+     */
+    protected void unregister() {
+        finishHandshake();
+        manager.unwatch(this);
+        FloodControl.Limiter limits = limiter;
+        if (limits != null) {
+            limiter = null;
+            limits.release();
+        }
+        ResumeWindow.Buffer buffer = resumable;
+        if (buffer != null) {
+            buffer.park(this::expire);
+            return;
+        }
+        removeUser();
+    }
+
+    /**
+     * Removes a parked session whose window has closed.
+     */
+    private void expire() {
+        if (resumable.end()) {
+            removeUser();
+        }
+    }
+
+    private void removeUser() {
+        if (username != null) {
+            for (String room : rooms) {
+                manager.leaveRoom(room, this);
+            }
+            rooms.clear();
+            manager.removeSession(username, this);
+        }
+    }
+}
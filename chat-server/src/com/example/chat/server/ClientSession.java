@@ -1,58 +1,73 @@
 package com.example.chat.server;
 
-import com.example.chat.common.GsonFactory;
+import com.example.chat.common.CoalescingWriter;
+import com.example.chat.common.Frame;
 import com.example.chat.common.Message;
-import com.example.chat.common.MessageType;
-import com.google.gson.Gson;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ProtocolException;
 import java.net.Socket;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Handles communication with a single client.
  * Responds to PINGs automatically with PONG.
+ * Outgoing frames go through a bounded {@link OutboundQueue} drained by a writer task,
+ * so broadcasting threads never block on this client's socket.
  */
-public class ClientSession implements Runnable {
+public class ClientSession extends ChatSession implements Runnable {
     private final Socket socket;
-    private final BufferedReader reader;
-    private final BufferedWriter writer;
-    private final Gson gson = GsonFactory.getGson();
-    private String username;
+    private final InputStream in;
+    private final CoalescingWriter out;
+    private final OutboundQueue queue;
+    private final Executor writer;
+    // Set while a drain task owns the output stream
+    private final AtomicBoolean draining = new AtomicBoolean(false);
 
-    public ClientSession(Socket socket) throws IOException {
+    ClientSession(Socket socket, SessionSettings settings, ChatManager manager, Executor writer) throws IOException {
+        super(settings, manager);
         this.socket = socket;
-        this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        this.writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-
-        // Read initial JOIN message
-        String joinJson = reader.readLine();
-        Message joinMsg = gson.fromJson(joinJson, Message.class);
-        if (joinMsg.getType() == MessageType.JOIN) {
-            this.username = joinMsg.getFrom();
-            ChatManager.getInstance().addSession(username, this);
-        } else {
-            throw new IllegalStateException("First message must be JOIN");
-        }
+        this.queue = new OutboundQueue(settings.outbound());
+        this.writer = writer;
+        socket.setTcpNoDelay(settings.tcpNoDelay());
+        this.in = new BufferedInputStream(socket.getInputStream());
+        this.out = new CoalescingWriter(
+                socket.getOutputStream(), settings.maxBatchBytes(), settings.maxDelayMicros());
     }
 
+    /**
+     * Reads the JOIN, always sent as JSON, and then serves the client until it disconnects.
+     * The JOIN is read here rather than on the accepting thread, so a client that connects
+     * and sends nothing only holds up its own session. The JOIN deadline starts here too, not
+     * while the session waited for a pool thread.
+     */
     @Override
     public void run() {
+        startHandshakeClock();
         try {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                Message msg = gson.fromJson(line, Message.class);
-                switch (msg.getType()) {
-                    case TEXT -> ChatManager.getInstance().broadcast(msg);
-                    case PING -> sendMessage(new Message("SERVER", username, MessageType.PONG, "PONG"));
-                    default -> {
-                        // Other message types can be handled here
-                    }
+            Message joinMsg = codec.read(in);
+            if (joinMsg == null) {
+                return;
+            }
+            join(joinMsg);
+            Message msg;
+            while ((msg = codec.read(in)) != null) {
+                long pause = handleMessage(msg);
+                if (pause > 0) {
+                    // Flood control: leave the client's data in the socket for a while
+                    TimeUnit.NANOSECONDS.sleep(pause);
                 }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ProtocolException e) {
+            System.err.println("Rejecting client " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
         } catch (IOException e) {
             // Connection lost or error
         } finally {
@@ -61,23 +76,74 @@ public class ClientSession implements Runnable {
     }
 
     /**
-     * Sends a Message object to the client as JSON.
+     * Queues the frame and makes sure a writer is draining the queue. Never blocks on the socket.
+     */
+    @Override
+    protected void enqueue(Frame frame) {
+        if (!queue.offer(frame)) {
+            System.err.println("Disconnecting slow client " + username);
+            cleanup();
+            return;
+        }
+        if (draining.compareAndSet(false, true)) {
+            try {
+                writer.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // Server is shutting down
+                cleanup();
+            }
+        }
+    }
+
+    /**
+     * Writes queued frames until the queue is empty, then flushes once. Frames that piled up
+     * during a burst therefore leave together, while a lone frame on a quiet connection is
+     * flushed straight away. Only one drain runs at a time, so frames never interleave.
      */
-    public void sendMessage(Message message) {
+    private void drain() {
         try {
-            String json = gson.toJson(message);
-            writer.write(json);
-            writer.newLine();
-            writer.flush();
+            while (true) {
+                long start = System.nanoTime();
+                Frame frame;
+                while ((frame = queue.poll()) != null) {
+                    out.write(frame.encoded(codec));
+                }
+                out.flush();
+                ServerMetrics.getInstance().socketWrite().record(System.nanoTime() - start);
+                draining.set(false);
+                // A frame queued after the last poll may have seen draining still set
+                if (queue.depth() == 0 || !draining.compareAndSet(false, true)) {
+                    return;
+                }
+            }
         } catch (IOException e) {
             cleanup();
         }
     }
 
+    @Override
+    protected InetAddress remoteAddress() {
+        return socket.getInetAddress();
+    }
+
+    @Override
+    int outboundDepth() {
+        return queue.depth();
+    }
+
+    @Override
+    public void close() {
+        cleanup();
+    }
+
     private void cleanup() {
+        if (!markClosed()) {
+            return;
+        }
         try {
             socket.close();
         } catch (IOException ignored) {}
-        ChatManager.getInstance().removeSession(username);
+        queue.clear();
+        unregister();
     }
 }
\ No newline at end of file
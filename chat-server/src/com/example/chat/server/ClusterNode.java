@@ -0,0 +1,385 @@
+package com.example.chat.server;
+
+import com.example.chat.common.BinaryCodec;
+import com.example.chat.common.Config;
+import com.example.chat.common.Frame;
+import com.example.chat.common.Message;
+import com.example.chat.common.MessageType;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This server's membership in a cluster of chat servers, joined by TCP links on
+ * {@code cluster.port}.
+ * <p>
+ * The cluster port listens on {@code cluster.bindAddress}, or every interface if it is blank.
+ * With {@code cluster.secret} set, a connection is accepted only if its HELLO carries the same
+ * secret, and a peer is trusted only if its answer does; without it, only connections from the
+ * hosts in {@code cluster.peers} are accepted.
+ * <p>
+ * Every node opens a {@link PeerLink} to each address in {@code cluster.peers} and only sends
+ * over its own links; what peers send arrives on the connections they open to us. Broadcasts
+ * and room messages are relayed to every peer, which delivers them to its own clients (rooms
+ * are per node, so each peer reaches the members it holds). A direct message goes only to the
+ * node the presence view places its recipient on. Relayed messages are never relayed again,
+ * and ids seen recently are dropped, so a message reaches each client once. Ids are assigned
+ * by the server that received the message, so a client cannot make peers drop chat by
+ * reusing one.
+ * <p>
+ * Presence: a link starts by sending the users connected to its node, followed by each join
+ * and leave, and a peer's users are forgotten when its connection closes. Each change is
+ * passed on to the manager's presence tracker.
+ * <pre>
+ * link frame := kind:u8 message (binary wire codec)
+ * kind       := HELLO (from = node id, body = secret) | RELAY | USER_UP / USER_DOWN (from = username)
+ * </pre>
+ */
+final class ClusterNode {
+    static final byte HELLO = 1;
+    static final byte RELAY = 2;
+    static final byte USER_UP = 3;
+    static final byte USER_DOWN = 4;
+
+    /**
+     * Cluster settings, read from the {@code cluster.*} keys of the server configuration.
+     */
+    record Settings(String nodeId, String bindAddress, int port, List<String> peers, String secret,
+                    int queueCapacity, int maxBatch, long reconnectMillis, int dedupCapacity) {
+        static Settings fromConfig(Config cfg, int serverPort) {
+            List<String> peers = new ArrayList<>();
+            for (String peer : cfg.get("cluster.peers", "").split(",")) {
+                if (!peer.isBlank()) {
+                    peers.add(peer.trim());
+                }
+            }
+            return new Settings(
+                    cfg.get("cluster.nodeId", "node-" + serverPort),
+                    cfg.get("cluster.bindAddress", "").trim(),
+                    cfg.getInt("cluster.port", 0),
+                    List.copyOf(peers),
+                    cfg.get("cluster.secret", ""),
+                    cfg.getInt("cluster.queueCapacity", 65_536),
+                    Math.max(1, cfg.getInt("cluster.maxBatch", 256)),
+                    cfg.getInt("cluster.reconnectMillis", 1_000),
+                    cfg.getInt("cluster.dedupCapacity", 65_536)
+            );
+        }
+    }
+
+    private final Settings settings;
+    private final ChatManager manager;
+    private final List<PeerLink> links = new ArrayList<>();
+    // Users connected to other nodes, by username, with the id of their node
+    private final Map<String, String> remoteUsers = new ConcurrentHashMap<>();
+    private final RecentIds seen;
+    // Orders presence snapshots against the join and leave events queued around them
+    private final ReentrantLock presenceLock = new ReentrantLock();
+    private final AtomicLong relayed = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final Set<Socket> inbound = ConcurrentHashMap.newKeySet();
+    private ServerSocket serverSocket;
+
+    ClusterNode(Settings settings, ChatManager manager) {
+        this.settings = settings;
+        this.manager = manager;
+        this.seen = new RecentIds(settings.dedupCapacity());
+        for (String peer : settings.peers()) {
+            links.add(new PeerLink(this, peer, settings.queueCapacity()));
+        }
+    }
+
+    static ClusterNode fromConfig(Config cfg, int serverPort, ChatManager manager) {
+        Settings settings = Settings.fromConfig(cfg, serverPort);
+        return settings.port() > 0 ? new ClusterNode(settings, manager) : null;
+    }
+
+    Settings settings() {
+        return settings;
+    }
+
+    String nodeId() {
+        return settings.nodeId();
+    }
+
+    /**
+     * Starts accepting peer connections and connecting to the configured peers.
+     */
+    void start() throws IOException {
+        serverSocket = new ServerSocket();
+        String bind = settings.bindAddress();
+        serverSocket.bind(bind.isEmpty()
+                ? new InetSocketAddress(settings.port())
+                : new InetSocketAddress(bind, settings.port()));
+        Thread acceptor = new Thread(this::acceptPeers, "cluster-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        links.forEach(PeerLink::start);
+        System.out.println("Cluster node " + nodeId() + " listening on " + serverSocket.getLocalSocketAddress()
+                + " with " + links.size() + " peers");
+    }
+
+    // ---- Outbound ----
+
+    /**
+     * Relays a broadcast or room message that originated here to every peer.
+     */
+    void relay(Frame frame) {
+        Message message = frame.getMessage();
+        if (message.getId() != null) {
+            seen.add(message.getId());
+        }
+        for (PeerLink link : links) {
+            link.offer(RELAY, frame);
+            relayed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Relays a direct message to the node its recipient is connected to.
+     * @return false if no peer has the user
+     */
+    boolean relayTo(String username, Frame frame) {
+        String nodeId = remoteUsers.get(username);
+        if (nodeId == null) {
+            return false;
+        }
+        for (PeerLink link : links) {
+            if (nodeId.equals(link.peerId()) && link.isConnected()) {
+                link.offer(RELAY, frame);
+                relayed.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean isOnline(String username) {
+        return remoteUsers.containsKey(username);
+    }
+
+    void userUp(String username) {
+        presenceEvent(USER_UP, username);
+    }
+
+    void userDown(String username) {
+        presenceEvent(USER_DOWN, username);
+    }
+
+    private void presenceEvent(byte kind, String username) {
+        Frame frame = Frame.of(presence(nodeId(), username));
+        presenceLock.lock();
+        try {
+            for (PeerLink link : links) {
+                link.offer(kind, frame);
+            }
+        } finally {
+            presenceLock.unlock();
+        }
+    }
+
+    static Message presence(String nodeId, String username) {
+        return new Message(username, nodeId, MessageType.JOIN, "");
+    }
+
+    Message hello() {
+        return new Message(nodeId(), "ALL", MessageType.JOIN, settings.secret());
+    }
+
+    /**
+     * Whether a HELLO carries this node's secret; any HELLO does if none is configured.
+     */
+    boolean authentic(Message hello) {
+        String secret = settings.secret();
+        if (secret.isEmpty()) {
+            return true;
+        }
+        String offered = hello.getBody() == null ? "" : hello.getBody();
+        return MessageDigest.isEqual(
+                secret.getBytes(StandardCharsets.UTF_8), offered.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Whether {@code address} is one of the hosts in {@code cluster.peers}, looked up now so
+     * a peer that moved is still recognised.
+     */
+    private boolean isPeerAddress(InetAddress address) {
+        for (String peer : settings.peers()) {
+            int colon = peer.lastIndexOf(':');
+            String host = colon < 0 ? peer : peer.substring(0, colon);
+            try {
+                for (InetAddress candidate : InetAddress.getAllByName(host)) {
+                    if (candidate.equals(address)) {
+                        return true;
+                    }
+                }
+            } catch (UnknownHostException e) {
+                // Not resolvable right now; try the others
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Opens a freshly connected link with a snapshot of the users connected here.
+     */
+    void linkUp(PeerLink link) {
+        presenceLock.lock();
+        try {
+            link.open(manager.usernames());
+        } finally {
+            presenceLock.unlock();
+        }
+    }
+
+    // ---- Inbound ----
+
+    private void acceptPeers() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread reader = new Thread(() -> serve(socket), "cluster-peer-" + socket.getRemoteSocketAddress());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                // Closed by shutdown()
+            }
+        }
+    }
+
+    /**
+     * Reads one peer's connection: its HELLO, answered with ours, then relays and presence.
+     */
+    private void serve(Socket socket) {
+        String peer = null;
+        inbound.add(socket);
+        try (socket) {
+            if (settings.secret().isEmpty() && !isPeerAddress(socket.getInetAddress())) {
+                System.err.println("Cluster connection from " + socket.getRemoteSocketAddress()
+                        + " refused: not a configured peer");
+                return;
+            }
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            int kind = in.read();
+            Message hello = kind == HELLO ? BinaryCodec.INSTANCE.read(in) : null;
+            if (hello == null || hello.getFrom() == null) {
+                return;
+            }
+            if (!authentic(hello)) {
+                System.err.println("Cluster connection from " + socket.getRemoteSocketAddress()
+                        + " refused: wrong secret");
+                return;
+            }
+            peer = hello.getFrom();
+            OutputStream out = socket.getOutputStream();
+            out.write(HELLO);
+            out.write(BinaryCodec.INSTANCE.encode(hello()));
+            out.flush();
+            while ((kind = in.read()) != -1) {
+                Message message = BinaryCodec.INSTANCE.read(in);
+                if (message == null) {
+                    break;
+                }
+                switch (kind) {
+                    case RELAY -> deliver(message);
+                    case USER_UP -> {
+                        remoteUsers.put(message.getFrom(), peer);
+                        manager.presenceChanged(message.getFrom());
+                    }
+                    case USER_DOWN -> {
+                        remoteUsers.remove(message.getFrom(), peer);
+                        manager.presenceChanged(message.getFrom());
+                    }
+                    default -> throw new IOException("Unknown cluster frame kind " + kind);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Cluster peer " + peer + " disconnected: " + e.getMessage());
+        } finally {
+            inbound.remove(socket);
+            if (peer != null) {
+                List<String> departed = new ArrayList<>();
+                for (Map.Entry<String, String> entry : remoteUsers.entrySet()) {
+                    if (peer.equals(entry.getValue()) && remoteUsers.remove(entry.getKey(), peer)) {
+                        departed.add(entry.getKey());
+                    }
+                }
+                // Only once they are gone, so the tracker finds them offline
+                departed.forEach(manager::presenceChanged);
+            }
+        }
+    }
+
+    /**
+     * Hands a relayed message to this node's clients, once per id, without relaying it further.
+     */
+    private void deliver(Message message) {
+        if (message.getId() != null && !seen.add(message.getId())) {
+            duplicates.incrementAndGet();
+            return;
+        }
+        received.incrementAndGet();
+        Frame frame = Frame.of(message);
+        String to = message.getTo();
+        if (to == null || to.equals("ALL")) {
+            manager.broadcastLocal(frame);
+        } else if (Room.isRoom(to)) {
+            manager.sendToRoomLocal(to, frame);
+        } else {
+            manager.deliverLocal(to, frame);
+        }
+    }
+
+    long relayed() {
+        return relayed.get();
+    }
+
+    long received() {
+        return received.get();
+    }
+
+    long duplicates() {
+        return duplicates.get();
+    }
+
+    long dropped() {
+        return links.stream().mapToLong(PeerLink::dropped).sum();
+    }
+
+    int connectedPeers() {
+        return (int) links.stream().filter(PeerLink::isConnected).count();
+    }
+
+    int remoteUserCount() {
+        return remoteUsers.size();
+    }
+
+    void shutdown() {
+        links.forEach(PeerLink::close);
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+            for (Socket socket : inbound) {
+                socket.close();
+            }
+        } catch (IOException ignored) {}
+    }
+}
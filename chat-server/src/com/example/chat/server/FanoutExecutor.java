@@ -0,0 +1,245 @@
+package com.example.chat.server;
+
+import com.example.chat.common.Config;
+import com.example.chat.common.Frame;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hands a frame to a large set of sessions on several worker threads. Every session belongs
+ * to one stripe, by identity hash, and each stripe is served by one thread in submission
+ * order, so a recipient sees frames in the order they were fanned out no matter how many
+ * stripes share the work.
+ * <p>
+ * Recipient sets below {@code threshold} are served inline on the calling thread, which is
+ * cheaper, but only while no parallel fan-out is in flight: otherwise a small delivery could
+ * overtake a large one sent just before it by the same sender.
+ */
+final class FanoutExecutor {
+    private final int threshold;
+    private final Stripe[] stripes;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder parallel = new LongAdder();
+
+    FanoutExecutor(int threads, int threshold, int queueCapacity) {
+        this.threshold = threshold;
+        this.stripes = new Stripe[threads];
+        for (int i = 0; i < threads; i++) {
+            stripes[i] = new Stripe(i, queueCapacity);
+        }
+    }
+
+    /**
+     * Returns null, for inline fan-out only, if {@code fanout.threads} is 0.
+     */
+    static FanoutExecutor fromConfig(Config cfg) {
+        int threads = cfg.getInt("fanout.threads", Runtime.getRuntime().availableProcessors());
+        if (threads <= 0) {
+            return null;
+        }
+        return new FanoutExecutor(
+                threads, cfg.getInt("fanout.threshold", 1024), cfg.getInt("fanout.queueCapacity", 4096));
+    }
+
+    void start() {
+        for (Stripe stripe : stripes) {
+            stripe.start();
+        }
+    }
+
+    /**
+     * Whether {@code recipients} sessions should be served on the calling thread.
+     */
+    boolean inline(int recipients) {
+        return recipients < threshold && !busy();
+    }
+
+    /**
+     * Delivers the frame to {@code members} on the stripe threads and records the time until
+     * the last of them is done in {@code fanoutTime}, if given. Blocks while a stripe's queue
+     * is full, which slows down whoever is producing that much traffic; the workers themselves
+     * never block, as a session they disconnect may broadcast its LEAVE from their thread.
+     */
+    void submit(ChatSession[] members, Frame frame, Histogram fanoutTime) {
+        ChatSession[][] slices = split(members);
+        int used = 0;
+        for (ChatSession[] slice : slices) {
+            if (slice.length > 0) {
+                used++;
+            }
+        }
+        if (used == 0) {
+            return;
+        }
+        Task task = new Task(slices, frame, fanoutTime, used, !onStripe());
+        inFlight.incrementAndGet();
+        parallel.increment();
+        for (int i = 0; i < stripes.length; i++) {
+            if (slices[i].length > 0) {
+                stripes[i].offer(task);
+            }
+        }
+    }
+
+    /**
+     * Splits {@code members} by stripe in one pass, so each worker walks only its own.
+     */
+    private ChatSession[][] split(ChatSession[] members) {
+        int count = stripes.length;
+        int[] sizes = new int[count];
+        int[] index = new int[members.length];
+        for (int i = 0; i < members.length; i++) {
+            index[i] = stripeOf(members[i], count);
+            sizes[index[i]]++;
+        }
+        ChatSession[][] slices = new ChatSession[count][];
+        for (int s = 0; s < count; s++) {
+            slices[s] = new ChatSession[sizes[s]];
+            sizes[s] = 0;
+        }
+        for (int i = 0; i < members.length; i++) {
+            slices[index[i]][sizes[index[i]]++] = members[i];
+        }
+        return slices;
+    }
+
+    /**
+     * Delivers the frame to one session, behind anything already queued for its stripe.
+     */
+    void submit(ChatSession session, Frame frame) {
+        if (!busy()) {
+            session.send(frame);
+            return;
+        }
+        int stripe = stripeOf(session, stripes.length);
+        ChatSession[][] slices = new ChatSession[stripes.length][];
+        slices[stripe] = new ChatSession[] {session};
+        Task task = new Task(slices, frame, null, 1, !onStripe());
+        inFlight.incrementAndGet();
+        stripes[stripe].offer(task);
+    }
+
+    private boolean onStripe() {
+        Thread current = Thread.currentThread();
+        for (Stripe stripe : stripes) {
+            if (stripe.thread == current) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int stripeOf(ChatSession session, int count) {
+        return (System.identityHashCode(session) & 0x7fffffff) % count;
+    }
+
+    /**
+     * Whether any parallel fan-out is still being delivered.
+     */
+    boolean busy() {
+        return inFlight.get() > 0;
+    }
+
+    long parallelFanouts() {
+        return parallel.sum();
+    }
+
+    long queued() {
+        long total = 0;
+        for (Stripe stripe : stripes) {
+            total += stripe.queue.size();
+        }
+        return total;
+    }
+
+    void shutdown() {
+        for (Stripe stripe : stripes) {
+            stripe.thread.interrupt();
+        }
+    }
+
+    private final class Task {
+        // The members of each stripe, indexed by stripe
+        final ChatSession[][] slices;
+        final Frame frame;
+        final Histogram fanoutTime;
+        final long start = System.nanoTime();
+        final AtomicInteger remaining;
+        // Whether the task holds a queue permit on each stripe it was given to
+        final boolean bounded;
+
+        Task(ChatSession[][] slices, Frame frame, Histogram fanoutTime, int stripes, boolean bounded) {
+            this.slices = slices;
+            this.frame = frame;
+            this.fanoutTime = fanoutTime;
+            this.remaining = new AtomicInteger(stripes);
+            this.bounded = bounded;
+        }
+
+        void run(int stripe) {
+            try {
+                for (ChatSession member : slices[stripe]) {
+                    member.send(frame);
+                }
+            } finally {
+                if (remaining.decrementAndGet() == 0) {
+                    if (fanoutTime != null) {
+                        fanoutTime.record(System.nanoTime() - start);
+                    }
+                    inFlight.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    private final class Stripe implements Runnable {
+        final int index;
+        final BlockingQueue<Task> queue = new LinkedBlockingQueue<>();
+        // Bounds what callers outside the workers may queue
+        final Semaphore permits;
+        final Thread thread;
+
+        Stripe(int index, int queueCapacity) {
+            this.index = index;
+            this.permits = new Semaphore(Math.max(1, queueCapacity));
+            this.thread = new Thread(this, "fanout-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        void offer(Task task) {
+            try {
+                if (task.bounded) {
+                    permits.acquire();
+                }
+                queue.add(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // Shutting down; deliver this part here rather than leave the task unfinished
+                task.run(index);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Task task = queue.take();
+                    if (task.bounded) {
+                        permits.release();
+                    }
+                    task.run(index);
+                }
+            } catch (InterruptedException e) {
+                // Shut down
+            }
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.example.chat.server;
+
+import com.example.chat.common.Config;
+import com.example.chat.common.MessageType;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rate limits what clients send, so one flooding client cannot use up the server's fan-out.
+ * Every session has a token bucket, and all sessions from one IP address share another.
+ * A message over the limit first costs its sender a pause in reading until its token is due,
+ * so a client that is only slightly too fast is slowed down by TCP. A client that is still
+ * over the limit after {@code maxThrottleMillis} has what exceeds it dropped instead, and
+ * after {@code maxDrops} drops it is disconnected. Both reset once its bucket is full again.
+ * <p>
+ * Buckets use the generic cell rate algorithm: a bucket is one timestamp, the time at which
+ * it would be empty again, updated with a compare-and-set, so the read path takes no lock.
+ */
+final class FloodControl {
+    /** {@link Limiter#admit()} result: drop the message. */
+    static final long DROP = -1;
+    /** {@link Limiter#admit()} result: drop the message and disconnect. */
+    static final long DISCONNECT = -2;
+
+    private final double ratePerSecond;
+    private final int burst;
+    private final double ipRatePerSecond;
+    private final int ipBurst;
+    private final long maxThrottleNanos;
+    private final int maxDrops;
+    private final ScheduledExecutorService scheduler;
+    private final ConcurrentMap<InetAddress, Address> addresses = new ConcurrentHashMap<>();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder disconnected = new LongAdder();
+
+    FloodControl(double ratePerSecond, int burst, double ipRatePerSecond, int ipBurst,
+                 long maxThrottleMillis, int maxDrops, ScheduledExecutorService scheduler) {
+        this.ratePerSecond = ratePerSecond;
+        this.burst = burst;
+        this.ipRatePerSecond = ipRatePerSecond;
+        this.ipBurst = ipBurst;
+        this.maxThrottleNanos = TimeUnit.MILLISECONDS.toNanos(maxThrottleMillis);
+        this.maxDrops = maxDrops;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Returns null, for no flood control, if both rates are 0.
+     */
+    static FloodControl fromConfig(Config cfg, ScheduledExecutorService scheduler) {
+        double rate = Double.parseDouble(cfg.get("flood.ratePerSecond", "20"));
+        double ipRate = Double.parseDouble(cfg.get("flood.ipRatePerSecond", "200"));
+        if (rate <= 0 && ipRate <= 0) {
+            return null;
+        }
+        return new FloodControl(
+                rate, cfg.getInt("flood.burst", 40),
+                ipRate, cfg.getInt("flood.ipBurst", 400),
+                cfg.getInt("flood.maxThrottleMillis", 1000),
+                cfg.getInt("flood.maxDrops", 100),
+                scheduler
+        );
+    }
+
+    /**
+     * Messages that cost a token: those that are fanned out to other users, and searches.
+     */
+    static boolean isLimited(MessageType type) {
+        return type == MessageType.TEXT || type == MessageType.JOIN || type == MessageType.LEAVE
+                || type == MessageType.SEARCH;
+    }
+
+    /**
+     * Creates the limiter for a session that has joined from {@code address}, which may be
+     * null if unknown. Call {@link Limiter#release()} when the session ends.
+     */
+    Limiter limiter(InetAddress address) {
+        Address shared = null;
+        if (address != null && ipRatePerSecond > 0) {
+            shared = addresses.compute(address, (key, current) -> {
+                Address entry = current != null ? current : new Address(new Bucket(ipRatePerSecond, ipBurst));
+                entry.sessions++;
+                return entry;
+            });
+        }
+        return new Limiter(ratePerSecond > 0 ? new Bucket(ratePerSecond, burst) : null, address, shared);
+    }
+
+    long throttled() {
+        return throttled.sum();
+    }
+
+    long dropped() {
+        return dropped.sum();
+    }
+
+    long disconnected() {
+        return disconnected.sum();
+    }
+
+    int addressCount() {
+        return addresses.size();
+    }
+
+    /**
+     * The bucket of one IP address and how many sessions use it; changed only inside compute.
+     */
+    private static final class Address {
+        final Bucket bucket;
+        int sessions;
+
+        Address(Bucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+
+    /**
+     * Flood control state of one session. {@link #admit()} is called from the session's
+     * reading thread only.
+     */
+    final class Limiter {
+        private final Bucket own;
+        private final InetAddress address;
+        private final Address shared;
+        private final AtomicBoolean released = new AtomicBoolean();
+        // Set while the session is over its limit, from when it first was
+        private boolean over;
+        private long overSince;
+        private int drops;
+
+        private Limiter(Bucket own, InetAddress address, Address shared) {
+            this.own = own;
+            this.address = address;
+            this.shared = shared;
+        }
+
+        /**
+         * Takes a token for one inbound message.
+         * @return 0 to handle it now; a positive number of nanoseconds to handle it and then
+         *         stop reading for that long; or {@link #DROP} or {@link #DISCONNECT}
+         */
+        long admit() {
+            long now = System.nanoTime();
+            Bucket address = shared == null ? null : shared.bucket;
+            if (over && (own != null ? own : address).isFull(now)) {
+                over = false;
+                drops = 0;
+            }
+            long wait = Math.max(wait(own, now), wait(address, now));
+            if (wait > 0 && !over) {
+                over = true;
+                overSince = now;
+            }
+            if (wait == 0 || (wait <= maxThrottleNanos && now - overSince <= maxThrottleNanos)) {
+                wait = Math.max(take(own, now), take(address, now));
+                if (wait > 0) {
+                    throttled.increment();
+                }
+                return wait;
+            }
+            dropped.increment();
+            if (++drops > maxDrops) {
+                disconnected.increment();
+                return DISCONNECT;
+            }
+            return DROP;
+        }
+
+        /**
+         * Whether the last message was the first dropped since the client went over its limit,
+         * so it is told once.
+         */
+        boolean firstDrop() {
+            return drops == 1;
+        }
+
+        /**
+         * Runs {@code task} after {@code nanos}, for resuming reads after a pause.
+         */
+        void resumeAfter(long nanos, Runnable task) {
+            try {
+                scheduler.schedule(task, nanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+                task.run();
+            }
+        }
+
+        /**
+         * Gives up the session's share of its address. Safe to call more than once.
+         */
+        void release() {
+            if (shared != null && released.compareAndSet(false, true)) {
+                addresses.computeIfPresent(address, (key, current) -> --current.sessions == 0 ? null : current);
+            }
+        }
+
+        private long wait(Bucket bucket, long now) {
+            return bucket == null ? 0 : bucket.waitFor(now);
+        }
+
+        private long take(Bucket bucket, long now) {
+            return bucket == null ? 0 : bucket.take(now);
+        }
+    }
+
+    /**
+     * Token bucket of {@code burst} tokens refilled at {@code ratePerSecond}, kept as the
+     * theoretical arrival time of the next message: it conforms if it is no more than
+     * {@code burst - 1} intervals early.
+     */
+    static final class Bucket {
+        private final long interval;
+        private final long tolerance;
+        private final AtomicLong tat;
+
+        Bucket(double ratePerSecond, int burst) {
+            this.interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+            this.tolerance = interval * (Math.max(1, burst) - 1);
+            this.tat = new AtomicLong(System.nanoTime());
+        }
+
+        /**
+         * Whether all {@code burst} tokens are available.
+         */
+        boolean isFull(long now) {
+            return tat.get() <= now;
+        }
+
+        /**
+         * How long until a token is available, without taking it.
+         */
+        long waitFor(long now) {
+            return Math.max(0, tat.get() - tolerance - now);
+        }
+
+        /**
+         * Takes a token, possibly one that only becomes available later.
+         * @return how long until that token is available, 0 if it is already
+         */
+        long take(long now) {
+            while (true) {
+                long current = tat.get();
+                long next = Math.max(current, now) + interval;
+                if (tat.compareAndSet(current, next)) {
+                    return Math.max(0, current - tolerance - now);
+                }
+            }
+        }
+    }
+}
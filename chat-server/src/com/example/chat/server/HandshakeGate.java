@@ -0,0 +1,135 @@
+package com.example.chat.server;
+
+import com.example.chat.common.Config;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds connections that have been accepted but have not completed their JOIN.
+ * The acceptor takes a permit before handing a connection off and drops the connection
+ * if none is left; the permit comes back when the JOIN completes or the connection closes.
+ * A connection that has not joined within the timeout is closed, however slowly it trickles
+ * bytes in, so idle or slowloris connections cannot pile up. A blocking-engine connection
+ * only starts its timeout when a pool thread picks it up, so waiting for a busy pool does not
+ * count against it; its permit still bounds how many may wait.
+ */
+final class HandshakeGate {
+    private final Semaphore permits;
+    private final long timeoutMillis;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+
+    HandshakeGate(int maxPending, long timeoutMillis, ScheduledExecutorService scheduler) {
+        this.permits = new Semaphore(Math.max(1, maxPending));
+        this.timeoutMillis = timeoutMillis;
+        this.scheduler = scheduler;
+    }
+
+    static HandshakeGate fromConfig(Config cfg, ScheduledExecutorService scheduler) {
+        return new HandshakeGate(
+                cfg.getInt("server.handshake.maxPending", 1024),
+                cfg.getInt("server.handshake.timeoutMillis", 5000),
+                scheduler
+        );
+    }
+
+    /**
+     * Takes a permit for a newly accepted connection, without waiting.
+     * @return false if too many handshakes are already pending; close the connection
+     */
+    boolean tryEnter() {
+        if (permits.tryAcquire()) {
+            return true;
+        }
+        if (rejected.getAndIncrement() % 1000 == 0) {
+            System.err.println("Too many pending handshakes; dropping new connections");
+        }
+        return false;
+    }
+
+    /**
+     * Gives back a permit taken by {@link #tryEnter()} for a connection that never got a session.
+     */
+    void abandon() {
+        permits.release();
+    }
+
+    /**
+     * Starts the JOIN deadline for a session that holds a permit.
+     */
+    Pending start(ChatSession session) {
+        Pending pending = hold(session);
+        pending.arm();
+        return pending;
+    }
+
+    /**
+     * Ties the permit to a session whose deadline starts later, with {@link Pending#arm()}.
+     */
+    Pending hold(ChatSession session) {
+        return new Pending(session);
+    }
+
+    long rejected() {
+        return rejected.get();
+    }
+
+    long timedOut() {
+        return timedOut.get();
+    }
+
+    /**
+     * One connection's handshake; finished exactly once, by the JOIN, the close or the deadline.
+     */
+    final class Pending {
+        private final ChatSession session;
+        private final AtomicBoolean done = new AtomicBoolean();
+        private volatile ScheduledFuture<?> deadline;
+
+        Pending(ChatSession session) {
+            this.session = session;
+        }
+
+        /**
+         * Starts the deadline, unless the handshake is already finished.
+         */
+        void arm() {
+            if (done.get() || deadline != null) {
+                return;
+            }
+            deadline = scheduler.schedule(() -> {
+                if (finish()) {
+                    timedOut.incrementAndGet();
+                    System.err.println("Closing connection that did not JOIN within " + timeoutMillis + " ms");
+                    session.close();
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+            if (done.get()) {
+                // Finished while being armed; finish() may have missed the timer
+                deadline.cancel(false);
+            }
+        }
+
+        /**
+         * Releases the permit and cancels the deadline.
+         * @return true for the first caller only
+         */
+        boolean finish() {
+            if (!done.compareAndSet(false, true)) {
+                return false;
+            }
+            permits.release();
+            ScheduledFuture<?> timer = deadline;
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.chat.server;
+
+import com.example.chat.common.Config;
+import com.example.chat.common.Frame;
+import com.example.chat.common.Message;
+import com.example.chat.common.MessageType;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Hashed timer wheel driving heartbeats. Each session hashes to one of {@code slots} buckets,
+ * and one tick visits one bucket, so a full turn of the wheel takes one heartbeat interval
+ * and every session is looked at once per interval, with the work spread evenly across it.
+ * There is one scheduled task in total, however many sessions are connected.
+ * <p>
+ * On a visit a session is evicted if nothing has arrived from it for {@code timeout}, and
+ * otherwise pinged if it has been quiet for more than half an interval. Busy sessions are
+ * not pinged at all. A dead peer is noticed within {@code timeout} plus one interval.
+ */
+final class HeartbeatWheel {
+    /**
+     * The one PING the server sends. Its id and timestamp mean nothing to clients, so it is
+     * built once and each codec encodes it once.
+     */
+    static final Frame PING = Frame.of(new Message("SERVER", "ALL", MessageType.PING, ""));
+
+    private final Set<ChatSession>[] buckets;
+    private final long intervalNanos;
+    private final long timeoutNanos;
+    // System.nanoTime(), except in tests
+    private final LongSupplier clock;
+    private final AtomicLong pings = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    // Only touched by the ticking thread
+    private int cursor;
+
+    HeartbeatWheel(int slots, long intervalMillis, long timeoutMillis) {
+        this(slots, intervalMillis, timeoutMillis, System::nanoTime);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the interval or timeout is not positive
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    HeartbeatWheel(int slots, long intervalMillis, long timeoutMillis, LongSupplier clock) {
+        if (intervalMillis <= 0 || timeoutMillis <= 0) {
+            // A zero interval would tick every nanosecond and spin the shared scheduler
+            throw new IllegalArgumentException("Heartbeat interval and timeout must be positive, got "
+                    + intervalMillis + " ms and " + timeoutMillis + " ms");
+        }
+        this.clock = clock;
+        this.buckets = new Set[Math.max(1, slots)];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = ConcurrentHashMap.newKeySet();
+        }
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    static HeartbeatWheel fromConfig(Config cfg) {
+        int interval = cfg.getInt("heartbeat.intervalSeconds", 30);
+        return new HeartbeatWheel(
+                cfg.getInt("heartbeat.wheelSlots", 512),
+                TimeUnit.SECONDS.toMillis(interval),
+                TimeUnit.SECONDS.toMillis(cfg.getInt("heartbeat.timeoutSeconds", interval * 3))
+        );
+    }
+
+    /**
+     * Schedules the ticks: {@code slots} per interval.
+     */
+    void start(ScheduledExecutorService scheduler) {
+        long tick = Math.max(1, intervalNanos / buckets.length);
+        scheduler.scheduleAtFixedRate(this::tick, tick, tick, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Adds the session to a random bucket, which spreads even a wave of reconnects evenly
+     * over the interval.
+     */
+    void add(ChatSession session) {
+        int slot = ThreadLocalRandom.current().nextInt(buckets.length);
+        session.heartbeatSlot = slot;
+        buckets[slot].add(session);
+    }
+
+    void remove(ChatSession session) {
+        int slot = session.heartbeatSlot;
+        if (slot >= 0) {
+            buckets[slot].remove(session);
+        }
+    }
+
+    void tick() {
+        try {
+            Set<ChatSession> bucket = buckets[cursor];
+            cursor = (cursor + 1) % buckets.length;
+            long now = clock.getAsLong();
+            for (ChatSession session : bucket) {
+                long quiet = now - session.lastSeen();
+                if (quiet > timeoutNanos) {
+                    evictions.incrementAndGet();
+                    System.err.println("Evicting unresponsive client " + session.getUsername());
+                    bucket.remove(session);
+                    session.close();
+                } else if (quiet > intervalNanos / 2) {
+                    pings.incrementAndGet();
+                    session.send(PING);
+                }
+            }
+        } catch (RuntimeException e) {
+            // Never let one bad session cancel the periodic task
+            System.err.println("Heartbeat tick failed: " + e);
+        }
+    }
+
+    long pings() {
+        return pings.get();
+    }
+
+    long evictions() {
+        return evictions.get();
+    }
+}
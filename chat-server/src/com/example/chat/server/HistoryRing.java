@@ -0,0 +1,63 @@
+package com.example.chat.server;
+
+import com.example.chat.common.Frame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-size ring of the most recent broadcast frames, for catching up reconnecting clients.
+ * <p>
+ * Lock-free: a writer claims a sequence number and publishes an immutable entry into its
+ * slot, overwriting the frame {@code capacity} positions older. Readers check each entry's
+ * sequence, so an overwritten slot is skipped rather than returned out of order.
+ */
+final class HistoryRing {
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+
+    private record Entry(long sequence, Frame frame) {}
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    HistoryRing(int capacity) {
+        int size = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    void add(Frame frame) {
+        long sequence = next.getAndIncrement();
+        slots.set((int) (sequence & mask), new Entry(sequence, frame));
+    }
+
+    /**
+     * Returns the retained frames, oldest first. A writer that has claimed a slot but not yet
+     * filled it is waited for briefly, so frames that were fanned out are not missed.
+     */
+    List<Frame> snapshot() {
+        long end = next.get();
+        long start = Math.max(0, end - slots.length());
+        List<Frame> frames = new ArrayList<>((int) (end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            Entry entry = slots.get((int) (sequence & mask));
+            for (int spins = 0; (entry == null || entry.sequence() < sequence) && spins < 1000; spins++) {
+                Thread.onSpinWait();
+                entry = slots.get((int) (sequence & mask));
+            }
+            // A newer sequence means the frame was already overwritten
+            if (entry != null && entry.sequence() == sequence) {
+                frames.add(entry.frame());
+            }
+        }
+        return frames;
+    }
+
+    int capacity() {
+        return slots.length();
+    }
+}
@@ -0,0 +1,491 @@
+package com.example.chat.server;
+
+import com.example.chat.common.BinaryCodec;
+import com.example.chat.common.Config;
+import com.example.chat.common.Frame;
+import com.example.chat.common.Message;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Durable history of broadcast messages: an append-only log split into segment files.
+ * <p>
+ * {@link #append} only enqueues; a single writer thread drains whatever has queued up,
+ * writes it as one batch and forces it to disk once (group commit), so persisting history
+ * never blocks the broadcast path. If the writer falls behind and the queue fills, new
+ * messages are left out of the log rather than slowing the chat down.
+ * <p>
+ * Segments roll at {@code log.segmentBytes} and only the newest {@code log.retentionSegments}
+ * are kept. {@link #replay} reads segments through read-only memory maps and only ever sees
+ * records that have been fully written (and forced, when fsync is on).
+ * <pre>
+ * record := length:i32 crc32c:i32 timestamp:i64 (epoch micros) idHigh:i64 idLow:i64 frame
+ * </pre>
+ * {@code frame} is the message in the binary wire codec; the CRC covers everything after it.
+ * {@code timestamp} is when the server received the message, never the sender's own claim, and
+ * never decreases along the log, so replay can skip whole segments by it.
+ */
+public class MessageLog implements Closeable {
+    private static final String SUFFIX = ".log";
+    private static final int HEADER_BYTES = 32;
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    /**
+     * Log settings, read from the {@code log.*} keys of the server configuration.
+     */
+    public record Settings(Path dir, int segmentBytes, int retentionSegments,
+                           int queueCapacity, int maxBatch, boolean fsync) {
+        public static Settings fromConfig(Config cfg) {
+            return new Settings(
+                    Paths.get(cfg.get("log.dir", "history")),
+                    cfg.getInt("log.segmentBytes", 64 * 1024 * 1024),
+                    Math.max(1, cfg.getInt("log.retentionSegments", 16)),
+                    cfg.getInt("log.queueCapacity", 65_536),
+                    cfg.getInt("log.maxBatch", 1024),
+                    cfg.getBoolean("log.fsync", true)
+            );
+        }
+    }
+
+    private final Settings settings;
+    private final BlockingQueue<Pending> pending;
+    // Oldest first; only the writer thread adds, expires and closes segments
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final Thread writer;
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean closed;
+    private Segment active;
+    private ByteBuffer batch = ByteBuffer.allocate(64 * 1024);
+    // Timestamp of the last record written; only touched by the writer thread
+    private long lastMicros = NO_TIMESTAMP;
+
+    /**
+     * A message waiting to be written, with when it was received.
+     */
+    private record Pending(Frame frame, long micros) {}
+
+    private MessageLog(Settings settings) {
+        this.settings = settings;
+        this.pending = new ArrayBlockingQueue<>(settings.queueCapacity());
+        this.writer = new Thread(this::writeLoop, "message-log");
+        this.writer.setDaemon(true);
+    }
+
+    /**
+     * Opens the log in {@code settings.dir()}, recovering existing segments. A record cut
+     * short by a crash is truncated away.
+     */
+    public static MessageLog open(Settings settings) throws IOException {
+        MessageLog log = new MessageLog(settings);
+        log.recover();
+        log.writer.start();
+        return log;
+    }
+
+    private void recover() throws IOException {
+        Files.createDirectories(settings.dir());
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> listing = Files.list(settings.dir())) {
+            listing.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).forEach(files::add);
+        }
+        Collections.sort(files);
+        for (int i = 0; i < files.size(); i++) {
+            Segment segment = Segment.open(files.get(i), indexOf(files.get(i)));
+            if (i == files.size() - 1) {
+                segment.truncateAfterLastValidRecord();
+            }
+            segments.add(segment);
+        }
+        if (segments.isEmpty()) {
+            segments.add(Segment.open(segmentPath(0), 0));
+        }
+        active = segments.get(segments.size() - 1);
+    }
+
+    /**
+     * Queues a broadcast message for writing. Never blocks.
+     * @return false if the message was left out because the writer is behind
+     */
+    public boolean append(Frame frame) {
+        if (closed || !pending.offer(new Pending(frame, toEpochMicros(Instant.now())))) {
+            if (dropped.getAndIncrement() == 0) {
+                System.err.println("Message log is falling behind; some messages are not persisted");
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns up to {@code limit} messages, oldest first, that were logged after the message
+     * with id {@code afterId}. If that id is null or no longer retained, returns the messages
+     * newer than {@code since} instead, or everything retained when both are null. Page through
+     * longer histories by passing the id of the last message returned.
+     */
+    public List<Message> replay(UUID afterId, Instant since, int limit) throws IOException {
+        return replay(afterId, since, limit, false);
+    }
+
+    /**
+     * Like {@link #replay}, but when more than {@code limit} messages match, returns the
+     * newest {@code limit} of them (still oldest first).
+     */
+    public List<Message> replayLatest(UUID afterId, Instant since, int limit) throws IOException {
+        return replay(afterId, since, limit, true);
+    }
+
+    private List<Message> replay(UUID afterId, Instant since, int limit, boolean latest) throws IOException {
+        List<Segment> snapshot = List.copyOf(segments);
+        long sinceMicros = since != null ? toEpochMicros(since) : NO_TIMESTAMP;
+        if (afterId != null) {
+            int[] position = find(snapshot, afterId);
+            if (position != null) {
+                return collect(snapshot, position[0], position[1], NO_TIMESTAMP, limit, latest);
+            }
+        }
+        // Skip whole segments that end before the cutoff: the next one starts at or before it
+        int first = 0;
+        while (sinceMicros != NO_TIMESTAMP && first + 1 < snapshot.size()
+                && snapshot.get(first + 1).firstMicros() != NO_TIMESTAMP
+                && snapshot.get(first + 1).firstMicros() <= sinceMicros) {
+            first++;
+        }
+        return collect(snapshot, first, 0, sinceMicros, limit, latest);
+    }
+
+    /**
+     * Returns {segment, offset just past the record} for the record with the given id, or null.
+     */
+    private static int[] find(List<Segment> snapshot, UUID id) throws IOException {
+        long high = id.getMostSignificantBits();
+        long low = id.getLeastSignificantBits();
+        // Newest first: a reconnecting client usually missed only the last few messages
+        for (int s = snapshot.size() - 1; s >= 0; s--) {
+            ByteBuffer map = snapshot.get(s).map();
+            if (map == null) {
+                continue;
+            }
+            for (int pos = 0; pos + HEADER_BYTES <= map.limit(); pos += HEADER_BYTES + map.getInt(pos)) {
+                int length = map.getInt(pos);
+                if (length < 0 || pos + HEADER_BYTES + length > map.limit()) {
+                    break;
+                }
+                if (map.getLong(pos + 16) == high && map.getLong(pos + 24) == low) {
+                    return new int[] {s, pos + HEADER_BYTES + map.getInt(pos)};
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gathers matching records from the given position on. With {@code latest}, scans to the
+     * end keeping only the last {@code limit} records, and decodes just those.
+     */
+    private static List<Message> collect(List<Segment> snapshot, int segment, int offset,
+                                         long afterMicros, int limit, boolean latest) throws IOException {
+        if (limit <= 0) {
+            return List.of();
+        }
+        ArrayDeque<ByteBuffer> frames = new ArrayDeque<>();
+        for (int s = segment; s < snapshot.size() && (latest || frames.size() < limit); s++) {
+            ByteBuffer map = snapshot.get(s).map();
+            if (map == null) {
+                continue;
+            }
+            int pos = s == segment ? offset : 0;
+            while (pos + HEADER_BYTES <= map.limit() && (latest || frames.size() < limit)) {
+                int length = map.getInt(pos);
+                if (length < 0 || pos + HEADER_BYTES + length > map.limit()) {
+                    break;
+                }
+                if (afterMicros == NO_TIMESTAMP || map.getLong(pos + 8) > afterMicros) {
+                    if (frames.size() == limit) {
+                        frames.removeFirst();
+                    }
+                    frames.addLast(map.slice(pos + HEADER_BYTES, length));
+                }
+                pos += HEADER_BYTES + length;
+            }
+        }
+        List<Message> result = new ArrayList<>(frames.size());
+        for (ByteBuffer frame : frames) {
+            Message message = BinaryCodec.INSTANCE.decode(frame);
+            if (message != null) {
+                result.add(message);
+            }
+        }
+        return result;
+    }
+
+    private static long toEpochMicros(Instant instant) {
+        return instant.getEpochSecond() * 1_000_000L + instant.getNano() / 1_000;
+    }
+
+    public long dropped() {
+        return dropped.get();
+    }
+
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    private void writeLoop() {
+        List<Pending> frames = new ArrayList<>();
+        while (!closed || !pending.isEmpty()) {
+            try {
+                Pending first = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                frames.add(first);
+                pending.drainTo(frames, settings.maxBatch() - 1);
+                writeBatch(frames);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException | RuntimeException e) {
+                // The batch is lost, but the writer carries on with the next one
+                System.err.println("Message log write failed: " + e);
+            } finally {
+                frames.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<Pending> frames) throws IOException {
+        for (Pending record : frames) {
+            Frame frame = record.frame();
+            Message message = frame.getMessage();
+            byte[] encoded = frame.encoded(BinaryCodec.INSTANCE);
+            int recordBytes = HEADER_BYTES + encoded.length;
+            if (active.size() + batch.position() + recordBytes > settings.segmentBytes()
+                    && active.size() + batch.position() > 0) {
+                commit();
+                roll();
+            }
+            if (batch.remaining() < recordBytes) {
+                batch.flip();
+                batch = ByteBuffer.allocate(Math.max(batch.capacity() * 2, batch.limit() + recordBytes)).put(batch);
+            }
+            int start = batch.position();
+            batch.putInt(encoded.length).putInt(0);
+            // The wall clock may step back; keep the log in order anyway
+            lastMicros = Math.max(lastMicros, record.micros());
+            batch.putLong(lastMicros);
+            UUID id = message.getId();
+            batch.putLong(id != null ? id.getMostSignificantBits() : 0L);
+            batch.putLong(id != null ? id.getLeastSignificantBits() : 0L);
+            batch.put(encoded);
+            CRC32C crc = new CRC32C();
+            crc.update(batch.array(), start + 8, batch.position() - start - 8);
+            batch.putInt(start + 4, (int) crc.getValue());
+        }
+        commit();
+    }
+
+    /**
+     * Writes out the batch, forces it if configured and only then makes it visible to replay.
+     */
+    private void commit() throws IOException {
+        batch.flip();
+        try {
+            if (batch.hasRemaining()) {
+                active.append(batch, settings.fsync());
+            }
+        } finally {
+            batch.clear();
+        }
+    }
+
+    private void roll() throws IOException {
+        Segment next = Segment.open(segmentPath(active.index() + 1), active.index() + 1);
+        segments.add(next);
+        active = next;
+        while (segments.size() > settings.retentionSegments()) {
+            Segment expired = segments.remove(0);
+            expired.delete();
+        }
+    }
+
+    private Path segmentPath(long index) {
+        return settings.dir().resolve(String.format("%020d%s", index, SUFFIX));
+    }
+
+    private static long indexOf(Path file) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Stops accepting messages, writes out everything already queued and closes the segments.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // No interrupt: it would close the FileChannel under a write in progress
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Segment segment : segments) {
+            segment.close();
+        }
+    }
+
+    /**
+     * One segment file. Appended to by the writer thread only; {@code size} is published
+     * after each commit so readers never map a partially written record.
+     */
+    private static final class Segment {
+        private final Path path;
+        private final long index;
+        private final FileChannel channel;
+        private volatile long size;
+        private volatile long firstMicros = NO_TIMESTAMP;
+
+        private Segment(Path path, long index, FileChannel channel) throws IOException {
+            this.path = path;
+            this.index = index;
+            this.channel = channel;
+            this.size = channel.size();
+            if (size >= HEADER_BYTES) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                channel.read(header, 0);
+                firstMicros = header.getLong(8);
+            }
+        }
+
+        static Segment open(Path path, long index) throws IOException {
+            return new Segment(path, index,
+                    FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        }
+
+        long index() {
+            return index;
+        }
+
+        long size() {
+            return size;
+        }
+
+        long firstMicros() {
+            return firstMicros;
+        }
+
+        /**
+         * Appends whole records. If that fails part-way, the file is cut back to its previous
+         * size, so the next append does not follow a torn record.
+         */
+        void append(ByteBuffer records, boolean fsync) throws IOException {
+            long first = records.getLong(records.position() + 8);
+            long position = size;
+            try {
+                while (records.hasRemaining()) {
+                    position += channel.write(records, position);
+                }
+                if (fsync) {
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                try {
+                    channel.truncate(size);
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+            if (size == 0) {
+                firstMicros = first;
+            }
+            size = position;
+        }
+
+        /**
+         * Maps the committed part of the segment, or returns null if it has been deleted.
+         */
+        ByteBuffer map() throws IOException {
+            try {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } catch (ClosedChannelException e) {
+                // Expired by retention while we were looking at it
+                return null;
+            }
+        }
+
+        /**
+         * Drops a torn or corrupt tail left by a crash so appends continue from a clean record.
+         */
+        void truncateAfterLastValidRecord() throws IOException {
+            if (size == 0) {
+                return;
+            }
+            ByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int pos = 0;
+            while (pos + HEADER_BYTES <= map.limit()) {
+                int length = map.getInt(pos);
+                if (length < 0 || pos + HEADER_BYTES + length > map.limit()) {
+                    break;
+                }
+                CRC32C crc = new CRC32C();
+                crc.update(map.slice(pos + 8, HEADER_BYTES - 8 + length));
+                if ((int) crc.getValue() != map.getInt(pos + 4)) {
+                    break;
+                }
+                pos += HEADER_BYTES + length;
+            }
+            if (pos < size) {
+                System.err.println("Message log: truncating " + (size - pos) + " bytes of incomplete records in " + path);
+                channel.truncate(pos);
+                size = pos;
+                if (pos == 0) {
+                    firstMicros = NO_TIMESTAMP;
+                }
+            }
+        }
+
+        void delete() {
+            close();
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                System.err.println("Could not delete expired log segment " + path + ": " + e.getMessage());
+            }
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {}
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.chat.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Plain-text metrics port: every connection gets the current {@link ServerMetrics#dump()}
+ * and is closed, so {@code nc localhost <port>} is all it takes to look inside a running
+ * server. Binds to the loopback interface only.
+ */
+final class MetricsEndpoint implements Runnable {
+    private final ServerSocket serverSocket;
+    private final ServerMetrics metrics;
+
+    MetricsEndpoint(int port, ServerMetrics metrics) throws IOException {
+        this.serverSocket = new ServerSocket(port, 16, InetAddress.getLoopbackAddress());
+        this.metrics = metrics;
+    }
+
+    void start() {
+        Thread thread = new Thread(this, "metrics-endpoint");
+        thread.setDaemon(true);
+        thread.start();
+        System.out.println("Metrics available on port " + serverSocket.getLocalPort());
+    }
+
+    @Override
+    public void run() {
+        while (!serverSocket.isClosed()) {
+            try (Socket socket = serverSocket.accept(); OutputStream out = socket.getOutputStream()) {
+                out.write(metrics.dump().getBytes(StandardCharsets.US_ASCII));
+            } catch (IOException e) {
+                // Closed by shutdown(), or the reader went away
+            }
+        }
+    }
+
+    void shutdown() {
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {}
+    }
+}
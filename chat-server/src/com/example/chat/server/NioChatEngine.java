@@ -0,0 +1,81 @@
+package com.example.chat.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Selector-based server engine: one acceptor plus a small, fixed number of
+ * event loops, each multiplexing thousands of connections. Idle users cost
+ * a selection key and a session object rather than a parked thread.
+ */
+class NioChatEngine {
+    private final int port;
+    private final NioEventLoop[] loops;
+    private final int backlog;
+    private final SessionSettings settings;
+    private final ChatManager manager;
+    private final HandshakeGate gate;
+    private ServerSocketChannel serverChannel;
+    private int nextLoop;
+
+    NioChatEngine(int port, int eventLoops, int backlog, SessionSettings settings, ChatManager manager,
+                  HandshakeGate gate) throws IOException {
+        this.port = port;
+        this.backlog = backlog;
+        this.settings = settings;
+        this.manager = manager;
+        this.gate = gate;
+        this.loops = new NioEventLoop[Math.max(1, eventLoops)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new NioEventLoop("nio-loop-" + i);
+        }
+    }
+
+    /**
+     * Binds the port and accepts connections on the calling thread until closed.
+     */
+    void run() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), backlog);
+        for (NioEventLoop loop : loops) {
+            loop.start();
+        }
+        System.out.println("Chat server started on port " + port + " (nio, " + loops.length + " event loops)");
+
+        try {
+            while (serverChannel.isOpen()) {
+                SocketChannel channel = serverChannel.accept();
+                if (!gate.tryEnter()) {
+                    channel.close();
+                    continue;
+                }
+                try {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(settings.tcpNoDelay());
+                } catch (IOException e) {
+                    gate.abandon();
+                    channel.close();
+                    continue;
+                }
+                loops[nextLoop].register(channel, settings, manager, gate);
+                nextLoop = (nextLoop + 1) % loops.length;
+            }
+        } catch (ClosedChannelException e) {
+            // Closed by shutdown()
+        }
+    }
+
+    void shutdown() {
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException ignored) {}
+        for (NioEventLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+}
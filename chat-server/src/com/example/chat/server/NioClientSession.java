@@ -0,0 +1,255 @@
+package com.example.chat.server;
+
+import com.example.chat.common.Frame;
+import com.example.chat.common.Message;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Non-blocking client connection driven by a {@link NioEventLoop}.
+ * Decodes frames in the session's codec out of the loop's shared read buffer and
+ * writes frames from its bounded {@link OutboundQueue} whenever the socket is writable.
+ */
+class NioClientSession extends ChatSession {
+    private static final int MAX_GATHER = 64;
+
+    private final NioEventLoop loop;
+    private final SocketChannel channel;
+    private final OutboundQueue queue;
+    private final int maxBatchBytes;
+    private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+    private SelectionKey key;
+    // Frames being written with one gathering write; loop thread only, allocated on first write
+    private ByteBuffer[] batch;
+    private int batchStart;
+    private int batchEnd;
+    // Only allocated while a frame is split across reads; kept in write mode between reads
+    private ByteBuffer partial;
+
+    NioClientSession(NioEventLoop loop, SocketChannel channel, SessionSettings settings, ChatManager manager) {
+        super(settings, manager);
+        this.loop = loop;
+        this.channel = channel;
+        this.queue = new OutboundQueue(settings.outbound());
+        this.maxBatchBytes = settings.maxBatchBytes();
+    }
+
+    void attach(SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Reads what is available and dispatches every complete frame.
+     */
+    void onReadable(ByteBuffer buffer) {
+        buffer.clear();
+        int n;
+        try {
+            n = channel.read(buffer);
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        if (n < 0) {
+            close();
+            return;
+        }
+        buffer.flip();
+        ByteBuffer in = buffer;
+        if (partial != null) {
+            if (partial.remaining() < buffer.remaining()) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(partial.capacity() * 2, partial.position() + n));
+                partial.flip();
+                grown.put(partial);
+                partial = grown;
+            }
+            partial.put(buffer);
+            partial.flip();
+            in = partial;
+        }
+        dispatch(in);
+        if (!key.isValid()) {
+            return;
+        }
+        if (in == partial) {
+            if (partial.hasRemaining()) {
+                partial.compact();
+            } else {
+                partial = null;
+            }
+        } else if (buffer.hasRemaining()) {
+            partial = ByteBuffer.allocate(Math.max(4096, buffer.remaining() * 2));
+            partial.put(buffer);
+        }
+    }
+
+    /**
+     * Decodes and handles frames until the buffer runs out, the session closes or flood
+     * control pauses reading.
+     * @return true if reading was paused
+     */
+    private boolean dispatch(ByteBuffer in) {
+        try {
+            Message msg;
+            // The codec is re-read per frame because the JOIN handshake may switch it
+            while (key.isValid() && (msg = codec.decode(in)) != null) {
+                if (username == null) {
+                    join(msg);
+                    continue;
+                }
+                long pause = handleMessage(msg);
+                if (pause > 0 && key.isValid()) {
+                    pauseReading(pause);
+                    return true;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Closing " + username + ": " + e.getMessage());
+            close();
+        }
+        return false;
+    }
+
+    /**
+     * Stops reading for a while; frames already received wait in {@code partial}.
+     */
+    private void pauseReading(long nanos) {
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        afterPause(nanos, () -> loop.execute(this::resumeReading));
+    }
+
+    private void resumeReading() {
+        if (!key.isValid()) {
+            return;
+        }
+        if (partial != null) {
+            partial.flip();
+            boolean paused = dispatch(partial);
+            if (!key.isValid()) {
+                return;
+            }
+            if (partial.hasRemaining()) {
+                partial.compact();
+            } else {
+                partial = null;
+            }
+            if (paused) {
+                return;
+            }
+        }
+        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+    }
+
+    /**
+     * Queues the frame and lets the event loop write it. Safe to call from any thread.
+     * The write runs after the loop finishes its current batch of reads, so frames
+     * produced by one burst of inbound traffic leave in a single gathering write.
+     */
+    @Override
+    protected void enqueue(Frame frame) {
+        if (!queue.offer(frame)) {
+            System.err.println("Disconnecting slow client " + username);
+            close();
+            return;
+        }
+        if (writeScheduled.compareAndSet(false, true)) {
+            loop.execute(this::flush);
+        }
+    }
+
+    void onWritable() {
+        flush();
+    }
+
+    /**
+     * Writes queued frames, up to {@code maxBatchBytes} per gathering write, until the
+     * queue is empty or the socket buffer fills, in which case OP_WRITE is armed and the
+     * loop calls back later.
+     */
+    private void flush() {
+        if (!key.isValid()) {
+            queue.clear();
+            return;
+        }
+        try {
+            while (true) {
+                while (batchStart < batchEnd || fillBatch()) {
+                    long start = System.nanoTime();
+                    channel.write(batch, batchStart, batchEnd - batchStart);
+                    ServerMetrics.getInstance().socketWrite().record(System.nanoTime() - start);
+                    while (batchStart < batchEnd && !batch[batchStart].hasRemaining()) {
+                        batch[batchStart++] = null;
+                    }
+                    if (batchStart < batchEnd) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                writeScheduled.set(false);
+                // A producer may have queued after the last poll but before the flag was cleared
+                if (queue.depth() == 0 || !writeScheduled.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    /**
+     * Moves queued frames into the gather array. Returns false if nothing was queued.
+     */
+    private boolean fillBatch() {
+        if (batch == null) {
+            batch = new ByteBuffer[MAX_GATHER];
+        }
+        batchStart = 0;
+        batchEnd = 0;
+        int bytes = 0;
+        Frame frame;
+        while (batchEnd < MAX_GATHER && bytes < maxBatchBytes && (frame = queue.poll()) != null) {
+            ByteBuffer buffer = frame.buffer(codec);
+            bytes += buffer.remaining();
+            batch[batchEnd++] = buffer;
+        }
+        return batchEnd > 0;
+    }
+
+    @Override
+    protected InetAddress remoteAddress() {
+        return channel.socket().getInetAddress();
+    }
+
+    @Override
+    int outboundDepth() {
+        return queue.depth();
+    }
+
+    @Override
+    public void close() {
+        if (!loop.inEventLoop()) {
+            loop.execute(this::close);
+            return;
+        }
+        if (!markClosed()) {
+            return;
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {}
+        queue.clear();
+        batch = null;
+        batchStart = 0;
+        batchEnd = 0;
+        unregister();
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.chat.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Single selector thread serving many non-blocking client connections.
+ * All channel and selection-key mutations run on this thread; other threads
+ * hand work over through {@link #execute(Runnable)}.
+ */
+class NioEventLoop implements Runnable {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // Shared by every connection on this loop so idle users hold no read buffer
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    NioEventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Hands a newly accepted channel, holding a permit from {@code gate}, to this loop.
+     */
+    void register(SocketChannel channel, SessionSettings settings, ChatManager manager, HandshakeGate gate) {
+        execute(() -> {
+            try {
+                NioClientSession session = new NioClientSession(this, channel, settings, manager);
+                session.attach(channel.register(selector, SelectionKey.OP_READ, session));
+                session.expectHandshake(gate);
+            } catch (IOException e) {
+                gate.abandon();
+                try {
+                    channel.close();
+                } catch (IOException ignored) {}
+            }
+        });
+    }
+
+    /**
+     * Runs the task on the loop thread, waking the selector if needed.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                if (tasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    processKey(key);
+                }
+                // Writes queued while handling reads run here, once per iteration
+                runTasks();
+            } catch (IOException e) {
+                System.err.println("Event loop error: " + e.getMessage());
+            }
+        }
+        closeAll();
+    }
+
+    private void processKey(SelectionKey key) {
+        NioClientSession session = (NioClientSession) key.attachment();
+        try {
+            if (key.isReadable()) {
+                session.onReadable(readBuffer);
+            }
+            if (key.isValid() && key.isWritable()) {
+                session.onWritable();
+            }
+        } catch (CancelledKeyException e) {
+            session.close();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof NioClientSession session) {
+                session.close();
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException ignored) {}
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.chat.server;
+
+import com.example.chat.common.Config;
+import com.example.chat.common.Frame;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded per-session queue of frames waiting to be written to the client.
+ * Producers (broadcasting threads) never block on it; what happens when a slow
+ * client lets it fill up is decided by the {@link OverflowPolicy}.
+ */
+class OutboundQueue {
+    enum OverflowPolicy {
+        /** Discard the oldest queued frame to make room. */
+        DROP_OLDEST,
+        /** Discard the frame being offered. */
+        DROP_NEW,
+        /** Discard new frames, and disconnect once the oldest queued frame is older than the limit. */
+        DISCONNECT
+    }
+
+    /**
+     * Queue sizing and overflow settings, shared by all sessions of a server.
+     */
+    record Limits(int capacity, OverflowPolicy policy, long maxBacklogMillis) {
+        static Limits fromConfig(Config cfg) {
+            String policy = cfg.get("session.outbound.policy", OverflowPolicy.DROP_OLDEST.name());
+            return new Limits(
+                    Math.max(1, cfg.getInt("session.outbound.capacity", 1024)),
+                    OverflowPolicy.valueOf(policy.trim().toUpperCase(Locale.ROOT)),
+                    cfg.getInt("session.outbound.maxBacklogMillis", 10_000)
+            );
+        }
+    }
+
+    private static final int INITIAL_SLOTS = 16;
+
+    private static final LongAdder TOTAL_DROPPED = new LongAdder();
+    private static final LongAdder TOTAL_DISCONNECTS = new LongAdder();
+
+    private final Limits limits;
+    // Ring buffer of frames and the nanoTime each was queued at, grown on demand up to capacity
+    private Frame[] frames;
+    private long[] queuedAt;
+    // Lock rather than synchronized so virtual-thread producers never pin their carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private int head;
+    private int size;
+
+    OutboundQueue(Limits limits) {
+        this.limits = limits;
+        int slots = Math.min(INITIAL_SLOTS, limits.capacity());
+        this.frames = new Frame[slots];
+        this.queuedAt = new long[slots];
+    }
+
+    /**
+     * Queues the frame, applying the overflow policy when full.
+     * @return false if the session has fallen too far behind and must be disconnected
+     */
+    boolean offer(Frame frame) {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            if (limits.policy() == OverflowPolicy.DISCONNECT && size > 0
+                    && now - queuedAt[head] > limits.maxBacklogMillis() * 1_000_000L) {
+                TOTAL_DISCONNECTS.increment();
+                return false;
+            }
+            if (size == limits.capacity()) {
+                TOTAL_DROPPED.increment();
+                if (limits.policy() != OverflowPolicy.DROP_OLDEST) {
+                    return true;
+                }
+                removeHead();
+            } else if (size == frames.length) {
+                grow();
+            }
+            int tail = (head + size) % frames.length;
+            frames[tail] = frame;
+            queuedAt[tail] = now;
+            size++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the next frame, or returns null if none is queued. Called by the writer
+     * just before writing, so the frame's time in the queue is recorded here.
+     */
+    Frame poll() {
+        lock.lock();
+        try {
+            if (size == 0) {
+                return null;
+            }
+            ServerMetrics.getInstance().queueWait().record(System.nanoTime() - queuedAt[head]);
+            return removeHead();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void clear() {
+        lock.lock();
+        try {
+            Arrays.fill(frames, null);
+            head = 0;
+            size = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int depth() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void grow() {
+        int slots = Math.min(frames.length * 2, limits.capacity());
+        Frame[] newFrames = new Frame[slots];
+        long[] newQueuedAt = new long[slots];
+        for (int i = 0; i < size; i++) {
+            int from = (head + i) % frames.length;
+            newFrames[i] = frames[from];
+            newQueuedAt[i] = queuedAt[from];
+        }
+        frames = newFrames;
+        queuedAt = newQueuedAt;
+        head = 0;
+    }
+
+    private Frame removeHead() {
+        Frame frame = frames[head];
+        frames[head] = null;
+        head = (head + 1) % frames.length;
+        size--;
+        return frame;
+    }
+
+
+    /**
+     * Frames dropped by all queues since startup.
+     */
+    static long totalDropped() {
+        return TOTAL_DROPPED.sum();
+    }
+
+    /**
+     * Sessions disconnected for exceeding the backlog limit since startup.
+     */
+    static long totalDisconnects() {
+        return TOTAL_DISCONNECTS.sum();
+    }
+}
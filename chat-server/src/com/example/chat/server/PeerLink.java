@@ -0,0 +1,179 @@
+package com.example.chat.server;
+
+import com.example.chat.common.BinaryCodec;
+import com.example.chat.common.Frame;
+import com.example.chat.common.Message;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outbound link to one peer node. Relayed frames are queued and a writer thread sends
+ * whatever has piled up in one batch with a single flush. The link reconnects on its own;
+ * while it is down, frames for the peer are dropped rather than queued, because the peer's
+ * clients will not be waiting for them.
+ */
+final class PeerLink implements Runnable {
+    private static final int CONNECT_TIMEOUT_MILLIS = 5_000;
+
+    private record Outgoing(byte kind, byte[] frame) {}
+
+    private final ClusterNode node;
+    private final String host;
+    private final int port;
+    private final BlockingQueue<Outgoing> queue;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean connected;
+    private volatile boolean closed;
+    // Node id the peer introduced itself with; null until the first handshake
+    private volatile String peerId;
+    private Socket socket;
+
+    PeerLink(ClusterNode node, String address, int queueCapacity) {
+        int colon = address.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("Peer address must be host:port: " + address);
+        }
+        this.node = node;
+        this.host = address.substring(0, colon).trim();
+        this.port = Integer.parseInt(address.substring(colon + 1).trim());
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.writer = new Thread(this, "cluster-link-" + host + ":" + port);
+        this.writer.setDaemon(true);
+    }
+
+    void start() {
+        writer.start();
+    }
+
+    String peerId() {
+        return peerId;
+    }
+
+    boolean isConnected() {
+        return connected;
+    }
+
+    long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Queues a frame for the peer. Never blocks; drops the frame if the link is down or full.
+     */
+    void offer(byte kind, Frame frame) {
+        offer(kind, frame.encoded(BinaryCodec.INSTANCE));
+    }
+
+    private void offer(byte kind, byte[] encoded) {
+        if (!connected || !queue.offer(new Outgoing(kind, encoded))) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void run() {
+        List<Outgoing> batch = new ArrayList<>();
+        while (!closed) {
+            try (Socket s = new Socket()) {
+                s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+                s.setTcpNoDelay(true);
+                socket = s;
+                OutputStream out = new BufferedOutputStream(s.getOutputStream(), 64 * 1024);
+                handshake(s, out);
+                while (!closed) {
+                    Outgoing first = queue.poll(1, TimeUnit.SECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, node.settings().maxBatch() - 1);
+                    for (Outgoing outgoing : batch) {
+                        out.write(outgoing.kind());
+                        out.write(outgoing.frame());
+                    }
+                    out.flush();
+                    batch.clear();
+                }
+            } catch (IOException e) {
+                if (connected) {
+                    System.err.println("Cluster link to " + host + ":" + port + " lost: " + e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                connected = false;
+                dropped.addAndGet(batch.size());
+                batch.clear();
+            }
+            sleepBeforeReconnect();
+        }
+    }
+
+    /**
+     * Introduces this node, learns the peer's id and sends it the users connected here.
+     */
+    private void handshake(Socket s, OutputStream out) throws IOException {
+        out.write(ClusterNode.HELLO);
+        out.write(BinaryCodec.INSTANCE.encode(node.hello()));
+        out.flush();
+        s.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+        BufferedInputStream in = new BufferedInputStream(s.getInputStream());
+        int kind = in.read();
+        Message reply = kind == ClusterNode.HELLO ? BinaryCodec.INSTANCE.read(in) : null;
+        if (reply == null || reply.getFrom() == null) {
+            throw new IOException("Peer did not answer HELLO");
+        }
+        if (!node.authentic(reply)) {
+            throw new IOException("Peer answered with the wrong secret");
+        }
+        s.setSoTimeout(0);
+        peerId = reply.getFrom();
+        queue.clear();
+        node.linkUp(this);
+        System.out.println("Cluster link to " + peerId + " (" + host + ":" + port + ") is up");
+    }
+
+    /**
+     * Marks the link usable and queues the presence snapshot. Called with the node's presence
+     * lock held, so no user event can be queued ahead of the snapshot that it supersedes.
+     */
+    void open(Iterable<String> localUsers) {
+        connected = true;
+        for (String user : localUsers) {
+            offer(ClusterNode.USER_UP, BinaryCodec.INSTANCE.encode(ClusterNode.presence(node.nodeId(), user)));
+        }
+    }
+
+    private void sleepBeforeReconnect() {
+        try {
+            Thread.sleep(node.settings().reconnectMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            closed = true;
+        }
+    }
+
+    void close() {
+        closed = true;
+        connected = false;
+        writer.interrupt();
+        Socket s = socket;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException ignored) {}
+        }
+    }
+}
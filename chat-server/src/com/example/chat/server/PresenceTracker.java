@@ -0,0 +1,228 @@
+package com.example.chat.server;
+
+import com.example.chat.common.Config;
+import com.example.chat.common.Frame;
+import com.example.chat.common.Message;
+import com.example.chat.common.MessageType;
+import com.example.chat.common.Presence;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Batches presence for clients that negotiated it, so a wave of reconnects does not cost a
+ * JOIN per user to every user. Joins and leaves, here or on other nodes, only mark the user;
+ * every {@code window} the marked users are compared with the roster and the changes go out
+ * as one delta frame, encoded once, to each batched session. A batched session is sent the
+ * current roster, also one shared frame, when it joins.
+ * <p>
+ * Other sessions still get a JOIN or LEAVE per user, unless {@code legacyNotices} is off.
+ * Room notices are sent only while a room has at most {@code roomNoticeLimit} members;
+ * in larger rooms the user joining or leaving is the only one told.
+ */
+final class PresenceTracker {
+    private final long windowMillis;
+    private final int roomNoticeLimit;
+    private final boolean legacyNotices;
+    private final ChatManager manager;
+    // Users whose presence may have changed since the last flush
+    private final Set<String> changed = ConcurrentHashMap.newKeySet();
+    // Sessions sent a JOIN or LEAVE per user
+    private final Set<ChatSession> legacy = ConcurrentHashMap.newKeySet();
+    // Orders a new session's roster against the deltas that follow it
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Set<String> roster = new HashSet<>();
+    private final Set<ChatSession> batched = new HashSet<>();
+    private long version;
+    // The roster at this version, built for the first session to join after a change
+    private Frame snapshot;
+    private final LongAdder deltas = new LongAdder();
+
+    PresenceTracker(long windowMillis, int roomNoticeLimit, boolean legacyNotices, ChatManager manager) {
+        this.windowMillis = Math.max(1, windowMillis);
+        this.roomNoticeLimit = roomNoticeLimit;
+        this.legacyNotices = legacyNotices;
+        this.manager = manager;
+    }
+
+    /**
+     * Returns null, for a JOIN and LEAVE per user to everyone, if
+     * {@code presence.windowMillis} is 0.
+     */
+    static PresenceTracker fromConfig(Config cfg, ChatManager manager) {
+        int window = cfg.getInt("presence.windowMillis", 250);
+        if (window <= 0) {
+            return null;
+        }
+        return new PresenceTracker(
+                window,
+                cfg.getInt("presence.roomNoticeLimit", 500),
+                cfg.getBoolean("presence.legacyNotices", true),
+                manager
+        );
+    }
+
+    /**
+     * Schedules a flush every window.
+     */
+    void start(ScheduledExecutorService scheduler) {
+        scheduler.scheduleWithFixedDelay(this::flush, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts sending presence to a session that has just joined: the roster now, if it is
+     * batched, and the deltas after it.
+     */
+    void add(ChatSession session) {
+        if (!session.batchedPresence()) {
+            legacy.add(session);
+            return;
+        }
+        lock.lock();
+        try {
+            batched.add(session);
+            if (snapshot == null) {
+                snapshot = Frame.of(new Message("SERVER", "ALL", MessageType.PRESENCE, Presence.roster(version, roster)));
+            }
+            // Under the lock, so no later delta can be queued ahead of it
+            session.send(snapshot);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void remove(ChatSession session) {
+        if (!legacy.remove(session)) {
+            lock.lock();
+            try {
+                batched.remove(session);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Puts a session that took over another in its place, in the mode it inherited.
+     */
+    void replace(ChatSession previous, ChatSession successor) {
+        if (legacy.remove(previous)) {
+            legacy.add(successor);
+            return;
+        }
+        lock.lock();
+        try {
+            if (batched.remove(previous)) {
+                batched.add(successor);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Notes that {@code username} may have come online or gone offline; the next flush
+     * tells batched sessions if it did.
+     */
+    void changed(String username) {
+        changed.add(username);
+    }
+
+    /**
+     * The sessions to send a per-user JOIN or LEAVE to.
+     */
+    Collection<ChatSession> noticeRecipients() {
+        return legacyNotices ? legacy : Set.of();
+    }
+
+    /**
+     * Whether a room of {@code members} still gets a notice when one of them joins or leaves.
+     */
+    boolean roomNotices(int members) {
+        return roomNoticeLimit <= 0 || members <= roomNoticeLimit;
+    }
+
+    /**
+     * Sends the batched sessions one delta with the users that came online or went offline
+     * since the last flush, if any did. A user who left and came back in between is not in it.
+     */
+    void flush() {
+        try {
+            if (changed.isEmpty()) {
+                return;
+            }
+            List<String> joined = new ArrayList<>();
+            List<String> left = new ArrayList<>();
+            Frame delta;
+            ChatSession[] recipients;
+            lock.lock();
+            try {
+                for (Iterator<String> it = changed.iterator(); it.hasNext(); ) {
+                    String username = it.next();
+                    it.remove();
+                    if (manager.isOnline(username)) {
+                        if (roster.add(username)) {
+                            joined.add(username);
+                        }
+                    } else if (roster.remove(username)) {
+                        left.add(username);
+                    }
+                }
+                if (joined.isEmpty() && left.isEmpty()) {
+                    return;
+                }
+                version++;
+                snapshot = null;
+                delta = Frame.of(new Message("SERVER", "ALL", MessageType.PRESENCE, Presence.delta(version, joined, left)));
+                recipients = batched.toArray(new ChatSession[0]);
+            } finally {
+                lock.unlock();
+            }
+            deltas.increment();
+            manager.fanOut(recipients, delta);
+        } catch (RuntimeException e) {
+            // Never let one bad session cancel the periodic task
+            System.err.println("Presence flush failed: " + e);
+        }
+    }
+
+    long version() {
+        lock.lock();
+        try {
+            return version;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int rosterSize() {
+        lock.lock();
+        try {
+            return roster.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int batchedSessions() {
+        lock.lock();
+        try {
+            return batched.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long deltas() {
+        return deltas.sum();
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.chat.server;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded set of the most recently seen message ids, used to drop relayed duplicates.
+ * Once full, each new id evicts the oldest.
+ */
+final class RecentIds {
+    private final UUID[] ring;
+    private final Set<UUID> members;
+    private final ReentrantLock lock = new ReentrantLock();
+    private int next;
+
+    RecentIds(int capacity) {
+        this.ring = new UUID[Math.max(1, capacity)];
+        this.members = new HashSet<>(ring.length * 4 / 3 + 1);
+    }
+
+    /**
+     * Records the id, returning false if it was already among the recent ones.
+     */
+    boolean add(UUID id) {
+        lock.lock();
+        try {
+            if (!members.add(id)) {
+                return false;
+            }
+            UUID evicted = ring[next];
+            if (evicted != null) {
+                members.remove(evicted);
+            }
+            ring[next] = id;
+            next = (next + 1) % ring.length;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.example.chat.server;
+
+import com.example.chat.common.Config;
+import com.example.chat.common.Frame;
+import com.example.chat.common.MessageType;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Lets clients that ask for it resume their session after the connection drops. A resumable
+ * session keeps every frame it is sent until the client acknowledges it, up to
+ * {@code capacity} frames. When its connection goes away it is parked rather than removed:
+ * it stays registered, so no LEAVE is broadcast, and keeps what it is sent. A new connection
+ * that presents the session's token within {@code window} takes it over silently and is sent
+ * only what the client had not received. Otherwise the session ends when the window closes.
+ */
+final class ResumeWindow {
+    private final long windowMillis;
+    private final int capacity;
+    private final ScheduledExecutorService scheduler;
+    private final ConcurrentMap<String, ChatSession> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger parked = new AtomicInteger();
+    private final LongAdder resumed = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+
+    ResumeWindow(long windowMillis, int capacity, ScheduledExecutorService scheduler) {
+        this.windowMillis = windowMillis;
+        this.capacity = Math.max(1, capacity);
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Returns null, for no resumable sessions, if {@code session.resume.windowSeconds} is 0.
+     */
+    static ResumeWindow fromConfig(Config cfg, ScheduledExecutorService scheduler) {
+        int window = cfg.getInt("session.resume.windowSeconds", 30);
+        if (window <= 0) {
+            return null;
+        }
+        return new ResumeWindow(
+                TimeUnit.SECONDS.toMillis(window), cfg.getInt("session.resume.capacity", 1024), scheduler);
+    }
+
+    /**
+     * Makes {@code session} resumable under a new token.
+     */
+    Buffer open(ChatSession session) {
+        String token = UUID.randomUUID().toString();
+        Buffer buffer = new Buffer(token, session);
+        sessions.put(token, buffer.owner);
+        return buffer;
+    }
+
+    /**
+     * Returns the session of {@code username} registered under {@code token}, or null.
+     */
+    ChatSession find(String token, String username) {
+        ChatSession session = sessions.get(token);
+        return session != null && username.equals(session.getUsername()) ? session : null;
+    }
+
+    /**
+     * Registers {@code successor} under the token of the session it has taken over.
+     */
+    Buffer adopt(Buffer previous, ChatSession successor) {
+        Buffer buffer = new Buffer(previous.token, successor);
+        sessions.put(previous.token, successor);
+        resumed.increment();
+        return buffer;
+    }
+
+    int parked() {
+        return parked.get();
+    }
+
+    long resumed() {
+        return resumed.sum();
+    }
+
+    long expired() {
+        return expired.sum();
+    }
+
+    private enum State { ATTACHED, PARKED, TAKEN, ENDED }
+
+    /**
+     * The frames one resumable session has been sent and the client not yet acknowledged,
+     * in the order they were queued, and what has become of the session.
+     */
+    final class Buffer {
+        private final String token;
+        private final ChatSession owner;
+        // Orders retaining a frame with queueing it, and both with hand-over
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ArrayDeque<Frame> unacked = new ArrayDeque<>();
+        private State state = State.ATTACHED;
+        // Frames were discarded before the client acknowledged them
+        private boolean overflowed;
+        // The client said it was leaving, so there is nothing to park
+        private boolean leaving;
+        private ChatSession successor;
+        private ScheduledFuture<?> expiry;
+
+        private Buffer(String token, ChatSession owner) {
+            this.token = token;
+            this.owner = owner;
+        }
+
+        String token() {
+            return token;
+        }
+
+        /**
+         * Keeps the frame until it is acknowledged and, while the client is connected,
+         * queues it for the connection.
+         * @return the session that took this one over, which the frame must go to instead;
+         *         otherwise null
+         */
+        ChatSession deliver(Frame frame) {
+            lock.lock();
+            try {
+                if (successor != null) {
+                    return successor;
+                }
+                MessageType type = frame.getMessage().getType();
+                if (type != null && type.isResent()) {
+                    if (unacked.size() == capacity) {
+                        unacked.poll();
+                        overflowed = true;
+                    }
+                    unacked.add(frame);
+                }
+                if (state == State.ATTACHED) {
+                    owner.enqueue(frame);
+                }
+                return null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Forgets the frames up to and including the one with message id {@code id}. An id
+         * that is not retained is ignored.
+         */
+        void ack(UUID id) {
+            lock.lock();
+            try {
+                // Everything before it was received too
+                for (int count = indexAfter(id); count > 0; count--) {
+                    unacked.poll();
+                    overflowed = false;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Marks the client as leaving for good: the session ends as soon as the connection does.
+         */
+        void leaving() {
+            lock.lock();
+            try {
+                leaving = true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Parks the session once its connection is gone, until {@code end} runs at the end of
+         * the window. A session that has been taken over is left to its successor.
+         * Never removes the session itself, as this may run with the lock held by a sender.
+         */
+        void park(Runnable end) {
+            lock.lock();
+            try {
+                if (state != State.ATTACHED) {
+                    return;
+                }
+                state = State.PARKED;
+                parked.incrementAndGet();
+                try {
+                    expiry = scheduler.schedule(end, leaving ? 0 : windowMillis, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // Shutting down; the session goes with the server
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Ends a parked session.
+         * @return true if the caller must now remove it; false if it was resumed or not parked
+         */
+        boolean end() {
+            lock.lock();
+            try {
+                if (state != State.PARKED) {
+                    return false;
+                }
+                state = State.ENDED;
+                parked.decrementAndGet();
+                if (!leaving) {
+                    expired.increment();
+                }
+                if (expiry != null) {
+                    expiry.cancel(false);
+                }
+                sessions.remove(token, owner);
+                unacked.clear();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Hands the session over to {@code next}, a new connection of the same client that has
+         * received everything up to the message {@code acked}, if known. From now on frames
+         * sent to this session go to {@code next}.
+         * @return the frames to resend, oldest first; or null if the session cannot be resumed,
+         *         because it has ended, the client is leaving, or frames it had not received
+         *         were discarded
+         */
+        List<Frame> handOver(ChatSession next, UUID acked) {
+            lock.lock();
+            try {
+                int from = acked == null ? -1 : indexAfter(acked);
+                if (state == State.ENDED || state == State.TAKEN || leaving || (from < 0 && overflowed)) {
+                    return null;
+                }
+                if (state == State.PARKED) {
+                    parked.decrementAndGet();
+                    if (expiry != null) {
+                        expiry.cancel(false);
+                    }
+                }
+                state = State.TAKEN;
+                successor = next;
+                List<Frame> missed = new ArrayList<>(unacked);
+                unacked.clear();
+                return from < 0 ? missed : missed.subList(from, missed.size());
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Position just past the frame with message id {@code id}, or -1 if none is retained.
+         */
+        private int indexAfter(UUID id) {
+            int index = 0;
+            for (Iterator<Frame> it = unacked.iterator(); it.hasNext(); index++) {
+                if (id.equals(it.next().getMessage().getId())) {
+                    return index + 1;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.chat.server;
+
+import com.example.chat.common.Frame;
+
+import java.util.Arrays;
+
+/**
+ * An immutable snapshot of a room's members. Membership changes produce a new Room,
+ * so fan-out walks a plain array without locking or copying.
+ */
+record Room(String name, ChatSession[] members) {
+    /** Prefix that marks {@code Message.to} as a room rather than a user. */
+    static final String PREFIX = "#";
+    static final int MAX_NAME_LENGTH = 64;
+
+    static boolean isRoom(String to) {
+        return to != null && to.startsWith(PREFIX);
+    }
+
+    static boolean isValidName(String name) {
+        if (!isRoom(name) || name.length() < 2 || name.length() > MAX_NAME_LENGTH) {
+            return false;
+        }
+        for (int i = 1; i < name.length(); i++) {
+            if (Character.isWhitespace(name.charAt(i)) || Character.isISOControl(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    Room with(ChatSession session) {
+        ChatSession[] updated = Arrays.copyOf(members, members.length + 1);
+        updated[members.length] = session;
+        return new Room(name, updated);
+    }
+
+    /**
+     * Returns the room without {@code session}, or null if it would be empty.
+     */
+    Room without(ChatSession session) {
+        int index = indexOf(session);
+        if (index < 0) {
+            return this;
+        }
+        if (members.length == 1) {
+            return null;
+        }
+        ChatSession[] updated = new ChatSession[members.length - 1];
+        System.arraycopy(members, 0, updated, 0, index);
+        System.arraycopy(members, index + 1, updated, index, members.length - index - 1);
+        return new Room(name, updated);
+    }
+
+    /**
+     * Returns the room with {@code successor} as a member in place of {@code previous}.
+     */
+    Room replace(ChatSession previous, ChatSession successor) {
+        int index = indexOf(previous);
+        if (index < 0) {
+            return this;
+        }
+        ChatSession[] updated = members.clone();
+        updated[index] = successor;
+        return new Room(name, updated);
+    }
+
+    boolean contains(ChatSession session) {
+        return indexOf(session) >= 0;
+    }
+
+    void send(Frame frame) {
+        for (ChatSession member : members) {
+            member.send(frame);
+        }
+    }
+
+    private int indexOf(ChatSession session) {
+        for (int i = 0; i < members.length; i++) {
+            if (members[i] == session) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
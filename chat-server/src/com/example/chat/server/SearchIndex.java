@@ -0,0 +1,654 @@
+package com.example.chat.server;
+
+import com.example.chat.common.BinaryCodec;
+import com.example.chat.common.Config;
+import com.example.chat.common.Frame;
+import com.example.chat.common.InstantFormat;
+import com.example.chat.common.Message;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Full-text index of the chat messages sent to everyone and to rooms, for SEARCH queries.
+ * <p>
+ * {@link #add} only enqueues; a single indexer thread splits bodies into words and adds them
+ * to an in-memory segment of posting lists. Queries run on the same thread, so the index
+ * needs no locks and a query sees every message queued before it. If the indexer falls
+ * behind and the queue fills, messages are left out of the index rather than slowing the
+ * chat down.
+ * <p>
+ * Once the in-memory segment's estimated size reaches {@code search.memoryBytes} it is
+ * spilled to a segment file, which is then read through a read-only memory map, and only
+ * the newest {@code search.retentionSegments} files are kept. A posting list holds the
+ * ascending numbers of the documents with a term, as varint-encoded gaps. The sender and
+ * destination are indexed as the terms {@code from:<user>} and {@code in:<to>}, which no body
+ * can produce.
+ * <pre>
+ * file      := header docs postings termBytes docTable termTable
+ * header    := magic:i32 docCount:i32 termCount:i32 docTableOffset:i32 termTableOffset:i32
+ * docTable  := (offset:i32 length:i32 micros:i64)*          one per document, in order
+ * termTable := (termOffset:i32 termLength:i32 postingsOffset:i32 postingsLength:i32 docFreq:i32)*
+ * </pre>
+ * Documents are messages in the binary wire codec; terms are sorted by their UTF-8 bytes.
+ */
+final class SearchIndex implements Closeable {
+    private static final String SUFFIX = ".idx";
+    private static final int MAGIC = 0x43485849;
+    private static final int HEADER_BYTES = 20;
+    private static final int DOC_ENTRY_BYTES = 16;
+    private static final int TERM_ENTRY_BYTES = 20;
+    private static final int MAX_TERM_CHARS = 64;
+    // Rough heap cost of an indexed message and of a new term, besides their characters
+    private static final int DOC_OVERHEAD = 96;
+    private static final int TERM_OVERHEAD = 80;
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+    private static final int[] NONE = new int[0];
+
+    /**
+     * Index settings, read from the {@code search.*} keys of the server configuration.
+     */
+    record Settings(Path dir, long memoryBytes, int retentionSegments, int queueCapacity, int maxResults) {
+        static Settings fromConfig(Config cfg) {
+            return new Settings(
+                    Paths.get(cfg.get("search.dir", "search-index")),
+                    Math.max(1, cfg.getInt("search.memoryBytes", 16 * 1024 * 1024)),
+                    Math.max(1, cfg.getInt("search.retentionSegments", 16)),
+                    cfg.getInt("search.queueCapacity", 65_536),
+                    Math.max(1, cfg.getInt("search.maxResults", 50))
+            );
+        }
+    }
+
+    /**
+     * A parsed query: messages with all of {@code terms}, sent within the time bounds (either
+     * may be null), at most {@code limit} of them.
+     */
+    record Query(List<String> terms, Instant after, Instant before, int limit) {}
+
+    private final Settings settings;
+    private final BlockingQueue<Runnable> pending;
+    private final Thread indexer;
+    // Oldest first; only the indexer thread adds and expires segments
+    private final List<FileSegment> segments = new CopyOnWriteArrayList<>();
+    private final AtomicLong indexed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong queries = new AtomicLong();
+    private volatile boolean closed;
+    private volatile MemorySegment active = new MemorySegment();
+    private long nextSegment;
+
+    private SearchIndex(Settings settings) {
+        this.settings = settings;
+        this.pending = new ArrayBlockingQueue<>(settings.queueCapacity());
+        this.indexer = new Thread(this::indexLoop, "search-index");
+        this.indexer.setDaemon(true);
+    }
+
+    /**
+     * Opens the index in {@code settings.dir()}, with the segment files already there.
+     */
+    static SearchIndex open(Settings settings) throws IOException {
+        SearchIndex index = new SearchIndex(settings);
+        index.recover();
+        index.indexer.start();
+        return index;
+    }
+
+    private void recover() throws IOException {
+        Files.createDirectories(settings.dir());
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> listing = Files.list(settings.dir())) {
+            listing.forEach(files::add);
+        }
+        Collections.sort(files);
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            if (name.endsWith(SUFFIX + ".tmp")) {
+                // A spill cut short by a crash
+                Files.deleteIfExists(file);
+                continue;
+            }
+            if (!name.endsWith(SUFFIX)) {
+                continue;
+            }
+            try {
+                long index = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+                segments.add(FileSegment.open(file));
+                nextSegment = index + 1;
+            } catch (NumberFormatException | IOException e) {
+                System.err.println("Search index: skipping unreadable segment " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Queues a message for indexing. Never blocks.
+     * @return false if the message was left out because the indexer is behind
+     */
+    boolean add(Frame frame) {
+        Message message = frame.getMessage();
+        if (closed || !pending.offer(() -> index(message))) {
+            if (dropped.getAndIncrement() == 0) {
+                System.err.println("Search index is falling behind; some messages are not indexed");
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Queues a query. {@code reply} is called on the indexer thread with the matching messages
+     * sent to everyone or to one of {@code rooms}, newest first.
+     * @return false if the query was refused because the indexer is behind
+     */
+    boolean search(Query query, Set<String> rooms, Consumer<List<Message>> reply) {
+        return !closed && pending.offer(() -> {
+            queries.incrementAndGet();
+            reply.accept(run(query, rooms));
+        });
+    }
+
+    /**
+     * Parses a query: words that must all appear, and any of {@code from:<user>},
+     * {@code in:<#room or ALL>}, {@code after:<instant>}, {@code before:<instant>} and
+     * {@code limit:<count>}, separated by spaces.
+     * @throws IllegalArgumentException if it is malformed or has nothing to match
+     */
+    Query parse(String text) {
+        List<String> terms = new ArrayList<>();
+        Instant after = null;
+        Instant before = null;
+        int limit = Math.min(20, settings.maxResults());
+        for (String token : (text == null ? "" : text).trim().split("\\s+")) {
+            try {
+                if (token.startsWith("from:") || token.startsWith("in:")) {
+                    terms.add(token);
+                } else if (token.startsWith("after:")) {
+                    after = InstantFormat.parse(token.substring(6));
+                } else if (token.startsWith("before:")) {
+                    before = InstantFormat.parse(token.substring(7));
+                } else if (token.startsWith("limit:")) {
+                    limit = Math.max(1, Math.min(settings.maxResults(), Integer.parseInt(token.substring(6))));
+                } else {
+                    terms.addAll(words(token));
+                }
+            } catch (DateTimeParseException | NumberFormatException e) {
+                throw new IllegalArgumentException("Unreadable " + token);
+            }
+        }
+        if (terms.isEmpty()) {
+            throw new IllegalArgumentException("Nothing to search for");
+        }
+        return new Query(List.copyOf(terms), after, before, limit);
+    }
+
+    long indexed() {
+        return indexed.get();
+    }
+
+    long dropped() {
+        return dropped.get();
+    }
+
+    long queries() {
+        return queries.get();
+    }
+
+    int segmentCount() {
+        return segments.size();
+    }
+
+    long memoryBytes() {
+        return active.bytes;
+    }
+
+    // ---- Indexer thread ----
+
+    private void indexLoop() {
+        while (!closed || !pending.isEmpty()) {
+            try {
+                Runnable task = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (task != null) {
+                    task.run();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                System.err.println("Search index task failed: " + e);
+            }
+        }
+    }
+
+    private void index(Message message) {
+        MemorySegment segment = active;
+        segment.add(message);
+        indexed.incrementAndGet();
+        if (segment.bytes >= settings.memoryBytes()) {
+            spill();
+        }
+    }
+
+    /**
+     * Writes the in-memory segment to a file and starts a new one. If the file cannot be
+     * written, its messages are given up rather than held past the memory bound.
+     */
+    private void spill() {
+        MemorySegment full = active;
+        active = new MemorySegment();
+        if (full.docs.isEmpty()) {
+            return;
+        }
+        Path target = settings.dir().resolve(String.format("%020d%s", nextSegment, SUFFIX));
+        Path temporary = settings.dir().resolve(target.getFileName() + ".tmp");
+        try {
+            ByteBuffer file = full.write();
+            try (FileChannel channel = FileChannel.open(temporary,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while (file.hasRemaining()) {
+                    channel.write(file);
+                }
+                channel.force(false);
+            }
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+            segments.add(FileSegment.open(target));
+            nextSegment++;
+            while (segments.size() > settings.retentionSegments()) {
+                segments.remove(0).delete();
+            }
+        } catch (IOException e) {
+            System.err.println("Search index: could not spill " + full.docs.size() + " messages: " + e.getMessage());
+        }
+    }
+
+    private List<Message> run(Query query, Set<String> rooms) {
+        long after = query.after() == null ? NO_TIMESTAMP : toEpochMicros(query.after());
+        long before = query.before() == null ? Long.MAX_VALUE : toEpochMicros(query.before());
+        List<Segment> all = new ArrayList<>(segments);
+        all.add(active);
+        List<Message> hits = new ArrayList<>();
+        for (int s = all.size() - 1; s >= 0 && hits.size() < query.limit(); s--) {
+            Segment segment = all.get(s);
+            try {
+                int[] docs = match(segment, query.terms());
+                for (int i = docs.length - 1; i >= 0 && hits.size() < query.limit(); i--) {
+                    long micros = segment.micros(docs[i]);
+                    if ((after != NO_TIMESTAMP && micros <= after) || micros >= before) {
+                        continue;
+                    }
+                    Message message = segment.doc(docs[i]);
+                    String to = message == null ? null : message.getTo();
+                    if (message != null && (to == null || to.equals("ALL") || rooms.contains(to))) {
+                        hits.add(message);
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Search index: skipping unreadable segment: " + e.getMessage());
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Documents with every term, ascending; the rarest term's list is intersected first.
+     */
+    private static int[] match(Segment segment, List<String> terms) {
+        int[][] lists = new int[terms.size()][];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = segment.postings(terms.get(i));
+        }
+        Arrays.sort(lists, Comparator.comparingInt(list -> list.length));
+        int[] result = lists[0];
+        for (int i = 1; i < lists.length && result.length > 0; i++) {
+            result = intersect(result, lists[i]);
+        }
+        return result;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    /**
+     * The distinct words of {@code text}: runs of letters and digits, lower-cased and cut to
+     * {@value #MAX_TERM_CHARS} characters.
+     */
+    static Set<String> words(String text) {
+        Set<String> words = new LinkedHashSet<>();
+        if (text == null) {
+            return words;
+        }
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < text.length(); ) {
+            int cp = text.codePointAt(i);
+            i += Character.charCount(cp);
+            if (Character.isLetterOrDigit(cp)) {
+                if (word.length() < MAX_TERM_CHARS) {
+                    word.appendCodePoint(Character.toLowerCase(cp));
+                }
+            } else if (word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if (word.length() > 0) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    private static long toEpochMicros(Instant instant) {
+        return instant.getEpochSecond() * 1_000_000L + instant.getNano() / 1_000;
+    }
+
+    /**
+     * Stops accepting messages and queries, indexes what is already queued and spills the
+     * in-memory segment so it survives a restart.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            indexer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!indexer.isAlive()) {
+            spill();
+        }
+    }
+
+    // ---- Segments ----
+
+    private interface Segment {
+        /** Ascending numbers of the documents with {@code term}. */
+        int[] postings(String term);
+
+        long micros(int doc) throws IOException;
+
+        Message doc(int doc) throws IOException;
+    }
+
+    /**
+     * Growable posting list of ascending document numbers, as varint gaps.
+     */
+    private static final class Postings {
+        private byte[] bytes = new byte[8];
+        private int length;
+        private int count;
+        private int last;
+
+        /**
+         * Appends a document number larger than any before it.
+         * @return how many bytes the list grew by
+         */
+        int add(int doc) {
+            int grown = 0;
+            if (length + 5 > bytes.length) {
+                grown = bytes.length;
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            int gap = doc - last;
+            last = doc;
+            count++;
+            while ((gap & ~0x7F) != 0) {
+                bytes[length++] = (byte) ((gap & 0x7F) | 0x80);
+                gap >>>= 7;
+            }
+            bytes[length++] = (byte) gap;
+            return grown;
+        }
+
+        int[] decode() {
+            return SearchIndex.decode(ByteBuffer.wrap(bytes, 0, length), count);
+        }
+    }
+
+    private static int[] decode(ByteBuffer in, int count) {
+        int[] docs = new int[count];
+        int doc = 0;
+        for (int i = 0; i < count; i++) {
+            int gap = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = in.get();
+                gap |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            doc += gap;
+            docs[i] = doc;
+        }
+        return docs;
+    }
+
+    /**
+     * The newest messages, indexed in memory until spilled. Only the indexer thread touches it.
+     */
+    private static final class MemorySegment implements Segment {
+        private final List<Message> docs = new ArrayList<>();
+        private final Map<String, Postings> terms = new HashMap<>();
+        // Estimated heap use; read by the metrics gauge
+        private volatile long bytes;
+
+        void add(Message message) {
+            int doc = docs.size();
+            docs.add(message);
+            long grown = DOC_OVERHEAD + 2L * (message.getBody() == null ? 0 : message.getBody().length());
+            Set<String> words = words(message.getBody());
+            words.add("from:" + message.getFrom());
+            words.add("in:" + (message.getTo() == null ? "ALL" : message.getTo()));
+            for (String word : words) {
+                Postings postings = terms.get(word);
+                if (postings == null) {
+                    postings = new Postings();
+                    terms.put(word, postings);
+                    grown += TERM_OVERHEAD + 2L * word.length();
+                }
+                grown += postings.add(doc);
+            }
+            bytes += grown;
+        }
+
+        @Override
+        public int[] postings(String term) {
+            Postings postings = terms.get(term);
+            return postings == null ? NONE : postings.decode();
+        }
+
+        @Override
+        public long micros(int doc) {
+            Instant timestamp = docs.get(doc).getTimestamp();
+            return timestamp == null ? NO_TIMESTAMP : toEpochMicros(timestamp);
+        }
+
+        @Override
+        public Message doc(int doc) {
+            return docs.get(doc);
+        }
+
+        /**
+         * Lays the segment out in the file format, ready to be written.
+         */
+        ByteBuffer write() {
+            byte[][] encoded = new byte[docs.size()][];
+            long size = HEADER_BYTES + (long) DOC_ENTRY_BYTES * docs.size() + (long) TERM_ENTRY_BYTES * terms.size();
+            for (int i = 0; i < encoded.length; i++) {
+                encoded[i] = BinaryCodec.INSTANCE.encode(docs.get(i));
+                size += encoded[i].length;
+            }
+            List<Map.Entry<byte[], Postings>> sorted = new ArrayList<>(terms.size());
+            for (Map.Entry<String, Postings> entry : terms.entrySet()) {
+                byte[] term = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                sorted.add(Map.entry(term, entry.getValue()));
+                size += term.length + entry.getValue().length;
+            }
+            sorted.sort((a, b) -> Arrays.compareUnsigned(a.getKey(), b.getKey()));
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Search segment too large: " + size + " bytes");
+            }
+            ByteBuffer out = ByteBuffer.allocate((int) size);
+            out.position(HEADER_BYTES);
+            int[] docOffsets = new int[encoded.length];
+            for (int i = 0; i < encoded.length; i++) {
+                docOffsets[i] = out.position();
+                out.put(encoded[i]);
+            }
+            int[] postingsOffsets = new int[sorted.size()];
+            for (int i = 0; i < sorted.size(); i++) {
+                Postings postings = sorted.get(i).getValue();
+                postingsOffsets[i] = out.position();
+                out.put(postings.bytes, 0, postings.length);
+            }
+            int[] termOffsets = new int[sorted.size()];
+            for (int i = 0; i < sorted.size(); i++) {
+                termOffsets[i] = out.position();
+                out.put(sorted.get(i).getKey());
+            }
+            int docTable = out.position();
+            for (int i = 0; i < encoded.length; i++) {
+                out.putInt(docOffsets[i]).putInt(encoded[i].length).putLong(micros(i));
+            }
+            int termTable = out.position();
+            for (int i = 0; i < sorted.size(); i++) {
+                Postings postings = sorted.get(i).getValue();
+                out.putInt(termOffsets[i]).putInt(sorted.get(i).getKey().length)
+                        .putInt(postingsOffsets[i]).putInt(postings.length).putInt(postings.count);
+            }
+            out.putInt(0, MAGIC).putInt(4, encoded.length).putInt(8, sorted.size())
+                    .putInt(12, docTable).putInt(16, termTable);
+            return out.flip();
+        }
+    }
+
+    /**
+     * A spilled segment, read through a memory map; immutable once written.
+     */
+    private static final class FileSegment implements Segment {
+        private final Path path;
+        private final MappedByteBuffer map;
+        private final int docCount;
+        private final int termCount;
+        private final int docTable;
+        private final int termTable;
+
+        private FileSegment(Path path, MappedByteBuffer map) throws IOException {
+            this.path = path;
+            this.map = map;
+            if (map.limit() < HEADER_BYTES || map.getInt(0) != MAGIC) {
+                throw new IOException("not a search index segment");
+            }
+            this.docCount = map.getInt(4);
+            this.termCount = map.getInt(8);
+            this.docTable = map.getInt(12);
+            this.termTable = map.getInt(16);
+            if (docTable < HEADER_BYTES || (long) docTable + (long) DOC_ENTRY_BYTES * docCount > termTable
+                    || (long) termTable + (long) TERM_ENTRY_BYTES * termCount != map.limit()) {
+                throw new IOException("corrupt search index segment");
+            }
+        }
+
+        static FileSegment open(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return new FileSegment(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+
+        @Override
+        public int[] postings(String term) {
+            byte[] key = term.getBytes(StandardCharsets.UTF_8);
+            int low = 0;
+            int high = termCount - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int entry = termTable + mid * TERM_ENTRY_BYTES;
+                int cmp = compare(map.getInt(entry), map.getInt(entry + 4), key);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return decode(map.slice(map.getInt(entry + 8), map.getInt(entry + 12)), map.getInt(entry + 16));
+                }
+            }
+            return NONE;
+        }
+
+        /**
+         * Compares the term of {@code length} bytes at {@code offset} with {@code key}, unsigned.
+         */
+        private int compare(int offset, int length, byte[] key) {
+            int common = Math.min(length, key.length);
+            for (int i = 0; i < common; i++) {
+                int cmp = Byte.compareUnsigned(map.get(offset + i), key[i]);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return Integer.compare(length, key.length);
+        }
+
+        @Override
+        public long micros(int doc) {
+            return map.getLong(docTable + doc * DOC_ENTRY_BYTES + 8);
+        }
+
+        @Override
+        public Message doc(int doc) throws IOException {
+            int entry = docTable + doc * DOC_ENTRY_BYTES;
+            return BinaryCodec.INSTANCE.decode(map.slice(map.getInt(entry), map.getInt(entry + 4)));
+        }
+
+        void delete() {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                System.err.println("Could not delete expired search segment " + path + ": " + e.getMessage());
+            }
+        }
+    }
+}
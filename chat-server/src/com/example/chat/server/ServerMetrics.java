@@ -0,0 +1,179 @@
+package com.example.chat.server;
+
+import com.example.chat.common.MessageType;
+
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of the server's counters, latency histograms and gauges. Hot paths only touch
+ * striped counters and histograms; gauges are computed when someone reads them.
+ * Read through {@link #snapshot()}, JMX ({@link MetricsMBean}) or the text port
+ * ({@link MetricsEndpoint}). There is one registry per JVM: with several servers in one
+ * process the counters add up, each gauge reads the server that registered it last, and a
+ * server takes its gauges out again when it shuts down.
+ */
+public class ServerMetrics {
+    private static final MessageType[] TYPES = MessageType.values();
+    private static final ServerMetrics INSTANCE = new ServerMetrics();
+
+    private final LongAdder[] messagesIn = adders();
+    private final LongAdder[] messagesOut = adders();
+    private final Histogram broadcastFanout = new Histogram();
+    private final Histogram roomFanout = new Histogram();
+    private final Histogram queueWait = new Histogram();
+    private final Histogram socketWrite = new Histogram();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    private ServerMetrics() {
+        gauge("outbound.dropped", OutboundQueue::totalDropped);
+        gauge("outbound.disconnects", OutboundQueue::totalDisconnects);
+    }
+
+    public static ServerMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    private static LongAdder[] adders() {
+        LongAdder[] adders = new LongAdder[TYPES.length];
+        for (int i = 0; i < adders.length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * Registers (or replaces) a value computed on read.
+     */
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Removes a gauge, unless it has since been replaced by another registration.
+     */
+    public void removeGauge(String name, LongSupplier value) {
+        gauges.remove(name, value);
+    }
+
+    void messageIn(MessageType type) {
+        if (type != null) {
+            messagesIn[type.ordinal()].increment();
+        }
+    }
+
+    void messageOut(MessageType type) {
+        if (type != null) {
+            messagesOut[type.ordinal()].increment();
+        }
+    }
+
+    /** Time to hand one broadcast frame to every session, in nanoseconds. */
+    Histogram broadcastFanout() {
+        return broadcastFanout;
+    }
+
+    /** Time to hand one room frame to every member, in nanoseconds. */
+    Histogram roomFanout() {
+        return roomFanout;
+    }
+
+    /** Time a frame waited in a session's outbound queue before being written, in nanoseconds. */
+    Histogram queueWait() {
+        return queueWait;
+    }
+
+    /** Time of one socket write (a batch of frames), in nanoseconds. */
+    Histogram socketWrite() {
+        return socketWrite;
+    }
+
+    /**
+     * Returns every metric by name, sorted. Histograms are flattened into count, mean,
+     * p50, p99 and max, with latencies in microseconds.
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> values = counters();
+        gauges.forEach((name, value) -> values.put(name, value.getAsLong()));
+        return values;
+    }
+
+    /**
+     * Returns the named metrics that exist, evaluating only the gauges among them, which
+     * may be costly: some walk every session.
+     */
+    public Map<String, Long> values(Collection<String> names) {
+        Map<String, Long> counters = null;
+        Map<String, Long> values = new TreeMap<>();
+        for (String name : names) {
+            LongSupplier gauge = gauges.get(name);
+            if (gauge != null) {
+                values.put(name, gauge.getAsLong());
+                continue;
+            }
+            if (counters == null) {
+                counters = counters();
+            }
+            Long value = counters.get(name);
+            if (value != null) {
+                values.put(name, value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Returns the name of every metric, sorted, without evaluating any of them.
+     */
+    public Set<String> names() {
+        Set<String> names = new TreeSet<>(counters().keySet());
+        names.addAll(gauges.keySet());
+        return names;
+    }
+
+    /**
+     * The counters and histograms, which are cheap to read, without the gauges.
+     */
+    private Map<String, Long> counters() {
+        Map<String, Long> values = new TreeMap<>();
+        for (MessageType type : TYPES) {
+            String name = type.name().toLowerCase(Locale.ROOT);
+            values.put("messages.in." + name, messagesIn[type.ordinal()].sum());
+            values.put("messages.out." + name, messagesOut[type.ordinal()].sum());
+        }
+        putLatency(values, "broadcast.fanout", broadcastFanout);
+        putLatency(values, "room.fanout", roomFanout);
+        putLatency(values, "session.queueWait", queueWait);
+        putLatency(values, "session.socketWrite", socketWrite);
+        return values;
+    }
+
+    private static void putLatency(Map<String, Long> values, String name, Histogram histogram) {
+        values.put(name + ".count", histogram.count());
+        values.put(name + ".meanMicros", micros(histogram.mean()));
+        values.put(name + ".p50Micros", micros(histogram.percentile(0.50)));
+        values.put(name + ".p99Micros", micros(histogram.percentile(0.99)));
+        values.put(name + ".maxMicros", micros(histogram.max()));
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    /**
+     * Renders the snapshot as one {@code name value} pair per line.
+     */
+    public String dump() {
+        StringBuilder sb = new StringBuilder();
+        snapshot().forEach((name, value) -> sb.append(name).append(' ').append(value).append('\n'));
+        return sb.toString();
+    }
+}
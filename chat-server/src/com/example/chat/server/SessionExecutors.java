@@ -0,0 +1,61 @@
+package com.example.chat.server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors that run blocking client sessions and their writers.
+ */
+final class SessionExecutors {
+    static final String PLATFORM = "platform";
+    static final String VIRTUAL = "virtual";
+
+    private SessionExecutors() {}
+
+    /**
+     * Returns a fixed platform-thread pool, or a virtual-thread-per-task executor when
+     * {@code mode} is "virtual" and the running JDK supports it (Java 21+).
+     * Looked up reflectively so the server still builds and runs on older JDKs.
+     */
+    static ExecutorService create(String mode, int poolSize) {
+        ExecutorService virtual = VIRTUAL.equalsIgnoreCase(mode) ? newVirtualPerTask() : null;
+        if (virtual != null) {
+            return virtual;
+        }
+        if (VIRTUAL.equalsIgnoreCase(mode)) {
+            System.err.println("Virtual threads unavailable on Java "
+                    + Runtime.version().feature() + ", using a pool of " + poolSize + " platform threads");
+        }
+        return Executors.newFixedThreadPool(poolSize);
+    }
+
+    /**
+     * Returns the executor that drains session outbound queues. Writers only run while a
+     * session has frames pending. The platform variant is a fixed pool of {@code threads}:
+     * a client whose socket is blocked holds one of them, so slow clients can delay writes to
+     * others but never grow the thread count; their queues' overflow policy bounds the rest.
+     */
+    static ExecutorService createWriters(String mode, int threads) {
+        ExecutorService virtual = VIRTUAL.equalsIgnoreCase(mode) ? newVirtualPerTask() : null;
+        if (virtual != null) {
+            return virtual;
+        }
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(1, threads), task -> {
+            Thread t = new Thread(task, "session-writer-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private static ExecutorService newVirtualPerTask() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.chat.server;
+
+import com.example.chat.common.Config;
+import com.example.chat.common.JsonCodec;
+import com.example.chat.common.WireCodec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-connection settings shared by every session of a server, read once from configuration.
+ *
+ * @param outbound       outbound queue sizing and overflow policy
+ * @param maxBatchBytes  flush a write batch once it holds this many bytes
+ * @param maxDelayMicros flush a write batch once its oldest frame has waited this long
+ * @param tcpNoDelay     disable Nagle's algorithm; batching already avoids tiny packets
+ * @param codecs         wire codecs clients may negotiate at JOIN; JSON is always allowed
+ */
+record SessionSettings(OutboundQueue.Limits outbound, int maxBatchBytes, int maxDelayMicros, boolean tcpNoDelay,
+                       List<WireCodec> codecs) {
+
+    static SessionSettings fromConfig(Config cfg) {
+        List<WireCodec> codecs = new ArrayList<>();
+        for (String name : cfg.get("session.codecs", "json,binary,binary-deflate").split(",")) {
+            WireCodec codec = WireCodec.forName(name);
+            if (codec != null) {
+                codecs.add(codec);
+            }
+        }
+        return new SessionSettings(
+                OutboundQueue.Limits.fromConfig(cfg),
+                cfg.getInt("session.write.maxBatchBytes", 16 * 1024),
+                cfg.getInt("session.write.maxDelayMicros", 2_000),
+                cfg.getBoolean("session.tcpNoDelay", false),
+                List.copyOf(codecs)
+        );
+    }
+
+    /**
+     * Picks the first codec in the client's comma-separated preference list that this
+     * server allows, falling back to JSON.
+     */
+    WireCodec chooseCodec(String offered) {
+        if (offered != null) {
+            for (String name : offered.split(",")) {
+                WireCodec codec = WireCodec.forName(name);
+                if (codec != null && codecs.contains(codec)) {
+                    return codec;
+                }
+            }
+        }
+        return JsonCodec.INSTANCE;
+    }
+}
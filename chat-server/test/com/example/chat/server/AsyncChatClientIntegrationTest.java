@@ -0,0 +1,103 @@
+package com.example.chat.server;
+
+import com.example.chat.client.AsyncChatClient;
+import com.example.chat.client.ClientGroup;
+import com.example.chat.common.Message;
+import com.example.chat.common.MessageType;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Connects several {@link AsyncChatClient}s over one event loop and checks that a subscriber
+ * only gets what it requested, and that messages held back while reading was paused all
+ * arrive, in order, once it asks for more.
+ */
+public class AsyncChatClientIntegrationTest {
+    private static final int TEST_PORT = 54351;
+    private static final int INBOUND_CAPACITY = 4;
+    private static ChatServer server;
+    private static ClientGroup group;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        server = TestServers.start(new ChatServer(TEST_PORT, 4, ChatServer.ENGINE_NIO), TEST_PORT, "async-test-server");
+        group = new ClientGroup(1, INBOUND_CAPACITY, 64, true);
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        group.shutdown();
+        server.shutdown();
+    }
+
+    @Test
+    public void deliversOnDemandAndResumesAfterPausing() throws Exception {
+        AsyncChatClient alice = group.newClient("localhost", TEST_PORT);
+        alice.setPreferredCodecs("binary,json");
+        Recorder received = new Recorder();
+        alice.subscribe(received);
+        alice.join("alice").get(10, TimeUnit.SECONDS);
+        assertEquals("binary", alice.getCodec().name());
+
+        AsyncChatClient bob = group.newClient("localhost", TEST_PORT);
+        bob.join("bob").get(10, TimeUnit.SECONDS);
+        int count = INBOUND_CAPACITY * 5;
+        for (int i = 0; i < count; i++) {
+            assertTrue(bob.send(new Message("bob", "ALL", MessageType.TEXT, "m" + i)));
+        }
+
+        // Nothing requested yet, so nothing is delivered however much has arrived
+        assertNull(received.messages.poll(500, TimeUnit.MILLISECONDS));
+
+        received.subscription.request(Long.MAX_VALUE);
+        for (int i = 0; i < count; i++) {
+            Message msg;
+            do {
+                msg = received.messages.poll(10, TimeUnit.SECONDS);
+            } while (msg != null && (msg.getType() != MessageType.TEXT || !"bob".equals(msg.getFrom())));
+            assertEquals("m" + i, msg == null ? null : msg.getBody());
+        }
+
+        bob.close();
+        alice.close();
+        alice.closeFuture().get(5, TimeUnit.SECONDS);
+        assertTrue(received.completed.await(5, TimeUnit.SECONDS));
+    }
+
+    private static final class Recorder implements Flow.Subscriber<Message> {
+        final BlockingQueue<Message> messages = new LinkedBlockingQueue<>();
+        final CountDownLatch completed = new CountDownLatch(1);
+        volatile Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Message item) {
+            messages.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            completed.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.chat.server;
+
+import com.example.chat.common.Frame;
+import com.example.chat.common.Message;
+import com.example.chat.common.MessageType;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that catch-up from the history ring goes by when the server received each message,
+ * so a sender's skewed clock neither hides a message nor replays it into every catch-up.
+ */
+public class CatchUpTest {
+
+    @Test
+    public void ignoresTheSendersClock() throws Exception {
+        ChatManager manager = new ChatManager();
+        manager.configureHistory(16, 16);
+        RecordingSession alice = RecordingSession.join(manager, "alice", false);
+
+        send(alice, "before", Instant.now());
+        Thread.sleep(5);
+        Instant cutoff = Instant.now();
+        Thread.sleep(5);
+        // Claims to be from long ago and from the future
+        send(alice, "backdated", Instant.parse("2000-01-01T00:00:00Z"));
+        send(alice, "postdated", Instant.now().plusSeconds(3_600));
+
+        assertEquals(List.of("backdated", "postdated"), bodies(manager.missedSince(null, cutoff, 10)));
+        Instant later = Instant.now().plusMillis(1);
+        assertTrue(manager.missedSince(null, later, 10).isEmpty());
+    }
+
+    private static void send(RecordingSession session, String body, Instant claimed) {
+        Message message = new Message(session.getUsername(), "ALL", MessageType.TEXT, body);
+        message.setTimestamp(claimed);
+        session.handleMessage(message);
+    }
+
+    private static List<String> bodies(List<Frame> frames) {
+        List<String> bodies = new ArrayList<>();
+        frames.forEach(frame -> bodies.add(frame.getMessage().getBody()));
+        return bodies;
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.chat.server;
+
+import com.example.chat.client.ChatClient;
+import com.example.chat.common.Config;
+import com.example.chat.common.Frame;
+import com.example.chat.common.Message;
+import com.example.chat.common.MessageType;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Runs a two-node cluster on localhost and checks that broadcasts and direct messages
+ * reach clients connected to the other node, exactly once.
+ */
+public class ClusterIntegrationTest {
+    private static final int PORT_A = 54331;
+    private static final int PORT_B = 54332;
+    private static final int CLUSTER_PORT_A = 54341;
+    private static final int CLUSTER_PORT_B = 54342;
+    private static ChatServer nodeA;
+    private static ChatServer nodeB;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        nodeA = startNode(PORT_A, "a", CLUSTER_PORT_A, CLUSTER_PORT_B);
+        nodeB = startNode(PORT_B, "b", CLUSTER_PORT_B, CLUSTER_PORT_A);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline && !(linked(nodeA) && linked(nodeB))) {
+            Thread.sleep(50);
+        }
+    }
+
+    private static ChatServer startNode(int port, String id, int clusterPort, int peerPort) throws Exception {
+        Config cfg = new Config("/chat-server.properties");
+        cfg.set("cluster.nodeId", id);
+        cfg.set("cluster.port", String.valueOf(clusterPort));
+        cfg.set("cluster.peers", "localhost:" + peerPort);
+        cfg.set("cluster.reconnectMillis", "100");
+        return TestServers.start(new ChatServer(port, 4, ChatServer.ENGINE_NIO, SessionExecutors.PLATFORM, cfg),
+                port, "cluster-node-" + id);
+    }
+
+    private static boolean linked(ChatServer server) {
+        ClusterNode cluster = server.getManager().cluster();
+        return cluster != null && cluster.connectedPeers() == 1;
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        nodeA.shutdown();
+        nodeB.shutdown();
+    }
+
+    @Test
+    public void relaysBroadcastsAndDirectMessagesAcrossNodes() throws Exception {
+        ChatClient alice = new ChatClient("localhost", PORT_A);
+        alice.connect();
+        alice.join("alice");
+        ChatClient bob = new ChatClient("localhost", PORT_B);
+        bob.connect();
+        bob.join("bob");
+        awaitRemoteUser(nodeA, "bob");
+
+        bob.send(new Message("bob", "ALL", MessageType.TEXT, "hello from b"));
+        assertEquals("hello from b", nextText(alice, "bob").getBody());
+
+        alice.send(new Message("alice", "bob", MessageType.TEXT, "psst"));
+        Message dm = nextText(bob, "alice");
+        assertEquals("psst", dm.getBody());
+        assertEquals("bob", dm.getTo());
+
+        // A client reusing an id does not get its message dropped; the server assigns ids
+        Message first = new Message("bob", "ALL", MessageType.TEXT, "first");
+        Message reused = new Message("bob", "ALL", MessageType.TEXT, "reused");
+        reused.setId(first.getId());
+        bob.send(first);
+        bob.send(reused);
+        assertEquals("first", nextText(alice, "bob").getBody());
+        assertEquals("reused", nextText(alice, "bob").getBody());
+
+        // A relay that reaches a node twice is delivered once
+        Frame relayed = Frame.of(new Message("bob", "ALL", MessageType.TEXT, "once"));
+        nodeB.getManager().cluster().relay(relayed);
+        nodeB.getManager().cluster().relay(relayed);
+        bob.send(new Message("bob", "ALL", MessageType.TEXT, "marker"));
+        assertEquals("once", nextText(alice, "bob").getBody());
+        assertEquals("marker", nextText(alice, "bob").getBody());
+        assertEquals(1, nodeA.getManager().cluster().duplicates());
+
+        alice.disconnect();
+        bob.disconnect();
+    }
+
+    private static void awaitRemoteUser(ChatServer server, String username) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline && !server.getManager().cluster().isOnline(username)) {
+            Thread.sleep(20);
+        }
+    }
+
+    private static Message nextText(ChatClient client, String from) throws InterruptedException {
+        Message msg;
+        do {
+            msg = client.receive();
+        } while (msg.getType() != MessageType.TEXT || !from.equals(msg.getFrom()));
+        return msg;
+    }
+}
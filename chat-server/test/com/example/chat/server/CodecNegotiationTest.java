@@ -0,0 +1,59 @@
+package com.example.chat.server;
+
+import com.example.chat.common.BinaryCodec;
+import com.example.chat.common.Frame;
+import com.example.chat.common.Handshake;
+import com.example.chat.common.JsonCodec;
+import com.example.chat.common.Message;
+import com.example.chat.common.MessageType;
+import com.example.chat.common.WireCodec;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the codec negotiation at JOIN: the server takes the client's first choice that it
+ * allows, answers with a WELCOME in JSON ahead of everything else, and only then switches.
+ */
+public class CodecNegotiationTest {
+    private static final List<WireCodec> JSON_AND_BINARY = List.of(JsonCodec.INSTANCE, BinaryCodec.INSTANCE);
+
+    @Test
+    public void picksTheFirstOfferedCodecTheServerAllows() throws Exception {
+        RecordingSession alice = join("alice", "binary-deflate,binary,json");
+        Frame welcome = alice.frames.get(0);
+        assertEquals(MessageType.WELCOME, welcome.getMessage().getType());
+        assertEquals("binary", Handshake.parse(welcome.getMessage().getBody()).get(Handshake.CODEC));
+        // The client only switches once it has read the WELCOME, so that still goes out as JSON
+        assertArrayEquals(welcome.json(), welcome.encoded(alice.codec));
+        assertSame(BinaryCodec.INSTANCE, alice.codec);
+    }
+
+    @Test
+    public void fallsBackToJsonWhenNothingOfferedIsAllowed() throws Exception {
+        RecordingSession bob = join("bob", "binary-deflate, morse");
+        Map<String, String> accepted = Handshake.parse(bob.ofType(MessageType.WELCOME).get(0).getBody());
+        assertEquals("json", accepted.get(Handshake.CODEC));
+        assertSame(JsonCodec.INSTANCE, bob.codec);
+    }
+
+    @Test
+    public void aJoinWithoutOptionsGetsNoWelcome() throws Exception {
+        RecordingSession carol = new RecordingSession(new ChatManager(), JSON_AND_BINARY);
+        carol.join(new Message("carol", "ALL", MessageType.JOIN, ""));
+        assertTrue(carol.ofType(MessageType.WELCOME).isEmpty());
+        assertSame(JsonCodec.INSTANCE, carol.codec);
+    }
+
+    private static RecordingSession join(String username, String codecs) throws Exception {
+        RecordingSession session = new RecordingSession(new ChatManager(), JSON_AND_BINARY);
+        session.join(new Message(username, "ALL", MessageType.JOIN, Handshake.CODEC + "=" + codecs));
+        return session;
+    }
+}
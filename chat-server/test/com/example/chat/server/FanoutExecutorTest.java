@@ -0,0 +1,108 @@
+package com.example.chat.server;
+
+import com.example.chat.common.Frame;
+import com.example.chat.common.JsonCodec;
+import com.example.chat.common.Message;
+import com.example.chat.common.MessageType;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Mixes large striped fan-outs with small inline ones and direct messages from one sender,
+ * and checks that every recipient still sees them in the order they were sent.
+ */
+public class FanoutExecutorTest {
+
+    @Test
+    public void keepsPerRecipientOrderAcrossStripesAndInlineDeliveries() throws Exception {
+        FanoutExecutor fanout = new FanoutExecutor(4, 100, 16);
+        fanout.start();
+        ChatManager manager = new ChatManager();
+        manager.setFanout(fanout);
+        List<RecordingSession> sessions = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            RecordingSession session = new RecordingSession("user-" + i, manager);
+            manager.addSession(session.getUsername(), session);
+            sessions.add(session);
+        }
+        ChatSession[] few = sessions.subList(0, 10).toArray(new ChatSession[0]);
+        RecordingSession target = sessions.get(3);
+        int rounds = 500;
+        for (int i = 0; i < rounds; i++) {
+            // 200 recipients go through the stripes, 10 would be inline if nothing were in flight
+            manager.broadcast(text("b" + i));
+            if (fanout.inline(few.length)) {
+                for (ChatSession session : few) {
+                    session.send(Frame.of(text("r" + i)));
+                }
+            } else {
+                fanout.submit(few, Frame.of(text("r" + i)), null);
+            }
+            manager.sendTo(target.getUsername(), text("d" + i));
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (fanout.busy() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        fanout.shutdown();
+
+        for (RecordingSession session : sessions) {
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < rounds; i++) {
+                expected.add("b" + i);
+                if (sessions.indexOf(session) < few.length) {
+                    expected.add("r" + i);
+                }
+                if (session == target) {
+                    expected.add("d" + i);
+                }
+            }
+            assertEquals(expected, session.texts(), session.getUsername());
+        }
+        assertTrue(fanout.parallelFanouts() >= rounds);
+    }
+
+    private static Message text(String body) {
+        return new Message("user-0", "ALL", MessageType.TEXT, body);
+    }
+
+    private static final class RecordingSession extends ChatSession {
+        private final List<String> received = new ArrayList<>();
+
+        RecordingSession(String username, ChatManager manager) {
+            super(new SessionSettings(
+                    new OutboundQueue.Limits(1024, OutboundQueue.OverflowPolicy.DROP_OLDEST, 10_000),
+                    16 * 1024, 2_000, false, List.of(JsonCodec.INSTANCE)), manager);
+            this.username = username;
+        }
+
+        @Override
+        protected synchronized void enqueue(Frame frame) {
+            if (frame.getMessage().getType() == MessageType.TEXT) {
+                received.add(frame.getMessage().getBody());
+            }
+        }
+
+        synchronized List<String> texts() {
+            return new ArrayList<>(received);
+        }
+
+        @Override
+        int outboundDepth() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+            if (markClosed()) {
+                unregister();
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.chat.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Walks a limiter through the burst, the throttled range, drops and the disconnect, and
+ * checks that sessions from one address share its budget.
+ */
+public class FloodControlTest {
+    @Test
+    public void escalatesFromThrottlingToDropsToDisconnect() {
+        // 10 per second in bursts of 5; pauses of up to 250 ms; disconnect after 3 drops
+        FloodControl flood = new FloodControl(10, 5, 0, 0, 250, 3, null);
+        FloodControl.Limiter limiter = flood.limiter(null);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.admit());
+        }
+        // The next ones borrow from the future, 100 ms a token, while the debt stays within 250 ms
+        long first = limiter.admit();
+        long second = limiter.admit();
+        assertTrue(first > TimeUnit.MILLISECONDS.toNanos(50) && first <= TimeUnit.MILLISECONDS.toNanos(100), "" + first);
+        assertTrue(second > first && second <= TimeUnit.MILLISECONDS.toNanos(200), "" + second);
+        assertEquals(FloodControl.DROP, limiter.admit());
+        assertTrue(limiter.firstDrop());
+        assertEquals(FloodControl.DROP, limiter.admit());
+        assertEquals(FloodControl.DROP, limiter.admit());
+        assertEquals(FloodControl.DISCONNECT, limiter.admit());
+        assertEquals(2, flood.throttled());
+        assertEquals(4, flood.dropped());
+        assertEquals(1, flood.disconnected());
+    }
+
+    @Test
+    public void sessionsFromOneAddressShareItsBudget() throws Exception {
+        FloodControl flood = new FloodControl(0, 0, 10, 4, 0, 100, null);
+        InetAddress address = InetAddress.getByName("192.0.2.7");
+        FloodControl.Limiter a = flood.limiter(address);
+        FloodControl.Limiter b = flood.limiter(address);
+        FloodControl.Limiter other = flood.limiter(InetAddress.getByName("192.0.2.8"));
+        assertEquals(0, a.admit());
+        assertEquals(0, b.admit());
+        assertEquals(0, a.admit());
+        assertEquals(0, b.admit());
+        assertEquals(FloodControl.DROP, a.admit());
+        assertEquals(FloodControl.DROP, b.admit());
+        assertEquals(0, other.admit());
+        assertEquals(2, flood.addressCount());
+
+        a.release();
+        a.release();
+        assertEquals(2, flood.addressCount());
+        b.release();
+        other.release();
+        assertEquals(0, flood.addressCount());
+    }
+}
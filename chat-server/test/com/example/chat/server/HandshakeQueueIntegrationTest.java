@@ -0,0 +1,81 @@
+package com.example.chat.server;
+
+import com.example.chat.client.ChatClient;
+import com.example.chat.common.Config;
+import com.example.chat.common.Message;
+import com.example.chat.common.MessageType;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Connects more clients than the blocking engine has pool threads. A client that JOINs at
+ * once but waits longer than the handshake timeout for a thread must still be served when
+ * one frees up, rather than closed for not joining.
+ */
+public class HandshakeQueueIntegrationTest {
+    private static final int TEST_PORT = 54371;
+    private static final int TIMEOUT_MILLIS = 300;
+    private static ChatServer server;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        Config cfg = new Config("/chat-server.properties");
+        cfg.set("server.handshake.timeoutMillis", String.valueOf(TIMEOUT_MILLIS));
+        server = TestServers.start(
+                new ChatServer(TEST_PORT, 2, ChatServer.ENGINE_BLOCKING, SessionExecutors.PLATFORM, cfg),
+                TEST_PORT, "handshake-queue-server");
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        server.shutdown();
+    }
+
+    @Test
+    public void queuedClientIsServedAfterTheTimeoutHasPassed() throws Exception {
+        ChatClient alice = connect("alice", new LinkedBlockingQueue<>());
+        ChatClient bob = connect("bob", new LinkedBlockingQueue<>());
+        awaitSessions(2);
+
+        BlockingQueue<Message> carolInbox = new LinkedBlockingQueue<>();
+        ChatClient carol = connect("carol", carolInbox);
+        // Both pool threads are taken; carol waits in the queue well past the timeout
+        Thread.sleep(TIMEOUT_MILLIS * 4L);
+        assertEquals(2, server.getManager().sessionCount());
+
+        alice.disconnect();
+        Message joined;
+        do {
+            joined = carolInbox.poll(10, TimeUnit.SECONDS);
+            assertNotNull(joined, "carol was never served");
+        } while (joined.getType() != MessageType.JOIN || !"carol".equals(joined.getFrom()));
+        awaitSessions(2);
+        assertEquals(2, server.getManager().sessionCount());
+
+        bob.disconnect();
+        carol.disconnect();
+    }
+
+    private static ChatClient connect(String username, BlockingQueue<Message> inbox) throws Exception {
+        ChatClient client = new ChatClient("localhost", TEST_PORT);
+        client.setMessageHandler(inbox::add);
+        client.connect();
+        client.join(username);
+        return client;
+    }
+
+    private static void awaitSessions(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline && server.getManager().sessionCount() != count) {
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.chat.server;
+
+import com.example.chat.common.MessageType;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Turns the wheel by hand against a clock the test moves forward: a session is left alone
+ * while recently heard from, pinged once quiet for half an interval, and evicted after the
+ * timeout. Also checks that an interval that would spin the scheduler is refused.
+ */
+public class HeartbeatWheelTest {
+
+    @Test
+    public void pingsQuietSessionsAndEvictsSilentOnes() throws Exception {
+        // Added to the real System.nanoTime(), which sessions use for their last inbound traffic
+        AtomicLong skew = new AtomicLong();
+        HeartbeatWheel wheel = new HeartbeatWheel(1, 1_000, 3_000, () -> System.nanoTime() + skew.get());
+        ChatManager manager = new ChatManager();
+        manager.setHeartbeat(wheel);
+        RecordingSession alice = RecordingSession.join(manager, "alice", false);
+
+        wheel.tick();
+        assertTrue(alice.ofType(MessageType.PING).isEmpty());
+        assertEquals(0, wheel.pings());
+
+        skew.set(600_000_000L);
+        wheel.tick();
+        assertEquals(1, alice.ofType(MessageType.PING).size());
+        assertEquals(1, wheel.pings());
+        assertTrue(manager.isOnline("alice"));
+
+        skew.set(3_100_000_000L);
+        wheel.tick();
+        assertEquals(1, wheel.evictions());
+        assertFalse(manager.isOnline("alice"));
+
+        // Evicted sessions are out of the wheel
+        wheel.tick();
+        assertEquals(1, wheel.evictions());
+        assertEquals(1, wheel.pings());
+    }
+
+    @Test
+    public void rejectsIntervalsThatAreNotPositive() {
+        for (long interval : new long[] {0, -1_000}) {
+            try {
+                new HeartbeatWheel(8, interval, 3_000);
+                throw new AssertionError("accepted interval " + interval);
+            } catch (IllegalArgumentException expected) {
+                // Refused before anything is scheduled
+            }
+        }
+    }
+}
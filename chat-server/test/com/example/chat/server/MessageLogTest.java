@@ -0,0 +1,102 @@
+package com.example.chat.server;
+
+import com.example.chat.common.Frame;
+import com.example.chat.common.Message;
+import com.example.chat.common.MessageType;
+import org.junit.jupiter.api.Test;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Verifies replay, segment rolling and retention, and recovery from a torn last record.
+ */
+public class MessageLogTest {
+    private static final Instant BASE = Instant.parse("2025-01-01T00:00:00Z");
+
+    @Test
+    public void replaysAfterIdOrTimestampAcrossSegments() throws Exception {
+        Path dir = Files.createTempDirectory("message-log");
+        List<Message> sent = new ArrayList<>();
+        try (MessageLog log = MessageLog.open(new MessageLog.Settings(dir, 4096, 3, 1024, 64, false))) {
+            append(log, sent, 290);
+            awaitLogged(log, sent.get(289));
+            Thread.sleep(5);
+            Instant cutoff = Instant.now();
+            Thread.sleep(5);
+            append(log, sent, 10);
+            awaitLogged(log, sent.get(299));
+
+            assertEquals(3, log.segmentCount());
+            List<Message> afterId = log.replay(sent.get(250).getId(), null, 10);
+            assertEquals(10, afterId.size());
+            assertEquals("msg 251", afterId.get(0).getBody());
+            assertEquals("msg 260", afterId.get(9).getBody());
+
+            // By when the server received them, not the senders' timestamps
+            List<Message> since = log.replay(null, cutoff, 100);
+            assertEquals(10, since.size());
+            assertEquals("msg 290", since.get(0).getBody());
+
+            assertEquals(0, log.replay(sent.get(299).getId(), null, 10).size());
+        }
+    }
+
+    @Test
+    public void dropsTornRecordOnReopen() throws Exception {
+        Path dir = Files.createTempDirectory("message-log");
+        MessageLog.Settings settings = new MessageLog.Settings(dir, 1 << 20, 2, 1024, 64, false);
+        List<Message> sent = new ArrayList<>();
+        try (MessageLog log = MessageLog.open(settings)) {
+            append(log, sent, 20);
+            awaitLogged(log, sent.get(19));
+        }
+        Path segment;
+        try (Stream<Path> files = Files.list(dir)) {
+            segment = files.sorted().reduce((first, second) -> second).orElseThrow();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 5);
+        }
+
+        try (MessageLog log = MessageLog.open(settings)) {
+            List<Message> replayed = log.replay(null, null, 100);
+            assertEquals(19, replayed.size());
+            assertEquals("msg 18", replayed.get(18).getBody());
+
+            Message next = new Message("alice", "ALL", MessageType.TEXT, "after restart");
+            log.append(Frame.of(next));
+            awaitLogged(log, next);
+            assertEquals("after restart", log.replay(sent.get(18).getId(), null, 10).get(0).getBody());
+        }
+    }
+
+    private static void append(MessageLog log, List<Message> sent, int count) {
+        for (int n = 0; n < count; n++) {
+            int i = sent.size();
+            Message m = new Message("alice", "ALL", MessageType.TEXT, "msg " + i);
+            m.setTimestamp(BASE.plusMillis(i));
+            sent.add(m);
+            log.append(Frame.of(m));
+        }
+    }
+
+    private static void awaitLogged(MessageLog log, Message last) throws Exception {
+        for (int i = 0; i < 100; i++) {
+            List<Message> tail = log.replayLatest(null, null, 1);
+            if (!tail.isEmpty() && tail.get(0).getId().equals(last.getId())) {
+                return;
+            }
+            Thread.sleep(20);
+        }
+        throw new AssertionError("Message was not logged in time");
+    }
+}
@@ -0,0 +1,239 @@
+package com.example.chat.server;
+
+import com.example.chat.common.Config;
+import com.example.chat.common.JsonCodec;
+import com.example.chat.common.Message;
+import com.example.chat.common.MessageType;
+import com.example.chat.common.WireCodec;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Talks raw JSON lines to the NIO engine to cover what a well-behaved client never does:
+ * frames split across reads or packed into one, frames over the size limit, reads paused by
+ * flood control, and a client that disconnects while a write to it is only partly done.
+ */
+public class NioEngineIntegrationTest {
+    private static final int TEST_PORT = 54381;
+    private static ChatServer server;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        Config cfg = new Config("/chat-server.properties");
+        // Small enough that a few messages in a row have their reads paused, never dropped
+        cfg.set("flood.ratePerSecond", "20");
+        cfg.set("flood.burst", "2");
+        cfg.set("flood.ipRatePerSecond", "0");
+        cfg.set("flood.maxThrottleMillis", "30000");
+        server = TestServers.start(
+                new ChatServer(TEST_PORT, 4, ChatServer.ENGINE_NIO, SessionExecutors.PLATFORM, cfg),
+                TEST_PORT, "nio-test-server");
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        server.shutdown();
+    }
+
+    @Test
+    public void joinsWithAFrameSplitAcrossReads() throws Exception {
+        try (RawClient alice = new RawClient()) {
+            byte[] join = line(new Message("alice", "ALL", MessageType.JOIN, ""));
+            int half = join.length / 2;
+            alice.write(Arrays.copyOfRange(join, 0, half));
+            Thread.sleep(100);
+            alice.write(Arrays.copyOfRange(join, half, join.length));
+            Message joined = alice.next(MessageType.JOIN);
+            assertEquals("alice", joined.getFrom());
+        }
+    }
+
+    @Test
+    public void handlesSeveralFramesInOneReadAndResumesPausedReads() throws Exception {
+        try (RawClient bob = RawClient.joined("bob"); RawClient carol = RawClient.joined("carol")) {
+            bob.next(MessageType.JOIN);
+            // Well over the burst, so flood control pauses reading part-way through the batch
+            int count = 12;
+            byte[] batch = new byte[0];
+            for (int i = 0; i < count; i++) {
+                byte[] frame = line(new Message("bob", "ALL", MessageType.TEXT, "m" + i));
+                byte[] grown = Arrays.copyOf(batch, batch.length + frame.length);
+                System.arraycopy(frame, 0, grown, batch.length, frame.length);
+                batch = grown;
+            }
+            bob.write(batch);
+            for (int i = 0; i < count; i++) {
+                assertEquals("m" + i, carol.next(MessageType.TEXT).getBody());
+            }
+        }
+    }
+
+    @Test
+    public void closesAConnectionSendingAnOversizedFrame() throws Exception {
+        try (RawClient dave = RawClient.joined("dave")) {
+            dave.next(MessageType.JOIN);
+            awaitTrue(() -> server.getManager().isOnline("dave"));
+            byte[] huge = new byte[WireCodec.MAX_FRAME_BYTES + 64 * 1024];
+            Arrays.fill(huge, (byte) 'x');
+            try {
+                dave.write(huge);
+            } catch (IOException resetBeforeAllWasSent) {
+                // The server may close before it has read everything
+            }
+            assertTrue(dave.closedByServer(), "connection left open");
+            awaitTrue(() -> !server.getManager().isOnline("dave"));
+        }
+    }
+
+    @Test
+    public void cleansUpAClientThatDisconnectsDuringAPartialWrite() throws Exception {
+        try (RawClient erin = RawClient.joined("erin"); RawClient frank = RawClient.joined("frank")) {
+            erin.write(line(new Message("erin", "#bulk", MessageType.JOIN, "")));
+            awaitRoomJoin(erin, "erin");
+            frank.write(line(new Message("frank", "#bulk", MessageType.JOIN, "")));
+            awaitRoomJoin(erin, "frank");
+            // erin gets her own messages back; keep reading them so only frank backs up
+            erin.discardInput();
+            // frank never reads, so his socket buffers fill and writes to him stop part-way
+            String body = "y".repeat(512 * 1024);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+            while (server.getManager().outboundBacklog(false) == 0 && System.nanoTime() < deadline) {
+                erin.write(line(new Message("erin", "#bulk", MessageType.TEXT, body)));
+            }
+            assertTrue(server.getManager().outboundBacklog(false) > 0, "writes to frank never backed up");
+
+            frank.reset();
+            awaitTrue(() -> !server.getManager().isOnline("frank"));
+            awaitTrue(() -> server.getManager().outboundBacklog(false) == 0);
+
+            // The loop that served frank still serves everyone else
+            try (RawClient grace = RawClient.joined("grace")) {
+                assertEquals("grace", grace.next(MessageType.JOIN).getFrom());
+            }
+        }
+    }
+
+    private static void awaitRoomJoin(RawClient member, String username) throws IOException {
+        Message joined;
+        do {
+            joined = member.next(MessageType.JOIN);
+        } while (!username.equals(joined.getFrom()) || !"#bulk".equals(joined.getTo()));
+    }
+
+    private static byte[] line(Message message) {
+        return JsonCodec.INSTANCE.encode(message);
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("condition not met in time");
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    /**
+     * A client that writes whatever bytes the test hands it.
+     */
+    private static final class RawClient implements AutoCloseable {
+        private final Socket socket;
+        private final OutputStream out;
+        private final InputStream in;
+
+        RawClient() throws IOException {
+            socket = new Socket("localhost", TEST_PORT);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(10_000);
+            out = socket.getOutputStream();
+            in = new BufferedInputStream(socket.getInputStream());
+        }
+
+        static RawClient joined(String username) throws IOException {
+            RawClient client = new RawClient();
+            client.write(line(new Message(username, "ALL", MessageType.JOIN, "")));
+            return client;
+        }
+
+        void write(byte[] bytes) throws IOException {
+            out.write(bytes);
+            out.flush();
+        }
+
+        /**
+         * Returns the next message of {@code type}, skipping others such as PINGs.
+         */
+        Message next(MessageType type) throws IOException {
+            Message message;
+            do {
+                message = JsonCodec.INSTANCE.read(in);
+                if (message == null) {
+                    throw new IOException("Connection closed waiting for " + type);
+                }
+            } while (message.getType() != type);
+            return message;
+        }
+
+        /**
+         * Reads until the server closes the connection.
+         */
+        boolean closedByServer() throws IOException {
+            try {
+                while (JsonCodec.INSTANCE.read(in) != null) {
+                    // Whatever was queued before the close
+                }
+                return true;
+            } catch (SocketTimeoutException e) {
+                return false;
+            } catch (IOException reset) {
+                return true;
+            }
+        }
+
+        /**
+         * Reads and discards everything from now on, on a daemon thread.
+         */
+        void discardInput() {
+            Thread reader = new Thread(() -> {
+                byte[] sink = new byte[64 * 1024];
+                try {
+                    while (in.read(sink) != -1) {
+                        // Discarded
+                    }
+                } catch (IOException closed) {
+                    // Done
+                }
+            }, "nio-test-discard");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        /**
+         * Drops the connection with a reset, discarding anything the server has not read.
+         */
+        void reset() throws IOException {
+            socket.setSoLinger(true, 0);
+            socket.close();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.chat.server;
+
+import com.example.chat.common.Handshake;
+import com.example.chat.common.Message;
+import com.example.chat.common.MessageType;
+import com.example.chat.common.Presence;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Joins a wave of users while a batched session watches, and checks that it gets one delta
+ * per flush rather than a JOIN per user, that churn within a window cancels out, that new
+ * sessions share one roster frame, and that large rooms stop announcing members.
+ */
+public class PresenceTrackerTest {
+
+    @Test
+    public void batchesAWaveOfJoinsIntoOneDelta() throws Exception {
+        ChatManager manager = new ChatManager();
+        PresenceTracker tracker = new PresenceTracker(1_000, 0, true, manager);
+        manager.setPresence(tracker);
+        RecordingSession watcher = RecordingSession.join(manager, "watcher", true);
+        Message welcome = watcher.received().get(0);
+        assertEquals(MessageType.WELCOME, welcome.getType());
+        assertEquals("batched", Handshake.parse(welcome.getBody()).get(Handshake.PRESENCE));
+
+        List<RecordingSession> legacy = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            legacy.add(RecordingSession.join(manager, "user-" + i, false));
+        }
+        RecordingSession churn = RecordingSession.join(manager, "churn", false);
+        churn.close();
+        tracker.flush();
+
+        List<Message> presence = watcher.ofType(MessageType.PRESENCE);
+        assertEquals(2, presence.size());
+        assertTrue(watcher.ofType(MessageType.JOIN).isEmpty() && watcher.ofType(MessageType.LEAVE).isEmpty());
+        Presence.Roster roster = new Presence.Roster();
+        assertTrue(roster.apply(Presence.parse(presence.get(0).getBody())));
+        assertTrue(roster.apply(Presence.parse(presence.get(1).getBody())));
+        assertEquals(1, roster.version());
+        Set<String> expected = new HashSet<>();
+        expected.add("watcher");
+        legacy.forEach(session -> expected.add(session.getUsername()));
+        assertEquals(expected, roster.users());
+
+        // Sessions that join between flushes share the roster frame
+        RecordingSession first = RecordingSession.join(manager, "first", true);
+        RecordingSession second = RecordingSession.join(manager, "second", true);
+        assertSame(first.frames.get(1), second.frames.get(1));
+        Presence.Update update = Presence.parse(second.ofType(MessageType.PRESENCE).get(0).getBody());
+        assertNotNull(update);
+        assertTrue(update.snapshot());
+        assertEquals(101, update.joined().size());
+
+        // Legacy sessions still hear of each user: itself, the 99 after it, churn, first and second
+        assertEquals(103, legacy.get(0).ofType(MessageType.JOIN).size());
+        assertEquals(1, legacy.get(0).ofType(MessageType.LEAVE).size());
+    }
+
+    @Test
+    public void largeRoomsOnlyConfirmToTheMemberJoiningOrLeaving() throws Exception {
+        ChatManager manager = new ChatManager();
+        manager.setPresence(new PresenceTracker(1_000, 2, true, manager));
+        RecordingSession a = RecordingSession.join(manager, "a", true);
+        RecordingSession b = RecordingSession.join(manager, "b", true);
+        RecordingSession c = RecordingSession.join(manager, "c", true);
+        RecordingSession d = RecordingSession.join(manager, "d", true);
+        manager.joinRoom("#big", a);
+        manager.joinRoom("#big", b);
+        manager.joinRoom("#big", c);
+        manager.joinRoom("#big", d);
+        // Announced while the room had at most 2 members; c and d only see their own
+        assertEquals(2, a.ofType(MessageType.JOIN).size());
+        assertEquals(1, c.ofType(MessageType.JOIN).size());
+        assertEquals(1, d.ofType(MessageType.JOIN).size());
+        manager.leaveRoom("#big", d);
+        assertEquals(1, d.ofType(MessageType.LEAVE).size());
+        assertEquals(0, a.ofType(MessageType.LEAVE).size());
+        // Down to the limit again
+        manager.leaveRoom("#big", c);
+        assertEquals(1, a.ofType(MessageType.LEAVE).size());
+    }
+}
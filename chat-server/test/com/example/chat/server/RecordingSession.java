@@ -0,0 +1,72 @@
+package com.example.chat.server;
+
+import com.example.chat.common.Frame;
+import com.example.chat.common.Handshake;
+import com.example.chat.common.JsonCodec;
+import com.example.chat.common.Message;
+import com.example.chat.common.MessageType;
+import com.example.chat.common.WireCodec;
+
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A session without a connection that keeps every frame sent to it, for tests that drive
+ * a {@link ChatManager} directly.
+ */
+class RecordingSession extends ChatSession {
+    final List<Frame> frames = new ArrayList<>();
+
+    RecordingSession(ChatManager manager) {
+        this(manager, List.of(JsonCodec.INSTANCE));
+    }
+
+    /**
+     * A session on a server that lets clients negotiate any of {@code codecs}.
+     */
+    RecordingSession(ChatManager manager, List<WireCodec> codecs) {
+        super(new SessionSettings(
+                new OutboundQueue.Limits(1024, OutboundQueue.OverflowPolicy.DROP_OLDEST, 10_000),
+                16 * 1024, 2_000, false, codecs), manager);
+    }
+
+    /**
+     * Joins {@code username} to {@code manager}, asking for batched presence if {@code batched}.
+     */
+    static RecordingSession join(ChatManager manager, String username, boolean batched) throws ProtocolException {
+        RecordingSession session = new RecordingSession(manager);
+        String offer = batched ? Handshake.PRESENCE + "=batched" : "";
+        session.join(new Message(username, "ALL", MessageType.JOIN, offer));
+        return session;
+    }
+
+    @Override
+    protected synchronized void enqueue(Frame frame) {
+        frames.add(frame);
+    }
+
+    synchronized List<Message> received() {
+        List<Message> messages = new ArrayList<>();
+        frames.forEach(frame -> messages.add(frame.getMessage()));
+        return messages;
+    }
+
+    List<Message> ofType(MessageType type) {
+        List<Message> messages = new ArrayList<>(received());
+        messages.removeIf(message -> message.getType() != type);
+        return messages;
+    }
+
+    @Override
+    int outboundDepth() {
+        return 0;
+    }
+
+    @Override
+    public void close() {
+        if (markClosed()) {
+            unregister();
+        }
+    }
+}
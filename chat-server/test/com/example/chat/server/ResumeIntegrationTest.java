@@ -0,0 +1,125 @@
+package com.example.chat.server;
+
+import com.example.chat.client.ChatClient;
+import com.example.chat.common.Config;
+import com.example.chat.common.Message;
+import com.example.chat.common.MessageType;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Drops a resumable client's connection, keeps talking to it, and reconnects it with its
+ * token: it must get exactly what it missed, stay in its room, and the other user must not
+ * see it leave.
+ */
+public class ResumeIntegrationTest {
+    private static final int TEST_PORT = 54361;
+    private static ChatServer server;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        Config cfg = new Config("/chat-server.properties");
+        cfg.set("session.resume.windowSeconds", "30");
+        server = TestServers.start(new ChatServer(TEST_PORT, 4, ChatServer.ENGINE_NIO, SessionExecutors.PLATFORM, cfg),
+                TEST_PORT, "resume-test-server");
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        server.shutdown();
+    }
+
+    @Test
+    public void resumesSilentlyAndResendsOnlyWhatWasMissed() throws Exception {
+        BlockingQueue<Message> aliceInbox = new LinkedBlockingQueue<>();
+        ChatClient alice = new ChatClient("localhost", TEST_PORT);
+        alice.setPreferredCodecs("binary,json");
+        alice.setResume(null, null);
+        alice.setMessageHandler(aliceInbox::add);
+        alice.connect();
+        alice.join("alice");
+        assertNotNull(alice.getResumeToken());
+        assertFalse(alice.isResumed());
+        alice.send(new Message("alice", "#ops", MessageType.JOIN, ""));
+
+        BlockingQueue<Message> bobInbox = new LinkedBlockingQueue<>();
+        ChatClient bob = new ChatClient("localhost", TEST_PORT);
+        bob.setMessageHandler(bobInbox::add);
+        bob.connect();
+        bob.join("bob");
+        bob.send(new Message("bob", "#ops", MessageType.JOIN, ""));
+        for (int i = 0; i < 5; i++) {
+            bob.send(new Message("bob", "ALL", MessageType.TEXT, "m" + i));
+        }
+        assertEquals(List.of("m0", "m1", "m2", "m3", "m4"), textsFromBob(aliceInbox, 5));
+
+        // Gone without a LEAVE, as when a phone loses its network
+        alice.disconnect();
+        ResumeWindow window = server.getManager().resumeWindow();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (window.parked() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, window.parked());
+        for (int i = 5; i < 8; i++) {
+            bob.send(new Message("bob", "ALL", MessageType.TEXT, "m" + i));
+        }
+        bob.send(new Message("bob", "#ops", MessageType.TEXT, "r0"));
+
+        BlockingQueue<Message> resumedInbox = new LinkedBlockingQueue<>();
+        ChatClient again = new ChatClient("localhost", TEST_PORT);
+        again.setPreferredCodecs("binary,json");
+        again.setResume(alice.getResumeToken(), alice.getLastReceivedId());
+        again.setMessageHandler(resumedInbox::add);
+        again.connect();
+        again.join("alice");
+        assertTrue(again.isResumed());
+        bob.send(new Message("bob", "#ops", MessageType.TEXT, "r1"));
+        assertEquals(List.of("m5", "m6", "m7", "r0", "r1"), textsFromBob(resumedInbox, 5));
+        assertEquals(0, window.parked());
+        assertEquals(1, window.resumed());
+
+        // Everything bob saw of alice happened before the drop
+        again.send(new Message("alice", "ALL", MessageType.TEXT, "back"));
+        List<Message> seen = new ArrayList<>();
+        Message msg;
+        while ((msg = bobInbox.poll(10, TimeUnit.SECONDS)) != null && !"back".equals(msg.getBody())) {
+            seen.add(msg);
+        }
+        assertNotNull(msg);
+        for (Message m : seen) {
+            if ("alice".equals(m.getFrom())) {
+                assertTrue(m.getType() != MessageType.LEAVE, "alice was seen leaving");
+            }
+        }
+        again.send(new Message("alice", "ALL", MessageType.LEAVE, ""));
+        again.disconnect();
+        bob.disconnect();
+    }
+
+    private static List<String> textsFromBob(BlockingQueue<Message> inbox, int count) throws InterruptedException {
+        List<String> texts = new ArrayList<>();
+        while (texts.size() < count) {
+            Message msg = inbox.poll(10, TimeUnit.SECONDS);
+            if (msg == null) {
+                break;
+            }
+            if (msg.getType() == MessageType.TEXT && "bob".equals(msg.getFrom())) {
+                texts.add(msg.getBody());
+            }
+        }
+        return texts;
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.chat.server;
+
+import com.example.chat.common.Frame;
+import com.example.chat.common.Message;
+import com.example.chat.common.MessageType;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Drives sessions through room membership, room messages and direct messages, including
+ * the refusals: posting to a room one is not in and writing to a user who is not online.
+ */
+public class RoutingTest {
+
+    @Test
+    public void roomsReachOnlyTheirMembers() throws Exception {
+        ChatManager manager = new ChatManager();
+        RecordingSession alice = RecordingSession.join(manager, "alice", false);
+        RecordingSession bob = RecordingSession.join(manager, "bob", false);
+        RecordingSession carol = RecordingSession.join(manager, "carol", false);
+
+        alice.handleMessage(new Message("alice", "#dev", MessageType.JOIN, ""));
+        bob.handleMessage(new Message("bob", "#dev", MessageType.JOIN, ""));
+        assertTrue(manager.isMember("#dev", alice) && manager.isMember("#dev", bob));
+        assertEquals(List.of("alice has joined #dev", "bob has joined #dev"), bodies(alice, MessageType.JOIN, "#dev"));
+
+        bob.handleMessage(new Message("bob", "#dev", MessageType.TEXT, "standup?"));
+        assertEquals(List.of("standup?"), bodies(alice, MessageType.TEXT, "#dev"));
+        assertEquals(List.of("standup?"), bodies(bob, MessageType.TEXT, "#dev"));
+
+        // Not a member: refused, and the members hear nothing
+        carol.handleMessage(new Message("carol", "#dev", MessageType.TEXT, "let me in"));
+        assertEquals(List.of("You are not in #dev"), bodies(carol, MessageType.TEXT, "carol"));
+        assertEquals(1, bodies(alice, MessageType.TEXT, "#dev").size());
+
+        bob.handleMessage(new Message("bob", "#dev", MessageType.LEAVE, ""));
+        assertFalse(manager.isMember("#dev", bob));
+        assertEquals(List.of("bob has left #dev"), bodies(alice, MessageType.LEAVE, "#dev"));
+        assertEquals(List.of("bob has left #dev"), bodies(bob, MessageType.LEAVE, "#dev"));
+        // Leaving a room does not disconnect
+        assertTrue(manager.isOnline("bob"));
+
+        alice.handleMessage(new Message("alice", "#dev", MessageType.TEXT, "just me"));
+        assertEquals(List.of("standup?"), bodies(bob, MessageType.TEXT, "#dev"));
+    }
+
+    @Test
+    public void directMessagesReachTheRecipientAndEchoToTheSender() throws Exception {
+        ChatManager manager = new ChatManager();
+        RecordingSession alice = RecordingSession.join(manager, "alice", false);
+        RecordingSession bob = RecordingSession.join(manager, "bob", false);
+        RecordingSession carol = RecordingSession.join(manager, "carol", false);
+
+        alice.handleMessage(new Message("alice", "bob", MessageType.TEXT, "psst"));
+        assertEquals(List.of("psst"), bodies(bob, MessageType.TEXT, "bob"));
+        assertEquals(List.of("psst"), bodies(alice, MessageType.TEXT, "bob"));
+        assertTrue(bodies(carol, MessageType.TEXT, "bob").isEmpty());
+
+        // To oneself: delivered once, not echoed a second time
+        alice.handleMessage(new Message("alice", "alice", MessageType.TEXT, "note to self"));
+        assertEquals(List.of("note to self"), bodies(alice, MessageType.TEXT, "alice"));
+
+        alice.handleMessage(new Message("alice", "nobody", MessageType.TEXT, "hello?"));
+        assertEquals(List.of("note to self", "nobody is not online"), bodies(alice, MessageType.TEXT, "alice"));
+        assertTrue(bodies(alice, MessageType.TEXT, "nobody").isEmpty());
+    }
+
+    /**
+     * Bodies of the messages of {@code type} addressed to {@code to} that the session received.
+     */
+    @Test
+    public void everyRecipientGetsTheSameFrame() throws Exception {
+        ChatManager manager = new ChatManager();
+        List<RecordingSession> sessions = new ArrayList<>();
+        for (String name : List.of("alice", "bob", "carol", "dave")) {
+            sessions.add(RecordingSession.join(manager, name, false));
+        }
+        sessions.get(0).handleMessage(new Message("alice", "ALL", MessageType.TEXT, "once"));
+
+        // One frame for the broadcast, so its encoding is shared rather than redone per recipient
+        Frame sent = textFrame(sessions.get(0));
+        for (RecordingSession session : sessions) {
+            assertSame(sent, textFrame(session));
+        }
+    }
+
+    private static Frame textFrame(RecordingSession session) {
+        synchronized (session) {
+            return session.frames.stream()
+                    .filter(frame -> frame.getMessage().getType() == MessageType.TEXT)
+                    .findFirst()
+                    .orElseThrow(() -> new AssertionError(session.getUsername() + " got no TEXT"));
+        }
+    }
+
+    private static List<String> bodies(RecordingSession session, MessageType type, String to) {
+        List<String> bodies = new ArrayList<>();
+        for (Message message : session.ofType(type)) {
+            if (to.equals(message.getTo())) {
+                bodies.add(message.getBody());
+            }
+        }
+        return bodies;
+    }
+}
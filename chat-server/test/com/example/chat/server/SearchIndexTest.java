@@ -0,0 +1,94 @@
+package com.example.chat.server;
+
+import com.example.chat.common.Frame;
+import com.example.chat.common.Message;
+import com.example.chat.common.MessageType;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Verifies matching across spilled and in-memory segments, the sender, room and time filters,
+ * room visibility, and that the index survives a restart.
+ */
+public class SearchIndexTest {
+    private static final Instant BASE = Instant.parse("2025-01-01T00:00:00Z");
+
+    @Test
+    public void findsNewestMatchesAcrossSegmentsWithFilters() throws Exception {
+        Path dir = Files.createTempDirectory("search-index");
+        // Small enough that 300 messages spill several segments, of which 3 are kept
+        SearchIndex.Settings settings = new SearchIndex.Settings(dir, 8 * 1024, 3, 1024, 50);
+        try (SearchIndex index = SearchIndex.open(settings)) {
+            for (int i = 0; i < 300; i++) {
+                String to = i % 10 == 0 ? "#ops" : "ALL";
+                String body = "msg " + i + (i % 2 == 0 ? " Deploy finished" : " lunch?");
+                index.add(Frame.of(message(i % 3 == 0 ? "alice" : "bob", to, body, i)));
+            }
+            List<String> deploys = bodies(search(index, "deploy FINISHED limit:5", Set.of()));
+            assertEquals(List.of("msg 298 Deploy finished", "msg 296 Deploy finished", "msg 294 Deploy finished",
+                    "msg 292 Deploy finished", "msg 288 Deploy finished"), deploys);
+            assertTrue(index.segmentCount() > 0 && index.segmentCount() <= 3, "" + index.segmentCount());
+
+            // Room messages only for members
+            assertEquals(List.of("msg 290 Deploy finished", "msg 280 Deploy finished"),
+                    bodies(search(index, "in:#ops limit:2", Set.of("#ops"))));
+            assertTrue(search(index, "in:#ops", Set.of()).isEmpty());
+
+            List<Message> fromAlice = search(index, "lunch from:alice after:" + BASE.plusSeconds(280)
+                    + " before:" + BASE.plusSeconds(295), Set.of());
+            assertEquals(List.of("msg 291 lunch?", "msg 285 lunch?"), bodies(fromAlice));
+            assertEquals(1, search(index, "msg 275", Set.of()).size());
+            // Expired with its segment
+            assertTrue(search(index, "msg 17", Set.of()).isEmpty());
+        }
+
+        try (SearchIndex reopened = SearchIndex.open(settings)) {
+            assertEquals(List.of("msg 299 lunch?"), bodies(search(reopened, "299", Set.of())));
+        }
+    }
+
+    @Test
+    public void rejectsQueriesWithNothingToMatch() throws Exception {
+        Path dir = Files.createTempDirectory("search-index");
+        try (SearchIndex index = SearchIndex.open(new SearchIndex.Settings(dir, 1 << 20, 2, 16, 10))) {
+            for (String query : new String[] {"", "  ", "?!", "limit:3", "after:yesterday deploy"}) {
+                try {
+                    index.parse(query);
+                    throw new AssertionError("accepted " + query);
+                } catch (IllegalArgumentException expected) {
+                    // Reported to the client as error=...
+                }
+            }
+            assertEquals(10, index.parse("x limit:500").limit());
+        }
+    }
+
+    private static Message message(String from, String to, String body, int second) {
+        Message message = new Message(from, to, MessageType.TEXT, body);
+        message.setTimestamp(BASE.plusSeconds(second));
+        return message;
+    }
+
+    private static List<Message> search(SearchIndex index, String text, Set<String> rooms) throws Exception {
+        CompletableFuture<List<Message>> result = new CompletableFuture<>();
+        assertTrue(index.search(index.parse(text), rooms, result::complete));
+        return result.get(10, TimeUnit.SECONDS);
+    }
+
+    private static List<String> bodies(List<Message> messages) {
+        List<String> bodies = new ArrayList<>();
+        messages.forEach(message -> bodies.add(message.getBody()));
+        return bodies;
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.chat.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that listing metrics evaluates no gauge and reading some evaluates only those,
+ * as JMX consoles list and poll attributes one by one, and what the metrics port prints.
+ */
+public class ServerMetricsTest {
+    private static final int METRICS_PORT = 54391;
+
+    @Test
+    public void evaluatesOnlyTheGaugesAskedFor() {
+        ServerMetrics metrics = ServerMetrics.getInstance();
+        AtomicInteger reads = new AtomicInteger();
+        LongSupplier costly = () -> reads.incrementAndGet() * 10L;
+        LongSupplier other = () -> {
+            throw new AssertionError("evaluated a gauge nobody asked for");
+        };
+        metrics.gauge("test.costly", costly);
+        metrics.gauge("test.other", other);
+        try {
+            assertTrue(metrics.names().containsAll(List.of("test.costly", "test.other", "messages.in.text")));
+            assertEquals(0, reads.get());
+
+            Map<String, Long> values = metrics.values(List.of("test.costly", "messages.in.text", "no.such.metric"));
+            assertEquals(1, reads.get());
+            assertEquals(Long.valueOf(10), values.get("test.costly"));
+            assertTrue(values.containsKey("messages.in.text"));
+            assertEquals(2, values.size());
+        } finally {
+            metrics.removeGauge("test.costly", costly);
+            metrics.removeGauge("test.other", other);
+        }
+    }
+
+    @Test
+    public void endpointPrintsOneSortedNameValueLinePerMetric() throws Exception {
+        ServerMetrics metrics = ServerMetrics.getInstance();
+        LongSupplier answer = () -> 42;
+        metrics.gauge("test.endpoint", answer);
+        metrics.socketWrite().record(3_000_000);
+        MetricsEndpoint endpoint = new MetricsEndpoint(METRICS_PORT, metrics);
+        endpoint.start();
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), METRICS_PORT)) {
+            socket.setSoTimeout(5_000);
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            List<String> names = new ArrayList<>();
+            Map<String, Long> values = new HashMap<>();
+            String line;
+            // The endpoint closes the connection once it has written everything
+            while ((line = in.readLine()) != null) {
+                assertTrue(line.matches("[A-Za-z0-9.]+ -?[0-9]+"), "not a name value line: " + line);
+                String[] parts = line.split(" ");
+                names.add(parts[0]);
+                values.put(parts[0], Long.parseLong(parts[1]));
+            }
+            assertEquals(new ArrayList<>(new TreeSet<>(names)), names);
+            assertEquals(metrics.names(), new TreeSet<>(names));
+            assertEquals(Long.valueOf(42), values.get("test.endpoint"));
+            assertTrue(values.get("session.socketWrite.count") >= 1);
+            assertTrue(values.get("session.socketWrite.maxMicros") >= 2_000, "latencies are not in micros");
+            assertTrue(values.containsKey("messages.in.text") && values.containsKey("room.fanout.p99Micros"));
+        } finally {
+            endpoint.shutdown();
+            metrics.removeGauge("test.endpoint", answer);
+        }
+    }
+}
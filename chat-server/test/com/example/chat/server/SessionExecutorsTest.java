@@ -0,0 +1,57 @@
+package com.example.chat.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the session and writer executors for each mode: platform threads are a pool of
+ * the configured size, and virtual mode runs on virtual threads where the JDK has them and
+ * falls back to the platform pool where it does not.
+ */
+public class SessionExecutorsTest {
+
+    @Test
+    public void platformModeIsAFixedPool() {
+        assertPool(3, SessionExecutors.create(SessionExecutors.PLATFORM, 3));
+        assertPool(2, SessionExecutors.createWriters(SessionExecutors.PLATFORM, 2));
+    }
+
+    @Test
+    public void virtualModeUsesVirtualThreadsWhenTheJdkHasThem() throws Exception {
+        ExecutorService sessions = SessionExecutors.create("VIRTUAL", 3);
+        try {
+            if (Runtime.version().feature() < 21) {
+                assertPool(3, sessions);
+                return;
+            }
+            boolean virtual = sessions.submit(() -> isVirtual(Thread.currentThread())).get(5, TimeUnit.SECONDS);
+            assertTrue(virtual, "session ran on a platform thread");
+        } finally {
+            sessions.shutdownNow();
+        }
+    }
+
+    private static void assertPool(int threads, ExecutorService executor) {
+        try {
+            assertTrue(executor instanceof ThreadPoolExecutor, executor.getClass().getName());
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            assertEquals(threads, pool.getCorePoolSize());
+            assertEquals(threads, pool.getMaximumPoolSize());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Thread.isVirtual() only exists from Java 21 on, like the executor itself
+    private static boolean isVirtual(Thread thread) throws ReflectiveOperationException {
+        Method isVirtual = Thread.class.getMethod("isVirtual");
+        return (Boolean) isVirtual.invoke(thread);
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.chat.server;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts servers for the integration tests and waits until they accept connections.
+ */
+final class TestServers {
+    private static final long START_TIMEOUT_SECONDS = 10;
+
+    private TestServers() {}
+
+    /**
+     * Runs {@code server} on a daemon thread and returns once {@code port} accepts connections.
+     */
+    static ChatServer start(ChatServer server, int port, String threadName) throws InterruptedException {
+        Thread thread = new Thread(server::start, threadName);
+        thread.setDaemon(true);
+        thread.start();
+        awaitListening(port);
+        return server;
+    }
+
+    static void awaitListening(int port) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(START_TIMEOUT_SECONDS);
+        while (true) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException e) {
+                if (System.nanoTime() > deadline) {
+                    throw new IllegalStateException("Nothing is listening on port " + port);
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+}